@@ -0,0 +1,45 @@
+package budget;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Command line options of the form --name or --name=value
+ */
+class AppOptions {
+    private final Map<String, String> options = new HashMap<>();
+
+    /**
+     * @param known the names of the options
+     * @throws IllegalArgumentException for an argument which is no option or an unknown option,
+     * so a typo does not silently run without it
+     */
+    AppOptions(Collection<String> known, String... args) {
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+            int separator = arg.indexOf('=');
+            String name = separator == -1 ? arg.substring(2) : arg.substring(2, separator);
+            if (!known.contains(name)) {
+                throw new IllegalArgumentException("Unknown option: --" + name);
+            }
+            options.put(name, separator == -1 ? "" : arg.substring(separator + 1));
+        }
+    }
+
+    public boolean has(String name) {
+        return options.containsKey(name);
+    }
+
+    public String get(String name, String defaultValue) {
+        String value = options.get(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+
+    public long getLong(String name, long defaultValue) {
+        String value = options.get(name);
+        return value == null || value.isEmpty() ? defaultValue : Long.parseLong(value);
+    }
+}
@@ -0,0 +1,123 @@
+package budget;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Saves a DataManager in the background whenever it has unsaved changes. A burst of changes
+ * is coalesced into one save, which starts once no change came for the quiet period, but at
+ * the latest the maximum delay after the first unsaved change, so a steady stream of changes
+ * can not put the save off forever.
+ *
+ * The saves run on one daemon thread; a change costs a volatile read, only the first change
+ * of a burst schedules a check. Between the checks the change count of the DataManager tells
+ * whether the burst is still going on. A failed save is retried after the maximum delay.
+ * close() stops the thread and saves what is left on the calling thread.
+ */
+class AutoSaver implements Closeable {
+    private final DataManager dataManager;
+    private final long quietNanos;
+    private final long maxDelayNanos;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final LongAdder saves = new LongAdder();
+    /** the time of the first change of the pending burst */
+    private volatile long burstStart;
+    /** the change count at the last check of the pending burst */
+    private volatile long seenChanges;
+
+    AutoSaver(DataManager dataManager, long quietMillis, long maxDelayMillis) {
+        if (quietMillis <= 0 || maxDelayMillis < quietMillis) {
+            throw new IllegalArgumentException("Autosave needs 0 < quiet period <= maximum delay");
+        }
+        this.dataManager = dataManager;
+        this.quietNanos = TimeUnit.MILLISECONDS.toNanos(quietMillis);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "autosaver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        dataManager.setChangeListener(this::changed);
+        if (dataManager.hasUnsavedChanges()) {
+            changed();
+        }
+    }
+
+    /**
+     * Called after every change of the DataManager
+     */
+    void changed() {
+        if (!scheduled.get() && scheduled.compareAndSet(false, true)) {
+            burstStart = System.nanoTime();
+            seenChanges = dataManager.getChangeCount();
+            schedule(quietNanos);
+        }
+    }
+
+    private void schedule(long delayNanos) {
+        try {
+            scheduler.schedule(this::check, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // closed, close() saves the rest
+        }
+    }
+
+    private void check() {
+        final long changes = dataManager.getChangeCount();
+        final long now = System.nanoTime();
+        final long deadline = burstStart + maxDelayNanos;
+        if (changes != seenChanges && now - deadline < 0) {
+            seenChanges = changes;      // still busy: wait for a quiet period, but not past the deadline
+            schedule(Math.min(quietNanos, deadline - now));
+            return;
+        }
+        if (dataManager.hasUnsavedChanges()) {
+            try {
+                dataManager.saveData();
+                saves.increment();
+            } catch (IOException | UncheckedIOException e) {
+                e.printStackTrace();
+                burstStart = now;
+                seenChanges = dataManager.getChangeCount();
+                schedule(maxDelayNanos);
+                return;
+            }
+        }
+        scheduled.set(false);
+        if (dataManager.hasUnsavedChanges()) {
+            changed();                  // changed during the save, or a change did not get to schedule
+        }
+    }
+
+    /**
+     * @return the number of background saves so far
+     */
+    public long getSaveCount() {
+        return saves.sum();
+    }
+
+    /**
+     * Stops the background saves (waiting for a running one) and saves the unsaved changes
+     */
+    @Override
+    public void close() throws IOException {
+        dataManager.setChangeListener(null);
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (dataManager.hasUnsavedChanges()) {
+            dataManager.saveData();
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package budget;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs a script of commands against a DataManager without any menus, one command per line:
+ * <pre>
+ * income 1000.00
+ * category add "Cost center 7"       (registers a category; names with spaces are quoted)
+ * purchase Food 3.50 Milk            (the name is the rest of the line, the category has to exist)
+ * purchase "Cost center 7" 12 Paper
+ * show [category|all]
+ * balance
+ * analyze all|types|category
+ * history [category|all]            (every purchase in the order it was made)
+ * spending FIRST LAST                (per category between the dates, like 2024-01-01 2024-12-31)
+ * search PREFIX                      (purchases whose name starts with the rest of the line)
+ * save
+ * load
+ * import FILE...                     (purchases outside of sections go to Other)
+ * exit
+ * </pre>
+ * Blank lines and lines starting with # are skipped. A failing command is reported on the
+ * error stream with its line number and the script goes on. The reports are streamed to a
+ * buffered writer that is flushed at the end.
+ */
+class BatchRunner {
+    private final DataManager dataManager;
+    private final PrintWriter out;
+    private long commands;
+    private long errors;
+    private long elapsedNanos;
+
+    BatchRunner(DataManager dataManager, PrintWriter out) {
+        this.dataManager = dataManager;
+        this.out = out;
+    }
+
+    public void run(BufferedReader reader) throws IOException {
+        final long start = System.nanoTime();
+        long lineNumber = 0;
+        String lineText;
+        try {
+            while ((lineText = reader.readLine()) != null) {
+                lineNumber++;
+                Tokenizer tokens = new Tokenizer(lineText);
+                if (!tokens.hasNext() || lineText.trim().startsWith("#")) {
+                    continue;
+                }
+                commands++;
+                try {
+                    if (!execute(tokens)) {
+                        break;
+                    }
+                } catch (IllegalArgumentException | ArithmeticException | IOException | UncheckedIOException e) {
+                    errors++;
+                    System.err.println("Line " + lineNumber + ": " + e.getMessage() + ": " + lineText);
+                }
+            }
+        } finally {
+            out.flush();
+            elapsedNanos = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * @return false after the exit command
+     */
+    private boolean execute(Tokenizer tokens) throws IOException {
+        final String command = tokens.next().toLowerCase(Locale.ROOT);
+        switch (command) {
+            case "income":
+                dataManager.setIncome(incomeOf(tokens.next()));
+                break;
+            case "category":
+                if (!"add".equalsIgnoreCase(tokens.next())) {
+                    throw new IllegalArgumentException("Unknown category command");
+                }
+                dataManager.registerCategory(tokens.rest());
+                break;
+            case "purchase": {
+                int category = categoryOf(tokens.next());
+                long priceCents = priceOf(tokens.next());
+                String name = tokens.rest();
+                if (name.isEmpty()) {
+                    throw new IllegalArgumentException("Missing purchase name");
+                }
+                dataManager.addPurchaseToList(category, name, priceCents);
+                break;
+            }
+            case "show":
+                show(tokens.hasNext() ? tokens.rest() : "all");
+                break;
+            case "balance":
+                out.printf("Balance: $%.2f%n", dataManager.getBalance().doubleValue());
+                break;
+            case "analyze":
+                analyze(tokens.hasNext() ? tokens.rest() : "all");
+                break;
+            case "history":
+                history(tokens.hasNext() ? tokens.rest() : "all");
+                break;
+            case "spending": {
+                LocalDate first = dateOf(tokens.next());
+                LocalDate last = dateOf(tokens.next());
+                out.println("Spending from " + first + " to " + last + ":");
+                dataManager.writeDateRangeSums(first, last, out);
+                out.println();
+                break;
+            }
+            case "search":
+                if (dataManager.writeSearchResults(tokens.rest(), out) == 0) {
+                    out.println("No purchase was found!");
+                }
+                break;
+            case "save":
+                dataManager.saveData();
+                out.println("Purchases were saved!");
+                break;
+            case "load":
+                dataManager.loadData();
+                out.println("Purchases were loaded!");
+                break;
+            case "import":
+                importFiles(tokens);
+                break;
+            case "exit":
+                return false;
+            default:
+                throw new IllegalArgumentException("Unknown command " + command);
+        }
+        return true;
+    }
+
+    private void show(String categoryName) throws IOException {
+        long count;
+        BigDecimal sum;
+        if ("all".equalsIgnoreCase(categoryName)) {
+            out.println("All:");
+            count = dataManager.writePurchaseTotalContent(out);
+            sum = dataManager.getPurchasesTotalSum();
+        } else {
+            int category = categoryOf(categoryName);
+            out.println(dataManager.getCategoryName(category) + ":");
+            count = dataManager.writePurchaseListContent(category, out);
+            sum = dataManager.getPurchaseListSum(category);
+        }
+        out.println(count == 0 ? "The purchase list is empty!" : "Total sum: $" + sum.toPlainString());
+    }
+
+    private void analyze(String what) throws IOException {
+        long count;
+        if ("all".equalsIgnoreCase(what)) {
+            out.println("All:");
+            count = dataManager.writePurchaseTotalContentPriceSorted(out);
+        } else if ("types".equalsIgnoreCase(what)) {
+            out.println("Types:");
+            count = dataManager.writePurchasesTypesSumSorted(out);
+            out.println();
+        } else {
+            int category = categoryOf(what);
+            out.println(dataManager.getCategoryName(category) + ":");
+            count = dataManager.writePurchaseListContentPriceSorted(category, out);
+        }
+        if (count == 0) {
+            out.println("The purchase list is empty!");
+        }
+    }
+
+    private void history(String categoryName) {
+        final int only = "all".equalsIgnoreCase(categoryName) ? -1 : categoryOf(categoryName);
+        final StringBuilder line = new StringBuilder(128);
+        final long[] count = new long[1];
+        dataManager.getTransactions().forEach((timestamp, category, name, priceCents) -> {
+            if (only < 0 || category == only) {
+                line.setLength(0);
+                line.append(Instant.ofEpochMilli(timestamp)).append(' ')
+                        .append(dataManager.getCategoryName(category)).append(' ').append(name).append(" $");
+                out.println(Cents.appendTo(line, priceCents));
+                count[0]++;
+            }
+        });
+        if (count[0] == 0) {
+            out.println("The purchase list is empty!");
+        }
+    }
+
+    private void importFiles(Tokenizer tokens) throws IOException {
+        final List<Path> files = new ArrayList<>();
+        while (tokens.hasNext()) {
+            files.add(Path.of(tokens.next()));
+        }
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("Missing file names");
+        }
+        out.println(dataManager.importPurchases(files, dataManager.registerCategory("Other")));
+    }
+
+    /**
+     * Rounded half up like the Add Income menu does
+     */
+    private static BigDecimal incomeOf(String token) {
+        try {
+            return Cents.parseAmount(token);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid amount " + token);
+        }
+    }
+
+    /**
+     * Rounded up like the Add Purchase menu does
+     */
+    private static long priceOf(String token) {
+        try {
+            return Cents.parse(token);
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException("Invalid amount " + token);
+        }
+    }
+
+    private static LocalDate dateOf(String token) {
+        try {
+            return LocalDate.parse(token);
+        } catch (DateTimeException e) {
+            throw new IllegalArgumentException("Invalid date " + token);
+        }
+    }
+
+    private int categoryOf(String name) {
+        int category = dataManager.categoryOf(name);
+        if (category < 0) {
+            throw new IllegalArgumentException("Unknown category " + name);
+        }
+        return category;
+    }
+
+    public long getCommands() {
+        return commands;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public double getCommandsPerSecond() {
+        return elapsedNanos == 0 ? 0 : commands * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Executed %,d commands in %.3f s, %,.0f commands/s, %,d failed",
+                commands, elapsedNanos / 1e9, getCommandsPerSecond(), errors);
+    }
+
+    /**
+     * Splits a command line on white space; a token may be quoted with double quotes
+     * ("" inside the quotes is one quote)
+     */
+    static class Tokenizer {
+        private final String lineText;
+        private int position;
+
+        Tokenizer(String lineText) {
+            this.lineText = lineText;
+            skipSpaces();
+        }
+
+        boolean hasNext() {
+            return position < lineText.length();
+        }
+
+        String next() {
+            if (!hasNext()) {
+                throw new IllegalArgumentException("Missing argument");
+            }
+            final String token;
+            if (lineText.charAt(position) == '"') {
+                final StringBuilder sb = new StringBuilder();
+                int i = position + 1;
+                while (true) {
+                    int quote = lineText.indexOf('"', i);
+                    if (quote < 0) {
+                        throw new IllegalArgumentException("Unterminated quote");
+                    }
+                    sb.append(lineText, i, quote);
+                    if (quote + 1 < lineText.length() && lineText.charAt(quote + 1) == '"') {
+                        sb.append('"');
+                        i = quote + 2;
+                    } else {
+                        position = quote + 1;
+                        break;
+                    }
+                }
+                token = sb.toString();
+            } else {
+                int end = position;
+                while (end < lineText.length() && !Character.isWhitespace(lineText.charAt(end))) {
+                    end++;
+                }
+                token = lineText.substring(position, end);
+                position = end;
+            }
+            skipSpaces();
+            return token;
+        }
+
+        /**
+         * @return the rest of the line without the surrounding white space, unquoted if it is one quoted token
+         */
+        String rest() {
+            if (hasNext() && lineText.charAt(position) == '"') {
+                int start = position;
+                String token = next();
+                if (!hasNext()) {
+                    return token;
+                }
+                position = start;
+            }
+            String rest = lineText.substring(position).trim();
+            position = lineText.length();
+            return rest;
+        }
+
+        private void skipSpaces() {
+            while (position < lineText.length() && Character.isWhitespace(lineText.charAt(position))) {
+                position++;
+            }
+        }
+    }
+}
@@ -0,0 +1,457 @@
+package budget;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Binary ledger snapshot, read through FileChannel.map without any text parsing. Reading the
+ * file is a small part of a load: every name is still interned and added to its category and
+ * every transaction appended, only the sorting of the indexes is saved.
+ * <pre>
+ *  0  int   magic "BMGB"
+ *  4  int   version
+ *  8  long  income in cents
+ * 16  long  last journal sequence contained (-1 without a journal)
+ * 24  int   category count
+ * 28  int   purchase count
+ * 32  long  offset of the cents column
+ * 40  long  offset of the name offsets
+ * 48  long  offset of the name dictionary
+ * 56  long  length of the name dictionary
+ * 64  long  offset of the transactions
+ * 72  int   transaction count
+ * 76  int   count of the names only used by transactions
+ * 80  long  offset of the index orders
+ * 88  category table: short name length, UTF-8 name, int purchase count, long sum in cents
+ *     cents column: long per purchase (8 byte aligned)
+ *     name order: int per purchase, the purchases of every category in name order
+ *     price order: int per purchase, the purchases of every category in price order
+ *     name offsets: int per purchase + 1, relative to the name dictionary
+ *     name dictionary: UTF-8 bytes of all names
+ *     transactions (8 byte aligned): long timestamp per transaction, long cents per transaction,
+ *     int category per transaction, int name per transaction, then the names only used by
+ *     transactions: int offset per name + 1, relative to their UTF-8 bytes which follow
+ * </pre>
+ * Purchases are stored category by category in the order of the category table; in the index
+ * orders a purchase is its position in its category, so the indexes are not sorted again on load.
+ * A transaction names its category by its position in the category table, its name by the
+ * number of a purchase with that name, or by purchase count + n for the n-th name of its own.
+ * Version 1 ledgers have a 64 byte header and no transactions, version 2 ones an 80 byte header
+ * and no index orders.
+ */
+final class BinaryLedger {
+    private static final int MAGIC = 0x424D4742;     // "BMGB"
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 88;
+    private static final int VERSION_1_HEADER_SIZE = 64;
+    private static final int VERSION_2_HEADER_SIZE = 80;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private BinaryLedger() {
+    }
+
+    /**
+     * The table of contents needs the sizes up front, they are taken from the views
+     */
+    static void write(Path target, long journalSequence, LedgerSnapshot snapshot) throws IOException {
+        final int categoryCount = snapshot.view.getCategoryCount();
+        final String[] names = new String[categoryCount];
+        final int[] purchaseCounts = new int[categoryCount];
+        final long[] sums = new long[categoryCount];
+        for (int c = 0; c < categoryCount; c++) {
+            final LedgerView.Category view = snapshot.view.getCategory(c);
+            names[c] = view.getName();
+            purchaseCounts[c] = view.size();
+            sums[c] = view.getSumCents();
+        }
+        try (Writer writer = new Writer(target, snapshot.view.getIncome(), journalSequence)) {
+            writer.categories(names, purchaseCounts, sums);
+            for (int c = 0; c < categoryCount; c++) {
+                writer.purchases(snapshot.view.getCategory(c), snapshot.nameOrders[c]);
+            }
+            writer.transactions(snapshot.log);
+            writer.commit();
+        }
+    }
+
+    public static void read(Path file, LedgerReader.Sink sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < VERSION_1_HEADER_SIZE) {
+                throw new IOException(file + " is not a binary ledger");
+            }
+            ByteBuffer header = map(channel, 0, VERSION_1_HEADER_SIZE);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException(file + " is not a binary ledger");
+            }
+            int version = header.getInt(4);
+            header = map(channel, 0, headerSize(version));
+            sink.income(Cents.toBigDecimal(header.getLong(8)));
+            long journalSequence = header.getLong(16);
+            if (journalSequence >= 0) {
+                sink.checkpoint(journalSequence);
+            }
+            int categoryCount = header.getInt(24);
+            int purchaseCount = header.getInt(28);
+            LongBuffer cents = map(channel, header.getLong(32), (long) purchaseCount * Long.BYTES).asLongBuffer();
+            IntBuffer orders = version >= 3
+                    ? map(channel, header.getLong(80), purchaseCount * 2L * Integer.BYTES).asIntBuffer() : null;
+            Names names = new Names(map(channel, header.getLong(48), header.getLong(56)),
+                    map(channel, header.getLong(40), (purchaseCount + 1L) * Integer.BYTES).asIntBuffer());
+            ByteBuffer table = map(channel, 0, header.getLong(32));
+
+            table.position(header.capacity());
+            int purchase = 0;
+            for (int c = 0; c < categoryCount; c++) {
+                byte[] categoryName = new byte[table.getShort()];
+                table.get(categoryName);
+                int entries = table.getInt();
+                table.getLong();                     // the sum, recomputed while adding
+                sink.section(new String(categoryName, StandardCharsets.UTF_8));
+                sink.sectionSize(entries);
+                if (orders != null) {
+                    int[] byName = new int[entries];
+                    int[] byPrice = new int[entries];
+                    orders.position(purchase);
+                    orders.get(byName);
+                    orders.position(purchaseCount + purchase);
+                    orders.get(byPrice);
+                    for (int end = purchase + entries; purchase < end; purchase++) {
+                        sink.purchase(names.get(purchase), cents.get(purchase));
+                    }
+                    sink.sectionOrders(byName, byPrice);
+                } else {
+                    for (int end = purchase + entries; purchase < end; purchase++) {
+                        sink.purchase(names.get(purchase), cents.get(purchase));
+                    }
+                }
+            }
+            if (version >= 2 && header.getInt(72) > 0) {
+                readTransactions(channel, header.getLong(64), header.getInt(72), header.getInt(76),
+                        purchaseCount, names, sink);
+            }
+        }
+    }
+
+    private static int headerSize(int version) throws IOException {
+        switch (version) {
+            case 1:
+                return VERSION_1_HEADER_SIZE;
+            case 2:
+                return VERSION_2_HEADER_SIZE;
+            case VERSION:
+                return HEADER_SIZE;
+            default:
+                throw new IOException("Unsupported binary ledger version " + version);
+        }
+    }
+
+    /**
+     * Every name is decoded once, transactions mostly repeat the names of the purchases
+     */
+    private static void readTransactions(FileChannel channel, long position, int count, int ownNameCount,
+                                         int purchaseCount, Names purchaseNames, LedgerReader.Sink sink) throws IOException {
+        LongBuffer timestamps = map(channel, position, (long) count * Long.BYTES).asLongBuffer();
+        position += (long) count * Long.BYTES;
+        LongBuffer cents = map(channel, position, (long) count * Long.BYTES).asLongBuffer();
+        position += (long) count * Long.BYTES;
+        IntBuffer categories = map(channel, position, (long) count * Integer.BYTES).asIntBuffer();
+        position += (long) count * Integer.BYTES;
+        IntBuffer nameRefs = map(channel, position, (long) count * Integer.BYTES).asIntBuffer();
+        position += (long) count * Integer.BYTES;
+        IntBuffer ownNameOffsets = map(channel, position, (ownNameCount + 1L) * Integer.BYTES).asIntBuffer();
+        position += (ownNameCount + 1L) * Integer.BYTES;
+        Names ownNames = new Names(map(channel, position, ownNameOffsets.get(ownNameCount)), ownNameOffsets);
+
+        String[] decoded = new String[purchaseCount + ownNameCount];
+        for (int row = 0; row < count; row++) {
+            int ref = nameRefs.get(row);
+            if (ref < 0 || ref >= decoded.length) {
+                throw new IOException("Binary ledger transaction " + row + " has the unknown name " + ref);
+            }
+            if (decoded[ref] == null) {
+                decoded[ref] = ref < purchaseCount ? purchaseNames.get(ref) : ownNames.get(ref - purchaseCount);
+            }
+            final long timestamp = timestamps.get(row);
+            if (TransactionLog.isValidTime(timestamp)) {
+                sink.transaction(timestamp, categories.get(row), decoded[ref], cents.get(row));
+            } else {
+                sink.rejected(decoded[ref], "Transaction time out of range");
+            }
+        }
+    }
+
+    /**
+     * A name dictionary: the UTF-8 bytes of the names and the offsets where every name starts
+     */
+    private static final class Names {
+        private final ByteBuffer bytes;
+        private final IntBuffer offsets;
+        private byte[] name = new byte[256];
+
+        Names(ByteBuffer bytes, IntBuffer offsets) {
+            this.bytes = bytes;
+            this.offsets = offsets;
+        }
+
+        String get(int index) {
+            int start = offsets.get(index);
+            int length = offsets.get(index + 1) - start;
+            if (name.length < length) {
+                name = new byte[length];
+            }
+            bytes.position(start);
+            bytes.get(name, 0, length);
+            return new String(name, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Binary ledger region of " + size + " bytes is too large to map");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    /**
+     * Writes a binary ledger into a temporary file that commit() atomically renames to the target.
+     * The category table has to be written first, then the purchases of every category in its order,
+     * then the transactions.
+     */
+    static class Writer implements Closeable {
+        private final Path target;
+        private final Path tempFile;
+        private final FileChannel channel;
+        private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        private final ByteBuffer centsBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final ByteBuffer offsetsBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final ByteBuffer namesBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final ByteBuffer ordersBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private long centsPosition;
+        private long ordersStart;
+        private long nameOrderPosition;
+        private long priceOrderPosition;
+        private long offsetsPosition;
+        private long namesStart;
+        private long namesPosition;
+        private int nameOffset;
+        private int purchaseNumber;
+        private NameDictionary dictionary;
+        private int[] purchaseOfName = new int[0];      // purchase number + 1 by name id, 0 for none
+        private boolean purchasesWritten;
+        private long transactionsPosition;
+        private int transactionCount;
+        private int ownNameCount;
+        private boolean committed;
+
+        Writer(Path target, BigDecimal income, long journalSequence) throws IOException {
+            this.target = target;
+            this.tempFile = target.resolveSibling(target.getFileName() + ".tmp");
+            this.channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            header.putInt(MAGIC).putInt(VERSION).putLong(Cents.of(income)).putLong(journalSequence);
+        }
+
+        public void categories(String[] names, int[] purchaseCounts, long[] sums) throws IOException {
+            int purchaseCount = 0;
+            int tableSize = 0;
+            byte[][] encodedNames = new byte[names.length][];
+            for (int c = 0; c < names.length; c++) {
+                encodedNames[c] = names[c].getBytes(StandardCharsets.UTF_8);
+                tableSize += Short.BYTES + encodedNames[c].length + Integer.BYTES + Long.BYTES;
+                purchaseCount += purchaseCounts[c];
+            }
+            ByteBuffer table = ByteBuffer.allocate(tableSize);
+            for (int c = 0; c < names.length; c++) {
+                table.putShort((short) encodedNames[c].length).put(encodedNames[c])
+                        .putInt(purchaseCounts[c]).putLong(sums[c]);
+            }
+            table.flip();
+            writeFully(table, HEADER_SIZE);
+
+            centsPosition = (HEADER_SIZE + tableSize + Long.BYTES - 1) / Long.BYTES * Long.BYTES;
+            ordersStart = centsPosition + (long) purchaseCount * Long.BYTES;
+            nameOrderPosition = ordersStart;
+            priceOrderPosition = ordersStart + (long) purchaseCount * Integer.BYTES;
+            offsetsPosition = priceOrderPosition + (long) purchaseCount * Integer.BYTES;
+            namesStart = offsetsPosition + (purchaseCount + 1L) * Integer.BYTES;
+            namesPosition = namesStart;
+            header.putInt(names.length).putInt(purchaseCount)
+                    .putLong(centsPosition).putLong(offsetsPosition).putLong(namesStart);
+        }
+
+        private void purchase(String name, long priceCents) throws IOException {
+            if (!centsBuffer.hasRemaining()) {
+                centsPosition += flush(centsBuffer, centsPosition);
+            }
+            centsBuffer.putLong(priceCents);
+            putOffset();
+            purchaseNumber++;
+
+            byte[] encodedName = name.getBytes(StandardCharsets.UTF_8);
+            if (namesBuffer.remaining() < encodedName.length) {
+                namesPosition += flush(namesBuffer, namesPosition);
+                if (encodedName.length > namesBuffer.capacity()) {
+                    writeFully(ByteBuffer.wrap(encodedName), namesPosition);
+                    namesPosition += encodedName.length;
+                    nameOffset += encodedName.length;
+                    return;
+                }
+            }
+            namesBuffer.put(encodedName);
+            nameOffset += encodedName.length;
+        }
+
+        private void putOffset() throws IOException {
+            if (!offsetsBuffer.hasRemaining()) {
+                offsetsPosition += flush(offsetsBuffer, offsetsPosition);
+            }
+            offsetsBuffer.putInt(nameOffset);
+        }
+
+        /**
+         * Writes the purchases of the next category. Also remembers the purchase numbers of the
+         * names, for transactions of the same dictionary.
+         * @param byName the entry ids in name order (see NameIndex.order()), null if not known
+         */
+        public void purchases(LedgerView.Category purchases, int[] byName) throws IOException {
+            if (dictionary == null) {
+                dictionary = purchases.dictionary();
+            }
+            final boolean shared = purchases.dictionary() == dictionary;
+            final int size = purchases.size();
+            for (int id = 0; id < size; id++) {
+                if (shared) {
+                    int nameId = purchases.nameIdAt(id);
+                    if (nameId >= purchaseOfName.length) {
+                        purchaseOfName = Arrays.copyOf(purchaseOfName, Math.max(nameId + 1, purchaseOfName.length * 2));
+                    }
+                    purchaseOfName[nameId] = purchaseNumber + 1;
+                }
+                purchase(purchases.nameAt(id), purchases.centsAt(id));
+            }
+            final int[] byPrice = purchases.priceOrder();
+            nameOrderPosition = putColumn(ordersBuffer, nameOrderPosition, Integer.BYTES,
+                    id -> byName != null ? byName[id] : id, size);
+            priceOrderPosition = putColumn(ordersBuffer, priceOrderPosition, Integer.BYTES, id -> byPrice[id], size);
+        }
+
+        /**
+         * Writes the transactions after all purchases; their categories are positions in the category table
+         */
+        public void transactions(TransactionLog.View log) throws IOException {
+            finishPurchases();
+            transactionCount = log.size();
+            transactionsPosition = (namesPosition + Long.BYTES - 1) / Long.BYTES * Long.BYTES;
+            final boolean shared = log.dictionary() == dictionary;
+            final Map<String, Integer> ownNames = new LinkedHashMap<>();
+            long position = transactionsPosition;
+            position = putColumn(centsBuffer, position, Long.BYTES, log::timestampAt, transactionCount);
+            position = putColumn(centsBuffer, position, Long.BYTES, log::centsAt, transactionCount);
+            position = putColumn(centsBuffer, position, Integer.BYTES, log::categoryAt, transactionCount);
+            position = putColumn(centsBuffer, position, Integer.BYTES, row -> {
+                int nameId = shared ? log.nameIdAt(row) : -1;
+                if (nameId >= 0 && nameId < purchaseOfName.length && purchaseOfName[nameId] > 0) {
+                    return purchaseOfName[nameId] - 1;
+                }
+                String name = log.nameAt(row);
+                return purchaseNumber + ownNames.computeIfAbsent(name, key -> ownNames.size());
+            }, transactionCount);
+
+            ownNameCount = ownNames.size();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            int[] offsets = new int[ownNameCount + 1];
+            int n = 0;
+            for (String name : ownNames.keySet()) {
+                bytes.writeBytes(name.getBytes(StandardCharsets.UTF_8));
+                offsets[++n] = bytes.size();
+            }
+            position = putColumn(centsBuffer, position, Integer.BYTES, row -> offsets[row], offsets.length);
+            writeFully(ByteBuffer.wrap(bytes.toByteArray()), position);
+        }
+
+        /**
+         * @return the position after the column
+         */
+        private long putColumn(ByteBuffer buffer, long position, int width, IntToLongFunction valueAt, int rows)
+                throws IOException {
+            for (int row = 0; row < rows; row++) {
+                if (buffer.remaining() < width) {
+                    position += flush(buffer, position);
+                }
+                if (width == Long.BYTES) {
+                    buffer.putLong(valueAt.applyAsLong(row));
+                } else {
+                    buffer.putInt((int) valueAt.applyAsLong(row));
+                }
+            }
+            return position + flush(buffer, position);
+        }
+
+        private void finishPurchases() throws IOException {
+            if (!purchasesWritten) {
+                putOffset();                     // the end of the last name
+                flush(centsBuffer, centsPosition);
+                flush(offsetsBuffer, offsetsPosition);
+                namesPosition += flush(namesBuffer, namesPosition);
+                purchasesWritten = true;
+            }
+        }
+
+        public void commit() throws IOException {
+            finishPurchases();
+            header.putLong(namesPosition - namesStart)
+                    .putLong(transactionsPosition).putInt(transactionCount).putInt(ownNameCount)
+                    .putLong(ordersStart).flip();
+            writeFully(header, 0);
+            channel.force(true);
+            channel.close();
+            try {
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            committed = true;
+        }
+
+        private int flush(ByteBuffer buffer, long position) throws IOException {
+            buffer.flip();
+            int written = buffer.remaining();
+            writeFully(buffer, position);
+            buffer.clear();
+            return written;
+        }
+
+        private void writeFully(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                try {
+                    channel.close();
+                } finally {
+                    Files.deleteIfExists(tempFile);
+                }
+            }
+        }
+    }
+}
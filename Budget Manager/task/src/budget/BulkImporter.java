@@ -0,0 +1,579 @@
+package budget;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parallel import of purchase files. Every file is split into chunks of about CHUNK_SIZE bytes
+ * on line boundaries, the chunks are parsed on a fork-join pool into per-category segments of
+ * purchases, one per line in file order, and the segments are handed to the Target in file
+ * order. A first parallel pass finds the last section line of every chunk, so every chunk knows
+ * the section it starts in: a chunk starting within the [Transactions] of a saved ledger skips
+ * those lines like the chunk with the section line.
+ *
+ * Accepted lines:
+ * <ul>
+ *   <li>"name $price" and [Category] section headers, as in purchases.txt ([Income] is skipped);
+ *   the lines of saved ledgers of format 2 (see LedgerReader) without their order and time</li>
+ *   <li>in *.csv files "category,name,price" or "name,price"; fields may be quoted</li>
+ * </ul>
+ * Purchases outside of any section (and CSV rows without a category) go to the default category.
+ * The chunks only collect the category names; they are resolved by the Target in file order,
+ * so new categories are registered in the order they appear.
+ */
+class BulkImporter {
+    static final int CHUNK_SIZE = 4 << 20;
+    private static final int MAX_REJECTED_SAMPLES = 100;
+
+    private final ForkJoinPool pool;
+    private final int defaultCategory;
+    private final int chunkSize;
+
+    BulkImporter(ForkJoinPool pool, int defaultCategory) {
+        this(pool, defaultCategory, CHUNK_SIZE);
+    }
+
+    BulkImporter(ForkJoinPool pool, int defaultCategory, int chunkSize) {
+        this.pool = pool;
+        this.defaultCategory = defaultCategory;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Receives the purchases of one category of one file segment
+     */
+    interface Target {
+        /**
+         * @return the id of the category with this name, -1 to reject its purchases
+         */
+        int categoryOf(String name);
+
+        void addAll(int category, Rows purchases);
+    }
+
+    /**
+     * Purchases in the order of their lines, with their names in a dictionary of their own
+     */
+    static final class Rows {
+        private final NameDictionary names = new NameDictionary();
+        private int[] nameIds = new int[16];
+        private long[] cents = new long[16];
+        private int size;
+
+        void add(String name, long priceCents) {
+            if (size == nameIds.length) {
+                nameIds = Arrays.copyOf(nameIds, size * 2);
+                cents = Arrays.copyOf(cents, size * 2);
+            }
+            nameIds[size] = names.intern(name);
+            cents[size] = priceCents;
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        public NameDictionary dictionary() {
+            return names;
+        }
+
+        /**
+         * @return the id of the name of the row in dictionary()
+         */
+        public int nameIdAt(int row) {
+            return nameIds[row];
+        }
+
+        public String nameAt(int row) {
+            return names.nameOf(nameIds[row]);
+        }
+
+        public long centsAt(int row) {
+            return cents[row];
+        }
+
+        /**
+         * @return a copy of the prices of all rows
+         */
+        public long[] cents() {
+            return Arrays.copyOf(cents, size);
+        }
+    }
+
+    public ImportReport importFiles(List<Path> files, Target target) throws IOException {
+        final long start = System.nanoTime();
+        final ImportReport report = new ImportReport();
+        for (Path file : files) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                boolean csv = file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv");
+                merge(file, parse(channel, csv, csv ? 1 : formatOf(channel)), report, target);
+                report.files++;
+                report.bytes += channel.size();
+            }
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    /**
+     * @return the format of the text ledger (see LedgerReader), found in the head of the file
+     */
+    private static int formatOf(FileChannel channel) throws IOException {
+        final LineReader lines = new LineReader(channel, 0);
+        String section = null;
+        String lineText;
+        while ((lineText = lines.next()) != null) {
+            if (lineText.startsWith("[") && lineText.endsWith("]")) {
+                section = lineText.substring(1, lineText.length() - 1);
+                if (!LedgerReader.INCOME_SECTION.equals(section) && !LedgerReader.JOURNAL_SECTION.equals(section)
+                        && !LedgerReader.FORMAT_SECTION.equals(section)) {
+                    return 1;
+                }
+            } else if (LedgerReader.FORMAT_SECTION.equals(section) && !lineText.isBlank()) {
+                return LedgerReader.parseFormat(lineText);
+            } else if (section == null && !lineText.isBlank()) {
+                return 1;       // purchases without a section
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * @param format of the purchase lines of a text file
+     * @return the segments of all chunks in file order
+     */
+    private List<Segment> parse(FileChannel channel, boolean csv, int format) throws IOException {
+        final long size = channel.size();
+        final int count = (int) Math.max(1, (size + chunkSize - 1) / chunkSize);
+        final long[] bounds = new long[count + 1];
+        for (int i = 0; i <= count; i++) {
+            bounds[i] = size * i / count;
+        }
+        final String[] lastSections = new String[count];
+        if (!csv && count > 1) {
+            runChunks(count, chunk -> lastSections[chunk] = lastSectionIn(channel, bounds[chunk], bounds[chunk + 1]));
+        }
+        final List<List<Segment>> parsed = new ArrayList<>(Collections.nCopies(count, null));
+        runChunks(count, chunk -> {
+            String opening = null;
+            for (int i = chunk - 1; i >= 0 && opening == null; i--) {
+                opening = lastSections[i];
+            }
+            parsed.set(chunk, parseChunk(channel, csv, format, bounds[chunk], bounds[chunk + 1], opening));
+        });
+        final List<Segment> segments = new ArrayList<>();
+        for (List<Segment> chunkSegments : parsed) {
+            segments.addAll(chunkSegments);
+        }
+        return segments;
+    }
+
+    private interface ChunkWork {
+        void run(int chunk) throws IOException;
+    }
+
+    private void runChunks(int count, ChunkWork work) throws IOException {
+        try {
+            pool.invoke(new ChunkTask(work, 0, count));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void merge(Path file, List<Segment> segments, ImportReport report, Target target) {
+        String section = null;
+        for (Segment segment : segments) {
+            if (segment.section != null) {
+                section = segment.section;
+            }
+            for (String rejected : segment.rejected) {
+                report.reject(file + ": " + rejected);
+            }
+            report.rejectedLines += segment.rejectedCount - segment.rejected.size();
+            if (segment.purchases.isEmpty()) {
+                continue;
+            }
+            int category = segment.category != null ? target.categoryOf(segment.category) : resolve(section, target);
+            if (category < 0) {
+                String name = segment.category != null ? segment.category : section;
+                report.rejectedLines += segment.purchases.size();
+                report.reject(file + ": " + segment.purchases.size() + " purchases of the invalid category [" + name + "]");
+                continue;
+            }
+            target.addAll(category, segment.purchases);
+            report.rows += segment.purchases.size();
+        }
+    }
+
+    private int resolve(String section, Target target) {
+        if (section == null) {
+            return defaultCategory;
+        }
+        return target.categoryOf(section);
+    }
+
+    private static boolean isLedgerMetadata(String section) {
+        return LedgerReader.isMetadata(section);
+    }
+
+    /**
+     * Purchases of one chunk belonging to one section (or CSV category). A segment with a
+     * null section continues the section of the segment before it, which may be in an earlier
+     * chunk; merge() resolves that in file order. CSV segments have no section but the
+     * category name, or both null for the default category.
+     */
+    private static class Segment {
+        final String section;
+        final String category;
+        final Rows purchases = new Rows();
+        final List<String> rejected = new ArrayList<>();
+        long rejectedCount;
+
+        Segment(String section, String category) {
+            this.section = section;
+            this.category = category;
+        }
+    }
+
+    /**
+     * Runs the work of the chunks from first to end (exclusive), splitting them in halves
+     */
+    // ForkJoinTask is Serializable, but the tasks only live in the pool of one import and hold
+    // the (not serializable) work, so they never get serialized and need no serialVersionUID
+    @SuppressWarnings("serial")
+    private static class ChunkTask extends RecursiveAction {
+        private final ChunkWork work;
+        private final int first;
+        private final int end;
+
+        ChunkTask(ChunkWork work, int first, int end) {
+            this.work = work;
+            this.first = first;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - first > 1) {
+                int middle = (first + end) >>> 1;
+                invokeAll(new ChunkTask(work, first, middle), new ChunkTask(work, middle, end));
+                return;
+            }
+            try {
+                work.run(first);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * @return the name of the last section line that starts in [start, end), null if there is none
+     */
+    private static String lastSectionIn(FileChannel channel, long start, long end) throws IOException {
+        final LineReader lines = new LineReader(channel, start);
+        if (start > 0) {
+            lines.skipPartialLine();
+        }
+        String section = null;
+        String lineText;
+        while (lines.position() < end && (lineText = lines.nextSectionLine()) != null) {
+            if (lineText.startsWith("[") && lineText.endsWith("]")) {
+                section = lineText.substring(1, lineText.length() - 1);
+            }
+        }
+        return section;
+    }
+
+    /**
+     * Parses every line that starts in [start, end); the line running over the end is
+     * finished here, the partial line at the start belongs to the previous chunk
+     * @param opening the section the chunk starts in, null before the first section line
+     */
+    private static List<Segment> parseChunk(FileChannel channel, boolean csv, int format, long start, long end,
+                                            String opening) throws IOException {
+        final List<Segment> segments = new ArrayList<>();
+        final LineReader lines = new LineReader(channel, start);
+        if (start > 0) {
+            lines.skipPartialLine();
+        }
+        Segment current = null;
+        String section = opening;
+        String lineText;
+        while (lines.position() < end && (lineText = lines.next()) != null) {
+            if (lineText.startsWith("[") && lineText.endsWith("]")) {
+                section = lineText.substring(1, lineText.length() - 1);
+                current = new Segment(section, null);
+                segments.add(current);
+                continue;
+            }
+            if (lineText.isBlank() || (section != null && isLedgerMetadata(section))) {
+                continue;
+            }
+            if (csv) {
+                current = parseCsv(lineText, segments, current);
+                continue;
+            }
+            if (current == null) {
+                current = new Segment(null, null);      // continues the opening section
+                segments.add(current);
+            }
+            if (format == 1) {
+                LedgerReader.parsePurchase(lineText, sinkOf(current));
+            } else {
+                LedgerReader.parseTransactionPurchase(lineText, sinkOf(current));
+            }
+        }
+        return segments;
+    }
+
+    private static Segment parseCsv(String lineText, List<Segment> segments, Segment current) {
+        List<String> fields = splitCsv(lineText);
+        String category = null;             // the default category
+        int nameField = 0;
+        if (fields.size() == 3) {
+            category = fields.get(0).trim();
+            nameField = 1;
+            if ("category".equalsIgnoreCase(category)) {
+                return current;             // the header row
+            }
+        } else if (fields.size() != 2) {
+            if (current == null) {
+                current = segmentFor(segments, null, null);
+            }
+            reject(current, lineText, "Expected category,name,price or name,price");
+            return current;
+        }
+        String price = fields.get(nameField + 1).trim();
+        if (price.startsWith("$")) {
+            price = price.substring(1);
+        }
+        current = segmentFor(segments, current, category);
+        try {
+            long priceCents = Cents.parse(price);
+            current.purchases.add(fields.get(nameField).trim(), priceCents);
+        } catch (NumberFormatException e) {
+            if (!"price".equalsIgnoreCase(price)) {       // not the header row
+                reject(current, lineText, e.getMessage());
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @return the current segment if it is of the category, else a new one, so the segments keep
+     * the order of the rows across categories
+     */
+    private static Segment segmentFor(List<Segment> segments, Segment current, String category) {
+        if (current != null && current.section == null && Objects.equals(current.category, category)) {
+            return current;
+        }
+        Segment segment = new Segment(null, category);
+        segments.add(segment);
+        return segment;
+    }
+
+    private static void reject(Segment segment, String lineText, String reason) {
+        segment.rejectedCount++;
+        if (segment.rejected.size() < MAX_REJECTED_SAMPLES) {
+            segment.rejected.add(reason + ": " + lineText);
+        }
+    }
+
+    private static LedgerReader.Sink sinkOf(Segment segment) {
+        return new LedgerReader.Sink() {
+            @Override
+            public void income(BigDecimal income) {
+            }
+
+            @Override
+            public void section(String name) {
+            }
+
+            @Override
+            public void purchase(String name, long priceCents) {
+                segment.purchases.add(name, priceCents);
+            }
+
+            @Override
+            public void rejected(String lineText, String reason) {
+                reject(segment, lineText, reason);
+            }
+        };
+    }
+
+    static List<String> splitCsv(String lineText) {
+        List<String> fields = new ArrayList<>(3);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < lineText.length(); i++) {
+            char c = lineText.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < lineText.length() && lineText.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * UTF-8 lines read with positional reads, so the chunks of one file share its channel
+     */
+    private static class LineReader {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        private byte[] line = new byte[256];
+        private long filePosition;
+        private long position;
+
+        LineReader(FileChannel channel, long position) {
+            this.channel = channel;
+            this.filePosition = position;
+            this.position = position;
+            buffer.limit(0);
+        }
+
+        /**
+         * @return the file position of the next line
+         */
+        long position() {
+            return position;
+        }
+
+        void skipPartialLine() throws IOException {
+            // the line is complete when the byte before the start is a line end
+            ByteBuffer previous = ByteBuffer.allocate(1);
+            channel.read(previous, position - 1);
+            if (previous.get(0) != '\n') {
+                next();
+            }
+        }
+
+        String next() throws IOException {
+            return next(false);
+        }
+
+        /**
+         * @return the next line if it is a [Section] line, otherwise an empty string (the line
+         * is not decoded), null at the end of the file
+         */
+        String nextSectionLine() throws IOException {
+            return next(true);
+        }
+
+        private String next(boolean sectionsOnly) throws IOException {
+            int length = 0;
+            boolean any = false;
+            while (true) {
+                if (!buffer.hasRemaining() && !fill()) {
+                    break;
+                }
+                any = true;
+                byte b = buffer.get();
+                position++;
+                if (b == '\n') {
+                    break;
+                }
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, length * 2);
+                }
+                line[length++] = b;
+            }
+            if (!any) {
+                return null;
+            }
+            if (length > 0 && line[length - 1] == '\r') {
+                length--;
+            }
+            if (sectionsOnly && (length < 2 || line[0] != '[' || line[length - 1] != ']')) {
+                return "";
+            }
+            return new String(line, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private boolean fill() throws IOException {
+            buffer.clear();
+            int read = channel.read(buffer, filePosition);
+            buffer.flip();
+            if (read <= 0) {
+                return false;
+            }
+            filePosition += read;
+            return true;
+        }
+    }
+
+    /**
+     * Result of an import: counts, throughput and samples of the rejected lines
+     */
+    static class ImportReport {
+        int files;
+        long bytes;
+        long rows;
+        long rejectedLines;
+        long elapsedNanos;
+        final List<String> rejectedSamples = new ArrayList<>();
+
+        private void reject(String sample) {
+            rejectedLines++;
+            if (rejectedSamples.size() < MAX_REJECTED_SAMPLES) {
+                rejectedSamples.add(sample);
+            }
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getRejectedLines() {
+            return rejectedLines;
+        }
+
+        public List<String> getRejectedSamples() {
+            return rejectedSamples;
+        }
+
+        public double getRowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : rows * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Imported %,d purchases from %d file(s) (%.1f MB) in %.3f s, %,.0f rows/s, %,d rejected lines",
+                    rows, files, bytes / (1024.0 * 1024.0), elapsedNanos / 1e9, getRowsPerSecond(), rejectedLines);
+        }
+    }
+}
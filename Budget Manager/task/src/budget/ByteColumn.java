@@ -0,0 +1,19 @@
+package budget;
+
+abstract class ByteColumn {
+    abstract byte get(int index);
+
+    abstract void set(int index, byte value);
+
+    abstract int capacity();
+
+    /**
+     * Copies length bytes from the index on into the array
+     */
+    abstract void get(int index, byte[] destination, int offset, int length);
+
+    /**
+     * @see IntColumn#grow(int)
+     */
+    abstract ByteColumn grow(int capacity);
+}
@@ -0,0 +1,98 @@
+package budget;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Purchase categories with dense int ids: the first registered category gets 0, the next 1
+ * and so on, so the stores of the categories can be kept in an array indexed by the id.
+ * Categories are never removed. Lookups do not lock; registering does. The names array grows
+ * geometrically, its first size entries are set.
+ */
+class CategoryRegistry {
+    static final String[] DEFAULT_CATEGORIES = {"Food", "Clothes", "Entertainment", "Other"};
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final Map<String, Integer> idsIgnoreCase = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[DEFAULT_CATEGORIES.length];
+    private volatile int size;
+
+    static CategoryRegistry withDefaults() {
+        CategoryRegistry registry = new CategoryRegistry();
+        for (String name : DEFAULT_CATEGORIES) {
+            registry.register(name);
+        }
+        return registry;
+    }
+
+    /**
+     * @return the id of the category, a new one if the name was not registered yet
+     * @throws IllegalArgumentException if the name can not be a section header of the ledger
+     */
+    public synchronized int register(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        if (!isValidName(name)) {
+            throw new IllegalArgumentException("Invalid category name: " + name);
+        }
+        id = size;
+        if (id == names.length) {
+            names = Arrays.copyOf(names, Math.max(1, id * 2));
+        }
+        names[id] = name;
+        size = id + 1;                      // publishes the name before the maps do
+        idsIgnoreCase.putIfAbsent(name.toLowerCase(Locale.ROOT), id);
+        ids.put(name, id);
+        return id;
+    }
+
+    static boolean isValidName(String name) {
+        return !name.isBlank()
+                && !LedgerReader.isMetadata(name)
+                && name.indexOf('\n') < 0 && name.indexOf('\r') < 0;
+    }
+
+    /**
+     * @return the id of the category, -1 if it is not registered
+     */
+    public int idOf(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @return the id of the first registered category with this name in any case, -1 if there is none
+     */
+    public int idOfIgnoreCase(String name) {
+        Integer id = idsIgnoreCase.get(name.toLowerCase(Locale.ROOT));
+        return id == null ? -1 : id;
+    }
+
+    public String nameOf(int id) {
+        Objects.checkIndex(id, size);       // read before the array
+        return names[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the names in id order
+     */
+    public String[] names() {
+        final int size = this.size;
+        return Arrays.copyOf(names, size);
+    }
+
+    public synchronized void copyFrom(CategoryRegistry other) {
+        for (String name : other.names()) {
+            register(name);
+        }
+    }
+}
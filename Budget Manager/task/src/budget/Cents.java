@@ -0,0 +1,162 @@
+package budget;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Money amounts are kept as a long number of cents (the scale is always 2,
+ * the same as the application forces with setScale(2, ...)).
+ * Helper methods convert between cents, BigDecimal and text.
+ */
+final class Cents {
+    static final int SCALE = 2;
+    /** integer digits of the largest amount, Long.MAX_VALUE cents */
+    private static final int MAX_DIGITS = 17;
+
+    private Cents() {
+    }
+
+    public static long of(BigDecimal amount) {
+        return of(amount, RoundingMode.HALF_UP);
+    }
+
+    /**
+     * The magnitude is checked before the amount is scaled, so e.g. 1e999999999 is rejected
+     * without computing its digits
+     * @param rounding HALF_UP or UP
+     * @throws ArithmeticException if the amount does not fit in a long number of cents
+     */
+    static long of(BigDecimal amount, RoundingMode rounding) {
+        if (amount.signum() == 0) {
+            return 0;
+        }
+        final long digits = (long) amount.precision() - amount.scale();       // |amount| < 10^digits
+        if (digits > MAX_DIGITS) {
+            throw new ArithmeticException("Amount out of range: " + amount);
+        }
+        if (digits < -SCALE) {
+            return rounding == RoundingMode.UP ? amount.signum() : 0;       // less than a tenth of a cent
+        }
+        return amount.setScale(SCALE, rounding).unscaledValue().longValueExact();
+    }
+
+    /**
+     * Parses an amount rounded half up, like the income, e.g. from a request or a script
+     * @throws NumberFormatException if the text is not a decimal number or out of range
+     */
+    public static BigDecimal parseAmount(String text) {
+        try {
+            return toBigDecimal(of(new BigDecimal(text.trim())));
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Amount out of range: \"" + text + "\"");
+        }
+    }
+
+    public static BigDecimal toBigDecimal(long cents) {
+        return BigDecimal.valueOf(cents, SCALE);
+    }
+
+    /**
+     * Parses a plain decimal price like "3.5" or "35.43" directly into cents. More than two
+     * fraction digits are rounded up (away from zero), the same as setScale(2, RoundingMode.UP).
+     * @throws NumberFormatException if the text is not a decimal number
+     */
+    public static long parse(CharSequence text, int start, int end) {
+        while (start < end && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        boolean negative = false;
+        int pos = start;
+        if (pos < end && (text.charAt(pos) == '-' || text.charAt(pos) == '+')) {
+            negative = text.charAt(pos) == '-';
+            pos++;
+        }
+        long value = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        boolean roundUp = false;
+        for (; pos < end; pos++) {
+            char c = text.charAt(pos);
+            if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else if (c >= '0' && c <= '9') {
+                digits++;
+                if (fractionDigits < 0 || fractionDigits < SCALE) {
+                    if (value > (Long.MAX_VALUE - 9) / 10) {
+                        return slowParse(text, start, end);
+                    }
+                    value = value * 10 + (c - '0');
+                    if (fractionDigits >= 0) {
+                        fractionDigits++;
+                    }
+                } else if (c != '0') {
+                    roundUp = true;
+                }
+            } else {
+                // exponents and other rare notations
+                return slowParse(text, start, end);
+            }
+        }
+        if (digits == 0) {
+            throw new NumberFormatException("Not a price: \"" + text.subSequence(start, end) + "\"");
+        }
+        try {
+            for (int i = Math.max(fractionDigits, 0); i < SCALE; i++) {
+                value = Math.multiplyExact(value, 10);
+            }
+            if (roundUp) {
+                value = Math.addExact(value, 1);
+            }
+        } catch (ArithmeticException e) {
+            return slowParse(text, start, end);     // reports the amount out of range
+        }
+        return negative ? -value : value;
+    }
+
+    public static long parse(CharSequence text) {
+        return parse(text, 0, text.length());
+    }
+
+    private static long slowParse(CharSequence text, int start, int end) {
+        try {
+            return of(new BigDecimal(text.subSequence(start, end).toString()), RoundingMode.UP);
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Price out of range: \"" + text.subSequence(start, end) + "\"");
+        }
+    }
+
+    public static String toPlainString(long cents) {
+        return appendTo(new StringBuilder(24), cents).toString();
+    }
+
+    /**
+     * Appends the amount as a plain decimal with two fraction digits, e.g. 1050 -> "10.50",
+     * without creating a BigDecimal
+     */
+    public static StringBuilder appendTo(StringBuilder sb, long cents) {
+        if (cents < 0) {
+            sb.append('-');
+            if (cents == Long.MIN_VALUE) {
+                return sb.append(toBigDecimal(cents).negate().toPlainString());
+            }
+            cents = -cents;
+        }
+        long fraction = cents % 100;
+        sb.append(cents / 100).append('.');
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        return sb.append(fraction);
+    }
+
+    public static Appendable appendTo(Appendable out, long cents) throws IOException {
+        if (out instanceof StringBuilder) {
+            return appendTo((StringBuilder) out, cents);
+        }
+        return out.append(toPlainString(cents));
+    }
+}
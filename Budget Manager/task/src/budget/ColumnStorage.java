@@ -0,0 +1,354 @@
+package budget;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Where the big primitive arrays of a DataManager live: the name dictionary, the purchase
+ * maps, the price indexes and the transaction log keep their data in columns of this storage.
+ * HEAP columns are plain arrays. OFF_HEAP columns are direct memory, so the heap (and with it
+ * the work of the garbage collector) stays small however big the ledger is; they are split in
+ * chunks of 1 MB, which lets them grow without copying and past 2 GB.
+ * Chosen at startup with the system property "budget.storage" (heap or offheap).
+ *
+ * Direct memory is given back when the garbage collector finds the chunk buffers unreachable;
+ * -XX:MaxDirectMemorySize bounds it.
+ */
+enum ColumnStorage {
+    HEAP {
+        @Override
+        IntColumn ints(int capacity) {
+            return new HeapIntColumn(new int[capacity]);
+        }
+
+        @Override
+        LongColumn longs(int capacity) {
+            return new HeapLongColumn(new long[capacity]);
+        }
+
+        @Override
+        ByteColumn bytes(int capacity) {
+            return new HeapByteColumn(new byte[capacity]);
+        }
+    },
+    OFF_HEAP {
+        @Override
+        IntColumn ints(int capacity) {
+            return new DirectIntColumn(DirectChunks.allocate(null, (long) capacity * Integer.BYTES), capacity);
+        }
+
+        @Override
+        LongColumn longs(int capacity) {
+            return new DirectLongColumn(DirectChunks.allocate(null, (long) capacity * Long.BYTES), capacity);
+        }
+
+        @Override
+        ByteColumn bytes(int capacity) {
+            return new DirectByteColumn(DirectChunks.allocate(null, capacity), capacity);
+        }
+    };
+
+    abstract IntColumn ints(int capacity);
+
+    abstract LongColumn longs(int capacity);
+
+    abstract ByteColumn bytes(int capacity);
+
+    /**
+     * @throws IllegalArgumentException if the name is neither heap nor offheap
+     */
+    static ColumnStorage of(String name) {
+        switch (name.toLowerCase(Locale.ROOT).replace("-", "").replace("_", "")) {
+            case "heap":
+                return HEAP;
+            case "offheap":
+                return OFF_HEAP;
+            default:
+                throw new IllegalArgumentException("Unknown storage: " + name);
+        }
+    }
+
+    static ColumnStorage fromSystemProperties() {
+        return of(System.getProperty("budget.storage", "heap"));
+    }
+}
+
+final class HeapIntColumn extends IntColumn {
+    private final int[] values;
+
+    HeapIntColumn(int[] values) {
+        this.values = values;
+    }
+
+    @Override
+    int get(int index) {
+        return values[index];
+    }
+
+    @Override
+    void set(int index, int value) {
+        values[index] = value;
+    }
+
+    @Override
+    int capacity() {
+        return values.length;
+    }
+
+    @Override
+    IntColumn grow(int capacity) {
+        return new HeapIntColumn(Arrays.copyOf(values, capacity));
+    }
+
+    @Override
+    IntColumn copy() {
+        return new HeapIntColumn(values.clone());
+    }
+}
+
+final class HeapLongColumn extends LongColumn {
+    private final long[] values;
+
+    HeapLongColumn(long[] values) {
+        this.values = values;
+    }
+
+    @Override
+    long get(int index) {
+        return values[index];
+    }
+
+    @Override
+    void set(int index, long value) {
+        values[index] = value;
+    }
+
+    @Override
+    void add(int index, long value) {
+        values[index] += value;
+    }
+
+    @Override
+    int capacity() {
+        return values.length;
+    }
+
+    @Override
+    LongColumn grow(int capacity) {
+        return new HeapLongColumn(Arrays.copyOf(values, capacity));
+    }
+
+    @Override
+    LongColumn copy() {
+        return new HeapLongColumn(values.clone());
+    }
+}
+
+final class HeapByteColumn extends ByteColumn {
+    private final byte[] values;
+
+    HeapByteColumn(byte[] values) {
+        this.values = values;
+    }
+
+    @Override
+    byte get(int index) {
+        return values[index];
+    }
+
+    @Override
+    void set(int index, byte value) {
+        values[index] = value;
+    }
+
+    @Override
+    int capacity() {
+        return values.length;
+    }
+
+    @Override
+    void get(int index, byte[] destination, int offset, int length) {
+        System.arraycopy(values, index, destination, offset, length);
+    }
+
+    @Override
+    ByteColumn grow(int capacity) {
+        return new HeapByteColumn(Arrays.copyOf(values, capacity));
+    }
+}
+
+/**
+ * Direct memory in chunks of CHUNK_BYTES. A column smaller than one chunk has one buffer
+ * of its own size; a bigger one whole chunks, which are shared with the grown column.
+ */
+final class DirectChunks {
+    static final int CHUNK_SHIFT = 20;
+    static final int CHUNK_BYTES = 1 << CHUNK_SHIFT;
+    static final int CHUNK_MASK = CHUNK_BYTES - 1;
+
+    private DirectChunks() {
+    }
+
+    /**
+     * @param old the chunks whose content is kept, null for a new column
+     */
+    static ByteBuffer[] allocate(ByteBuffer[] old, long bytes) {
+        if (bytes <= CHUNK_BYTES) {
+            ByteBuffer chunk = ByteBuffer.allocateDirect((int) Math.max(bytes, 1)).order(ByteOrder.nativeOrder());
+            if (old != null) {
+                copyInto(old[0], chunk);
+            }
+            return new ByteBuffer[]{chunk};
+        }
+        final ByteBuffer[] chunks = new ByteBuffer[(int) ((bytes + CHUNK_MASK) >>> CHUNK_SHIFT)];
+        for (int i = 0; i < chunks.length; i++) {
+            if (old != null && i < old.length && old[i].capacity() == CHUNK_BYTES) {
+                chunks[i] = old[i];
+            } else {
+                chunks[i] = ByteBuffer.allocateDirect(CHUNK_BYTES).order(ByteOrder.nativeOrder());
+                if (old != null && i < old.length) {
+                    copyInto(old[i], chunks[i]);
+                }
+            }
+        }
+        return chunks;
+    }
+
+    static ByteBuffer[] copy(ByteBuffer[] chunks) {
+        final ByteBuffer[] copy = new ByteBuffer[chunks.length];
+        for (int i = 0; i < chunks.length; i++) {
+            copy[i] = ByteBuffer.allocateDirect(chunks[i].capacity()).order(ByteOrder.nativeOrder());
+            copyInto(chunks[i], copy[i]);
+        }
+        return copy;
+    }
+
+    private static void copyInto(ByteBuffer source, ByteBuffer target) {
+        final ByteBuffer from = source.duplicate();
+        from.clear();
+        from.limit(Math.min(from.capacity(), target.capacity()));
+        final ByteBuffer to = target.duplicate();
+        to.clear();
+        to.put(from);
+    }
+}
+
+final class DirectIntColumn extends IntColumn {
+    private final ByteBuffer[] chunks;
+    private final int capacity;
+
+    DirectIntColumn(ByteBuffer[] chunks, int capacity) {
+        this.chunks = chunks;
+        this.capacity = capacity;
+    }
+
+    @Override
+    int get(int index) {
+        final long offset = (long) index << 2;
+        return chunks[(int) (offset >>> DirectChunks.CHUNK_SHIFT)].getInt((int) offset & DirectChunks.CHUNK_MASK);
+    }
+
+    @Override
+    void set(int index, int value) {
+        final long offset = (long) index << 2;
+        chunks[(int) (offset >>> DirectChunks.CHUNK_SHIFT)].putInt((int) offset & DirectChunks.CHUNK_MASK, value);
+    }
+
+    @Override
+    int capacity() {
+        return capacity;
+    }
+
+    @Override
+    IntColumn grow(int capacity) {
+        return new DirectIntColumn(DirectChunks.allocate(chunks, (long) capacity * Integer.BYTES), capacity);
+    }
+
+    @Override
+    IntColumn copy() {
+        return new DirectIntColumn(DirectChunks.copy(chunks), capacity);
+    }
+}
+
+final class DirectLongColumn extends LongColumn {
+    private final ByteBuffer[] chunks;
+    private final int capacity;
+
+    DirectLongColumn(ByteBuffer[] chunks, int capacity) {
+        this.chunks = chunks;
+        this.capacity = capacity;
+    }
+
+    @Override
+    long get(int index) {
+        final long offset = (long) index << 3;
+        return chunks[(int) (offset >>> DirectChunks.CHUNK_SHIFT)].getLong((int) offset & DirectChunks.CHUNK_MASK);
+    }
+
+    @Override
+    void set(int index, long value) {
+        final long offset = (long) index << 3;
+        chunks[(int) (offset >>> DirectChunks.CHUNK_SHIFT)].putLong((int) offset & DirectChunks.CHUNK_MASK, value);
+    }
+
+    @Override
+    int capacity() {
+        return capacity;
+    }
+
+    @Override
+    LongColumn grow(int capacity) {
+        return new DirectLongColumn(DirectChunks.allocate(chunks, (long) capacity * Long.BYTES), capacity);
+    }
+
+    @Override
+    LongColumn copy() {
+        return new DirectLongColumn(DirectChunks.copy(chunks), capacity);
+    }
+}
+
+final class DirectByteColumn extends ByteColumn {
+    private final ByteBuffer[] chunks;
+    private final int capacity;
+
+    DirectByteColumn(ByteBuffer[] chunks, int capacity) {
+        this.chunks = chunks;
+        this.capacity = capacity;
+    }
+
+    @Override
+    byte get(int index) {
+        return chunks[index >>> DirectChunks.CHUNK_SHIFT].get(index & DirectChunks.CHUNK_MASK);
+    }
+
+    @Override
+    void set(int index, byte value) {
+        chunks[index >>> DirectChunks.CHUNK_SHIFT].put(index & DirectChunks.CHUNK_MASK, value);
+    }
+
+    @Override
+    int capacity() {
+        return capacity;
+    }
+
+    @Override
+    void get(int index, byte[] destination, int offset, int length) {
+        while (length > 0) {
+            final ByteBuffer chunk = chunks[index >>> DirectChunks.CHUNK_SHIFT].duplicate();
+            final int position = index & DirectChunks.CHUNK_MASK;
+            final int count = Math.min(length, chunk.capacity() - position);
+            chunk.position(position);
+            chunk.get(destination, offset, count);
+            index += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    ByteColumn grow(int capacity) {
+        return new DirectByteColumn(DirectChunks.allocate(chunks, capacity), capacity);
+    }
+}
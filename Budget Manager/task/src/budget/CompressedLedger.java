@@ -0,0 +1,505 @@
+package budget;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compressed ledger, for archives: the content of a text ledger (with its transactions)
+ * without the repeated names and the decimal prices.
+ * <pre>
+ * int magic "BMGZ", int version
+ * blocks: int raw length, int compressed length, the zlib deflated bytes
+ * int 0, int 0 (the end)
+ * </pre>
+ * The inflated blocks are one stream of records, each starting with its tag byte:
+ * <pre>
+ * INCOME        zigzag varint cents
+ * CHECKPOINT    varint journal sequence
+ * SECTION       the category name (varint length, UTF-8), varint purchase count, then per purchase:
+ *               name, zigzag varint cents
+ * TRANSACTIONS  varint count, then per transaction: zigzag varint milliseconds since the one before,
+ *               varint category section, name, zigzag varint cents
+ * END
+ * </pre>
+ * Purchase names are coded by a dictionary built while writing: a name new to the file is
+ * a 0 followed by its length and UTF-8 bytes and gets the next id, every later occurrence is
+ * its id + 1. Blocks are deflated on a background thread while the next block is encoded,
+ * and inflated one block ahead of the decoding when read.
+ */
+final class CompressedLedger {
+    private static final int MAGIC = 0x424D475A;     // "BMGZ"
+    private static final int VERSION = 1;
+    private static final int BLOCK_SIZE = 1 << 18;
+    /** deflate adds a few bytes per 16KB to data it cannot compress */
+    private static final int MAX_COMPRESSED_BLOCK_SIZE = BLOCK_SIZE + BLOCK_SIZE / 8;
+
+    private static final int END = 0;
+    private static final int INCOME = 1;
+    private static final int CHECKPOINT = 2;
+    private static final int SECTION = 3;
+    private static final int TRANSACTIONS = 4;
+
+    private CompressedLedger() {
+    }
+
+    static void write(Path target, long journalSequence, LedgerSnapshot snapshot) throws IOException {
+        final LedgerView view = snapshot.view;
+        try (Writer writer = new Writer(target, snapshot.names)) {
+            writer.income(view.getIncome());
+            if (journalSequence >= 0) {
+                writer.checkpoint(journalSequence);
+            }
+            for (int category = 0; category < view.getCategoryCount(); category++) {
+                writer.section(view.getCategory(category).getName());
+                writer.purchases(view.getCategory(category));
+            }
+            writer.transactions(snapshot.log);
+            writer.commit();
+        }
+    }
+
+    public static void read(Path file, LedgerReader.Sink sink) throws IOException {
+        try (BlockInput in = new BlockInput(file)) {
+            final List<String> names = new ArrayList<>();
+            while (true) {
+                final int tag = in.read();
+                switch (tag) {
+                    case END:
+                        return;
+                    case INCOME:
+                        sink.income(Cents.toBigDecimal(zigzag(in.readLong())));
+                        break;
+                    case CHECKPOINT:
+                        sink.checkpoint(in.readLong());
+                        break;
+                    case SECTION: {
+                        sink.section(in.readString());
+                        final int count = in.readInt();
+                        sink.sectionSize(count);
+                        for (int i = 0; i < count; i++) {
+                            final String name = in.readName(names);
+                            sink.purchase(name, zigzag(in.readLong()));
+                        }
+                        break;
+                    }
+                    case TRANSACTIONS: {
+                        final int count = in.readInt();
+                        long timestamp = 0;
+                        for (int i = 0; i < count; i++) {
+                            timestamp += zigzag(in.readLong());
+                            final int category = in.readInt();
+                            final String name = in.readName(names);
+                            final long priceCents = zigzag(in.readLong());
+                            if (TransactionLog.isValidTime(timestamp)) {
+                                sink.transaction(timestamp, category, name, priceCents);
+                            } else {
+                                sink.rejected(name, "Transaction time out of range");
+                            }
+                        }
+                        break;
+                    }
+                    default:
+                        throw new IOException(file + " has an unknown record " + tag);
+                }
+            }
+        }
+    }
+
+    private static long zigzag(long encoded) {
+        return (encoded >>> 1) ^ -(encoded & 1);
+    }
+
+    private static ExecutorService backgroundThread(String name) {
+        return Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * The inflated blocks of a file as one stream; the next block is read and inflated by a
+     * background thread while the current one is decoded
+     */
+    private static final class BlockInput implements Closeable {
+        private final Path file;
+        private final FileChannel channel;
+        private final ExecutorService inflater = backgroundThread("ledger-inflater");
+        private final Inflater zlib = new Inflater();
+        private final ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES);
+        private Future<byte[]> next;
+        private byte[] block = new byte[0];
+        private int position;
+
+        BlockInput(Path file) throws IOException {
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                readFully(header.clear());
+                if (header.getInt(0) != MAGIC) {
+                    throw new IOException(file + " is not a compressed ledger");
+                }
+                if (header.getInt(4) != VERSION) {
+                    throw new IOException("Unsupported compressed ledger version " + header.getInt(4));
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+            next = inflater.submit(this::readBlock);
+        }
+
+        /**
+         * Runs on the background thread
+         * @return the next inflated block, null at the end
+         */
+        private byte[] readBlock() throws IOException {
+            readFully(header.clear());
+            final int rawLength = header.getInt(0);
+            final int compressedLength = header.getInt(4);
+            if (rawLength == 0) {
+                return null;
+            }
+            if (rawLength < 0 || rawLength > BLOCK_SIZE || compressedLength <= 0
+                    || compressedLength > MAX_COMPRESSED_BLOCK_SIZE) {
+                throw new IOException(file + " has a broken block");
+            }
+            final ByteBuffer compressed = ByteBuffer.allocate(compressedLength);
+            readFully(compressed);
+            final byte[] raw = new byte[rawLength];
+            zlib.reset();
+            zlib.setInput(compressed.array());
+            try {
+                if (zlib.inflate(raw) != rawLength || !zlib.finished()) {
+                    throw new IOException(file + " has a broken block");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException(file + " has a broken block", e);
+            }
+            return raw;
+        }
+
+        private void readFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException(file + " is truncated");
+                }
+            }
+        }
+
+        int read() throws IOException {
+            if (position == block.length) {
+                final byte[] raw = next == null ? null : await(next);
+                if (raw == null) {
+                    throw new EOFException(file + " ends within a record");
+                }
+                block = raw;
+                position = 0;
+                next = inflater.submit(this::readBlock);
+            }
+            return block[position++] & 0xFF;
+        }
+
+        long readLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < Long.SIZE; shift += 7) {
+                final int b = read();
+                value |= (long) (b & 0x7F) << shift;
+                if (b < 0x80) {
+                    return value;
+                }
+            }
+            throw new IOException(file + " has a broken number");
+        }
+
+        int readInt() throws IOException {
+            final long value = readLong();
+            if (value > Integer.MAX_VALUE) {
+                throw new IOException(file + " has a broken number");
+            }
+            return (int) value;
+        }
+
+        String readString() throws IOException {
+            final byte[] bytes = new byte[readInt()];
+            for (int i = 0; i < bytes.length; ) {
+                if (position == block.length) {
+                    bytes[i++] = (byte) read();
+                    continue;
+                }
+                final int n = Math.min(bytes.length - i, block.length - position);
+                System.arraycopy(block, position, bytes, i, n);
+                position += n;
+                i += n;
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        String readName(List<String> names) throws IOException {
+            final int id = readInt();
+            if (id == 0) {
+                final String name = readString();
+                names.add(name);
+                return name;
+            }
+            if (id > names.size()) {
+                throw new IOException(file + " refers to an unknown name " + (id - 1));
+            }
+            return names.get(id - 1);
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.shutdownNow();
+            try {
+                inflater.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            zlib.end();
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes a compressed ledger into a temporary file that commit() atomically renames to the
+     * target, like LedgerWriter. One block is deflated and written by a background thread while
+     * the caller encodes the next one.
+     */
+    static class Writer implements Closeable {
+        private final Path target;
+        private final Path tempFile;
+        private final FileChannel channel;
+        private final NameDictionary dictionary;
+        private final ExecutorService compressor = backgroundThread("ledger-compressor");
+        private final Deflater zlib = new Deflater(Deflater.BEST_SPEED);
+        private final byte[] compressed = new byte[MAX_COMPRESSED_BLOCK_SIZE];
+        /** the file id + 1 by the id of a name in the dictionary, 0 if not written yet */
+        private int[] fileIds;
+        private int nameCount;
+        private byte[] block = new byte[BLOCK_SIZE];
+        private byte[] spare = new byte[BLOCK_SIZE];
+        private int length;
+        private Future<?> pending;
+        private String sectionName;
+        private boolean committed;
+
+        /**
+         * @param dictionary the dictionary of the purchases and transactions to write
+         */
+        Writer(Path target, NameDictionary dictionary) throws IOException {
+            this.target = target;
+            this.tempFile = target.resolveSibling(target.getFileName() + ".tmp");
+            this.dictionary = dictionary;
+            this.fileIds = new int[Math.max(16, dictionary.size())];
+            this.channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            final ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES).putInt(MAGIC).putInt(VERSION);
+            writeFully(header.flip());
+        }
+
+        public void income(BigDecimal income) throws IOException {
+            put(INCOME);
+            putZigzag(Cents.of(income));
+        }
+
+        public void checkpoint(long journalSequence) throws IOException {
+            put(CHECKPOINT);
+            putLong(journalSequence);
+        }
+
+        /**
+         * The section is written with its purchases
+         */
+        public void section(String name) {
+            sectionName = name;
+        }
+
+        public void purchases(LedgerView.Category purchases) throws IOException {
+            put(SECTION);
+            putString(sectionName);
+            putLong(purchases.size());
+            final boolean shared = purchases.dictionary() == dictionary;
+            for (int id = 0; id < purchases.size(); id++) {
+                putName(shared ? purchases.nameIdAt(id) : dictionary.intern(purchases.nameAt(id)));
+                putZigzag(purchases.centsAt(id));
+            }
+        }
+
+        /**
+         * Writes the transactions; the category sections have to be written in id order
+         */
+        public void transactions(TransactionLog.View transactions) throws IOException {
+            put(TRANSACTIONS);
+            putLong(transactions.size());
+            final boolean shared = transactions.dictionary() == dictionary;
+            long timestamp = 0;
+            for (int row = 0; row < transactions.size(); row++) {
+                putZigzag(transactions.timestampAt(row) - timestamp);
+                timestamp = transactions.timestampAt(row);
+                putLong(transactions.categoryAt(row));
+                putName(shared ? transactions.nameIdAt(row) : dictionary.intern(transactions.nameAt(row)));
+                putZigzag(transactions.centsAt(row));
+            }
+        }
+
+        private void putName(int nameId) throws IOException {
+            if (nameId >= fileIds.length) {
+                fileIds = Arrays.copyOf(fileIds, Math.max(nameId + 1, fileIds.length + (fileIds.length >> 1)));
+            }
+            final int fileId = fileIds[nameId];
+            if (fileId != 0) {
+                putLong(fileId);
+                return;
+            }
+            fileIds[nameId] = ++nameCount;
+            put(0);
+            putString(dictionary.nameOf(nameId));
+        }
+
+        private void putString(String s) throws IOException {
+            final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            putLong(bytes.length);
+            for (int i = 0; i < bytes.length; ) {
+                if (length == block.length) {
+                    flushBlock();
+                }
+                final int n = Math.min(bytes.length - i, block.length - length);
+                System.arraycopy(bytes, i, block, length, n);
+                length += n;
+                i += n;
+            }
+        }
+
+        private void putZigzag(long value) throws IOException {
+            putLong((value << 1) ^ (value >> 63));
+        }
+
+        private void putLong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                put((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            put((int) value);
+        }
+
+        private void put(int b) throws IOException {
+            if (length == block.length) {
+                flushBlock();
+            }
+            block[length++] = (byte) b;
+        }
+
+        /**
+         * Hands the block to the background thread; at most one block is in flight, so the
+         * block before it is written and its buffer is free again
+         */
+        private void flushBlock() throws IOException {
+            if (pending != null) {
+                await(pending);
+            }
+            final byte[] raw = block;
+            final int rawLength = length;
+            pending = compressor.submit(() -> {
+                writeBlock(raw, rawLength);
+                return null;
+            });
+            block = spare;
+            spare = raw;
+            length = 0;
+        }
+
+        /**
+         * Runs on the background thread
+         */
+        private void writeBlock(byte[] raw, int rawLength) throws IOException {
+            zlib.reset();
+            zlib.setInput(raw, 0, rawLength);
+            zlib.finish();
+            int compressedLength = 0;
+            while (!zlib.finished()) {
+                if (compressedLength == compressed.length) {
+                    throw new IOException("A block of " + rawLength + " bytes deflated to more than " + compressed.length);
+                }
+                compressedLength += zlib.deflate(compressed, compressedLength, compressed.length - compressedLength);
+            }
+            writeFully(ByteBuffer.allocate(2 * Integer.BYTES).putInt(rawLength).putInt(compressedLength).flip());
+            writeFully(ByteBuffer.wrap(compressed, 0, compressedLength));
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        public void commit() throws IOException {
+            put(END);
+            flushBlock();
+            await(pending);
+            writeFully(ByteBuffer.allocate(2 * Integer.BYTES).putInt(0).putInt(0).flip());
+            channel.force(true);
+            channel.close();
+            try {
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            compressor.shutdown();
+            try {
+                compressor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            zlib.end();
+            if (!committed) {
+                try {
+                    channel.close();
+                } finally {
+                    Files.deleteIfExists(tempFile);
+                }
+            }
+        }
+    }
+}
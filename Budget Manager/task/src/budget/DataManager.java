@@ -0,0 +1,1162 @@
+package budget;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps the income and one Purchases store per category, and loads and saves them.
+ * Constructor: DataManager(Path sourceFile, BigDecimal income)
+ *              - sourceFile : used file to store data and or load from it
+ *              - income: amount of available money
+ * Every purchase is appended to the TransactionLog with its time and merged by name into the
+ * store of its category, which indexes and rolls it up; the totals are kept on every change,
+ * so the balance and the category sums are O(1). Categories are the ids of the
+ * CategoryRegistry, the names and columns live in one ColumnStorage.
+ * Thread safe: adds lock only their own category, reports read views copied one category at
+ * a time (see getView()), loads and saves are serialized by their own locks. With a Journal
+ * attached, saveData only forces the journal and its compaction rewrites the data file.
+ */
+class DataManager {
+    private final CategoryRegistry categories = CategoryRegistry.withDefaults();
+    // grown geometrically; the first purchaseListCount entries are set, see purchaseLists()
+    private volatile Purchases[] purchaseLists;
+    private volatile int purchaseListCount;
+    private final ReentrantLock categoryLock = new ReentrantLock();
+
+    private final Path dataSourceFile;
+    private volatile BigDecimal income;
+    private final Object incomeLock = new Object();
+    private final LongAdder purchasesTotalSum = new LongAdder();
+    private final NameDictionary names;
+    private final TransactionLog transactions;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+    private final boolean verifyTotals = Boolean.getBoolean("budget.verifyTotals");
+    private final Metrics metrics = Metrics.fromSystemProperties();
+    private volatile Journal journal;
+    private final ReentrantReadWriteLock journalLock = new ReentrantReadWriteLock();
+    private long journalSequence;
+    /** the changes since the start and the count contained in the data file, see AutoSaver */
+    private final LongAdder changes = new LongAdder();
+    private volatile long savedChanges;
+    private volatile Runnable changeListener;
+    private final ReentrantLock saveLock = new ReentrantLock();
+    /** taken before any category lock by loads of the data file and of its transactions */
+    private final ReentrantLock loadLock = new ReentrantLock();
+    /** the transactions of a lazily loaded data file, null once they are read */
+    private volatile PendingTransactions pendingTransactions;
+
+    public DataManager(Path sourceFile, BigDecimal income) {
+        this(sourceFile, income, ColumnStorage.fromSystemProperties());
+    }
+
+    public DataManager(Path sourceFile, BigDecimal income, ColumnStorage storage) {
+        this.dataSourceFile = sourceFile;
+        this.income = income;
+        this.names = new NameDictionary(storage);
+        this.transactions = new TransactionLog(names);
+        this.purchaseLists = new Purchases[categories.size()];
+        for (int category = 0; category < purchaseLists.length; category++) {
+            this.purchaseLists[category] = new Purchases(categories.nameOf(category), names);
+        }
+        this.purchaseListCount = purchaseLists.length;
+    }
+
+    public void setIncome(BigDecimal income) {
+        final long start = metrics.start();
+        try {
+            final Journal journal = this.journal;
+            if (journal == null) {
+                this.income = income;
+                changed();
+                return;
+            }
+            journalLock.readLock().lock();
+            try {
+                synchronized (incomeLock) {         // the journal and the field see the same order
+                    journal.appendIncome(Cents.of(income));
+                    this.income = income;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                journalLock.readLock().unlock();
+            }
+            changed();
+            compactJournalIfNeeded(journal);
+        } finally {
+            metrics.record(Metrics.Operation.INCOME, start);
+        }
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public BigDecimal getIncome() {
+        return this.income;
+    }
+
+    private Purchases purchasesOf(int category) {
+        if (category < purchaseListCount) {         // read before the array, see registerCategory
+            return purchaseLists[category];
+        }
+        categoryLock.lock();            // registered, but the array may not be visible yet
+        try {
+            return this.purchaseLists[category];
+        } finally {
+            categoryLock.unlock();
+        }
+    }
+
+    /**
+     * @return the id of the category, -1 if there is no category with this name
+     */
+    public int categoryOf(String name) {
+        return categories.idOf(name);
+    }
+
+    /**
+     * @return the id of the category, registering it (with an empty store) if it is new
+     * @throws IllegalArgumentException if the name can not be a category, see CategoryRegistry
+     */
+    public int registerCategory(String name) {
+        int category = categories.idOf(name);
+        if (category >= 0) {
+            return category;
+        }
+        categoryLock.lock();
+        try {
+            category = categories.register(name);
+            final int count = categories.size();
+            if (count > purchaseListCount) {
+                if (count > purchaseLists.length) {
+                    purchaseLists = Arrays.copyOf(purchaseLists, Math.max(count, purchaseLists.length * 2));
+                }
+                for (int i = purchaseListCount; i < count; i++) {
+                    purchaseLists[i] = new Purchases(categories.nameOf(i), names);
+                }
+                purchaseListCount = count;          // publishes the new entries
+            }
+            return category;
+        } finally {
+            categoryLock.unlock();
+        }
+    }
+
+    /**
+     * @return the stores of the registered categories in id order
+     */
+    private Purchases[] purchaseLists() {
+        final int count = purchaseListCount;
+        return Arrays.copyOf(purchaseLists, count);
+    }
+
+    public String getCategoryName(int category) {
+        return categories.nameOf(category);
+    }
+
+    /**
+     * @return the names of all categories in id order
+     */
+    public String[] getCategoryNames() {
+        return categories.names();
+    }
+
+    public int getCategoryCount() {
+        return categories.size();
+    }
+
+    public void addPurchaseToList(int category, String name, BigDecimal price) {
+        addPurchaseToList(category, name, Cents.of(price));
+    }
+
+    public void addPurchaseToList(int category, String name, long priceCents) {
+        addPurchaseToList(category, name, priceCents, System.currentTimeMillis());
+    }
+
+    /**
+     * @param timestamp the time of the purchase in epoch milliseconds
+     * @throws IllegalArgumentException if the time is out of the range of the rollups, see DateRollup
+     */
+    public void addPurchaseToList(int category, String name, long priceCents, long timestamp) {
+        if (!DateRollup.isSupported(timestamp)) {
+            throw new IllegalArgumentException("Purchase time out of range: " + timestamp);
+        }
+        final long start = metrics.start();
+        try {
+            final Journal journal = this.journal;
+            if (journal == null) {
+                addPurchase(category, name, priceCents, timestamp);
+                changed();
+                return;
+            }
+            journalLock.readLock().lock();
+            try {
+                journal.appendPurchase(categories.nameOf(category), name, priceCents, timestamp);
+                addPurchase(category, name, priceCents, timestamp);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                journalLock.readLock().unlock();
+            }
+            changed();
+            compactJournalIfNeeded(journal);
+        } finally {
+            metrics.record(Metrics.Operation.ADD, start);
+        }
+    }
+
+    /**
+     * The total and the transaction log are updated under the lock of the category, so they
+     * match the category stores whenever all categories are locked
+     */
+    private void addPurchase(int category, String name, long priceCents, long timestamp) {
+        final Purchases purchases = purchasesOf(category);
+        purchases.lock.lock();
+        try {
+            final int nameId = names.intern(name);
+            purchases.addNewPurchase(nameId, priceCents);
+            purchasesTotalSum.add(priceCents);
+            purchases.rollup.add(dayOf(timestamp), priceCents);
+            transactions.appendName(timestamp, category, nameId, priceCents);
+        } finally {
+            purchases.lock.unlock();
+        }
+    }
+
+    /**
+     * Imports purchase files in parallel on the common fork-join pool, see BulkImporter.
+     * Sections and CSV categories match the categories ignoring the case, others are registered.
+     * @param defaultCategory the category of purchases outside of any [Category] section
+     */
+    public BulkImporter.ImportReport importPurchases(List<Path> files, int defaultCategory) throws IOException {
+        return importPurchases(files, defaultCategory, ForkJoinPool.commonPool());
+    }
+
+    public BulkImporter.ImportReport importPurchases(List<Path> files, int defaultCategory,
+                                                     ForkJoinPool pool) throws IOException {
+        final long start = metrics.start();
+        try {
+            return new BulkImporter(pool, defaultCategory).importFiles(files, new BulkImporter.Target() {
+                @Override
+                public int categoryOf(String name) {
+                    int category = categories.idOfIgnoreCase(name);
+                    if (category < 0 && CategoryRegistry.isValidName(name)) {
+                        category = registerCategory(name);
+                    }
+                    return category;
+                }
+
+                @Override
+                public void addAll(int category, BulkImporter.Rows purchases) {
+                    addPurchases(category, purchases);
+                }
+            });
+        } finally {
+            metrics.record(Metrics.Operation.IMPORT, start);
+        }
+    }
+
+    /**
+     * An import adds one transaction per imported line, in the order of the lines, all at the
+     * time of the import
+     */
+    private void addPurchases(int category, BulkImporter.Rows imported) {
+        if (journal != null) {
+            for (int row = 0; row < imported.size(); row++) {
+                addPurchaseToList(category, imported.nameAt(row), imported.centsAt(row));
+            }
+            return;
+        }
+        final int[] nameIds = new int[imported.size()];
+        final int[] interned = new int[imported.dictionary().size()];      // the id + 1 of every name
+        for (int row = 0; row < nameIds.length; row++) {
+            final int local = imported.nameIdAt(row);
+            if (interned[local] == 0) {
+                interned[local] = names.intern(imported.nameAt(row)) + 1;
+            }
+            nameIds[row] = interned[local] - 1;
+        }
+        final long[] cents = imported.cents();
+        long sum = 0;
+        for (long priceCents : cents) {
+            sum += priceCents;
+        }
+        final Purchases purchases = purchasesOf(category);
+        purchases.lock.lock();
+        try {
+            final long now = System.currentTimeMillis();
+            purchases.addAll(nameIds, cents);
+            purchasesTotalSum.add(sum);
+            purchases.rollup.add(dayOf(now), sum);
+            transactions.appendAll(now, category, nameIds, cents);
+        } finally {
+            purchases.lock.unlock();
+        }
+        changed();
+    }
+
+    /**
+     * Counts a change of the data and tells the change listener
+     */
+    private void changed() {
+        changes.increment();
+        final Runnable changeListener = this.changeListener;
+        if (changeListener != null) {
+            changeListener.run();
+        }
+    }
+
+    /**
+     * @param changeListener called after every change of the data (on the changing thread), null for none
+     */
+    public void setChangeListener(Runnable changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    /**
+     * @return the number of changes so far; a load does not count
+     */
+    public long getChangeCount() {
+        return changes.sum();
+    }
+
+    /**
+     * @return true if the data changed since it was last saved or loaded
+     */
+    public boolean hasUnsavedChanges() {
+        return changes.sum() != savedChanges;
+    }
+
+    /**
+     * Locks every category in id order; no category can be registered until unlockAll
+     * @return the locked stores
+     */
+    private Purchases[] lockAll() {
+        categoryLock.lock();
+        final Purchases[] locked = purchaseLists();
+        for (Purchases purchases : locked) {
+            purchases.lock.lock();
+        }
+        return locked;
+    }
+
+    private void unlockAll(Purchases[] locked) {
+        for (int i = locked.length - 1; i >= 0; i--) {
+            locked[i].lock.unlock();
+        }
+        categoryLock.unlock();
+    }
+
+    public Path getDataSourceFile() {
+        return dataSourceFile;
+    }
+
+    /**
+     * Loads the last snapshot (if there is one), replays the journal on top of it and
+     * journals every following mutation
+     */
+    public void openJournal(Journal journal) throws IOException {
+        if (Files.exists(this.dataSourceFile)) {
+            loadSnapshot();
+        }
+        journal.open(journalSequence, journalReplay, this::captureSnapshot);
+        this.journal = journal;
+    }
+
+    private final Journal.Listener journalReplay = new Journal.Listener() {
+        @Override
+        public void income(long incomeCents) {
+            income = Cents.toBigDecimal(incomeCents);
+        }
+
+        @Override
+        public void purchase(String category, String name, long priceCents, long timestamp) {
+            addPurchase(registerCategory(category), name, priceCents, timestamp);
+        }
+    };
+
+    /**
+     * Mutations hold the read lock from their journal append until they are applied, so under
+     * the write lock the journal sequence matches the data exactly
+     */
+    private void compactJournalIfNeeded(Journal journal) {
+        if (!journal.needsCompaction()) {
+            return;
+        }
+        journalLock.writeLock().lock();
+        try {
+            journal.compact();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            journalLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Takes the current state (the journal compaction writes it in the background)
+     */
+    private Journal.IoTask captureSnapshot(long sequence) {
+        final LedgerFormat format = LedgerFormat.of(this.dataSourceFile);
+        final LedgerSnapshot snapshot = takeSnapshot(format);
+        return () -> format.write(this.dataSourceFile, sequence, snapshot);
+    }
+
+    /**
+     * Locks every category for as long as it takes to copy the changed ones, see getView(), so
+     * the transactions of the snapshot are exactly the purchases of its categories (see addPurchase)
+     */
+    private LedgerSnapshot takeSnapshot(LedgerFormat format) {
+        loadLock.lock();
+        try {
+            loadTransactions();
+            final Purchases[] locked = lockAll();
+            try {
+                final LedgerView.Category[] views = new LedgerView.Category[locked.length];
+                final int[][] nameOrders = format == LedgerFormat.BINARY ? new int[locked.length][] : null;
+                for (int category = 0; category < locked.length; category++) {
+                    views[category] = locked[category].view();
+                    if (nameOrders != null) {
+                        nameOrders[category] = locked[category].nameIndex.order();
+                    }
+                }
+                return new LedgerSnapshot(new LedgerView(income, views), nameOrders, transactions.view(), names);
+            } finally {
+                unlockAll(locked);
+            }
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    public void close() throws IOException {
+        final Journal journal = this.journal;
+        if (journal != null) {
+            journal.close();
+            this.journal = null;
+        }
+    }
+
+    public BigDecimal getPurchaseListSum(int category) {
+        if (verifyTotals) {
+            purchasesOf(category).verifyPurchasesSum();
+        }
+        return purchasesOf(category).getPurchasesSum();
+    }
+
+    public BigDecimal getPurchasesTotalSum() {
+        if (verifyTotals) {
+            verifyPurchasesTotalSum();
+        }
+        return Cents.toBigDecimal(purchasesTotalSum.sum());
+    }
+
+    /**
+     * Consistency check for the running totals: recomputes every category sum and
+     * the total of all purchases from scratch and compares them with the kept values.
+     * @throws IllegalStateException if a running total drifted from the recomputed one
+     */
+    public void verifyPurchasesTotalSum() {
+        final Purchases[] locked = lockAll();
+        try {
+            long total = 0;
+            for (Purchases purchases : locked) {
+                purchases.verifyPurchasesSum();
+                total += purchases.getPurchasesSumCents();
+            }
+            if (total != purchasesTotalSum.sum()) {
+                throw new IllegalStateException("Total sum is " + Cents.toPlainString(purchasesTotalSum.sum())
+                        + " but recomputed " + Cents.toPlainString(total));
+            }
+        } finally {
+            unlockAll(locked);
+        }
+    }
+
+
+    /**
+     * @return the purchases made so far, in the order they were made
+     */
+    public TransactionLog.View getTransactions() {
+        loadTransactions();
+        return transactions.view();
+    }
+
+    public int getPurchaseCount(int category) {
+        return purchasesOf(category).getPurchaseCount();
+    }
+
+    public long getPurchaseCount() {
+        long count = 0;
+        for (Purchases purchases : purchaseLists()) {
+            count += purchases.getPurchaseCount();
+        }
+        return count;
+    }
+
+    /**
+     * Takes every category under its own lock, so only the writers of the category that is
+     * copied wait; a load of the data file is never seen half done. The categories are taken one
+     * after the other, so saves take a LedgerSnapshot instead, which matches the transactions.
+     * @return an immutable view of all categories for reports, see LedgerView
+     */
+    public LedgerView getView() {
+        loadLock.lock();
+        try {
+            final Purchases[] purchaseLists = purchaseLists();
+            final LedgerView.Category[] views = new LedgerView.Category[purchaseLists.length];
+            for (int category = 0; category < purchaseLists.length; category++) {
+                views[category] = purchaseLists[category].view();
+            }
+            return new LedgerView(income, views);
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    /**
+     * The report methods stream their lines to the Appendable; the String versions
+     * render the same lines into memory. The full reports write from a LedgerView,
+     * without holding any lock.
+     */
+    public long writePurchaseListContent(int category, Appendable out) throws IOException {
+        final long start = metrics.start();
+        try {
+            return purchasesOf(category).view().writeContent(out);
+        } finally {
+            metrics.record(Metrics.Operation.SHOW, start);
+        }
+    }
+
+    public String getPurchaseListContent(int category) {
+        return render(out -> writePurchaseListContent(category, out));
+    }
+
+    public long writePurchaseTotalContent(Appendable out) throws IOException {
+        final long start = metrics.start();
+        try {
+            return getView().writePurchaseTotalContent(out);
+        } finally {
+            metrics.record(Metrics.Operation.SHOW, start);
+        }
+    }
+
+    public String getPurchaseTotalContent() {
+        return render(this::writePurchaseTotalContent);
+    }
+
+    /**
+     * Writes a "category: name $price" line for every purchase whose name starts with the
+     * prefix, category by category and in name order within one. Every category is searched
+     * in its NameIndex under its own lock.
+     * @return the number of purchases written
+     */
+    public long writeSearchResults(String prefix, Appendable out) throws IOException {
+        final long start = metrics.start();
+        try {
+            final Purchases[] purchaseLists = purchaseLists();
+            long count = 0;
+            for (int category = 0; category < purchaseLists.length; category++) {
+                count += purchaseLists[category].writePurchaseContentNameMatches(prefix,
+                        categories.nameOf(category) + ": ", out);
+            }
+            return count;
+        } finally {
+            metrics.record(Metrics.Operation.SEARCH, start);
+        }
+    }
+
+    public String getSearchResults(String prefix) {
+        return render(out -> writeSearchResults(prefix, out));
+    }
+
+    public long writePurchaseListContentPriceSorted(int category, Appendable out) throws IOException {
+        final long start = metrics.start();
+        try {
+            return purchasesOf(category).view().writeContentPriceSorted(out);
+        } finally {
+            metrics.record(Metrics.Operation.ANALYZE, start);
+        }
+    }
+
+    public String getPurchaseListContentPriceSorted(int category) {
+        return render(out -> writePurchaseListContentPriceSorted(category, out));
+    }
+
+    /**
+     * @return the n most expensive purchases of the category, in the Analyze order
+     */
+    public List<Map.Entry<String, BigDecimal>> getTopPurchases(int category, int n) {
+        return getPurchasesPage(category, 0, n);
+    }
+
+    public List<Map.Entry<String, BigDecimal>> getPurchasesPage(int category, int offset, int limit) {
+        final List<Map.Entry<String, BigDecimal>> entries = new ArrayList<>();
+        purchasesOf(category).getPurchasesPage(offset, limit)
+                .forEach((name, priceCents) -> entries.add(Map.entry(name, Cents.toBigDecimal(priceCents))));
+        return entries;
+    }
+
+    /**
+     * @return the n most expensive purchases of all categories, in the Analyze order
+     */
+    public List<Map.Entry<String, BigDecimal>> getTopPurchases(int n) {
+        final List<Map.Entry<String, BigDecimal>> entries = new ArrayList<>();
+        try {
+            mergePriceSorted(n, (name, priceCents) -> entries.add(Map.entry(name, Cents.toBigDecimal(priceCents))));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return entries;
+    }
+
+    private interface EntryWriter {
+        void write(String name, long priceCents) throws IOException;
+    }
+
+    /**
+     * Merges the price indexes of all categories, walking them side by side, like
+     * LedgerView does. All categories stay locked until limit purchases are written,
+     * which is cheaper than a view for the first few purchases.
+     * @return the number of purchases written
+     */
+    private long mergePriceSorted(long limit, EntryWriter writer) throws IOException {
+        final Purchases[] locked = lockAll();
+        try {
+            for (Purchases purchases : locked) {
+                purchases.ensureLoaded();
+            }
+            final PriceIndex.Cursor[] cursors = new PriceIndex.Cursor[locked.length];
+            final int[] heads = new int[locked.length];
+            final PriorityQueue<Integer> queue = new PriorityQueue<>(Math.max(1, locked.length), (a, b) -> {
+                PurchaseMap purchasesA = locked[a].specializedPurchaseMap;
+                PurchaseMap purchasesB = locked[b].specializedPurchaseMap;
+                int byPrice = Long.compare(purchasesB.valueAt(heads[b]), purchasesA.valueAt(heads[a]));
+                return byPrice != 0 ? byPrice : names.compare(purchasesB.nameIdAt(heads[b]), purchasesA.nameIdAt(heads[a]));
+            });
+            for (int c = 0; c < locked.length; c++) {
+                cursors[c] = locked[c].priceIndex.cursor(0);
+                if (cursors[c].hasNext()) {
+                    heads[c] = cursors[c].next();
+                    queue.add(c);
+                }
+            }
+            long count = 0;
+            for (; count < limit && !queue.isEmpty(); count++) {
+                int c = queue.poll();
+                PurchaseMap purchases = locked[c].specializedPurchaseMap;
+                writer.write(purchases.keyAt(heads[c]), purchases.valueAt(heads[c]));
+                if (cursors[c].hasNext()) {
+                    heads[c] = cursors[c].next();
+                    queue.add(c);
+                }
+            }
+            return count;
+        } finally {
+            unlockAll(locked);
+        }
+    }
+
+    public long writePurchaseTotalContentPriceSorted(Appendable out) throws IOException {
+        final long start = metrics.start();
+        try {
+            return getView().writePurchaseTotalContentPriceSorted(out);
+        } finally {
+            metrics.record(Metrics.Operation.ANALYZE, start);
+        }
+    }
+
+    public String getPurchaseTotalContentPriceSorted() {
+        return render(this::writePurchaseTotalContentPriceSorted);
+    }
+
+    /**
+     * Writes one line per category and the total (without a line end)
+     * @return the number of categories
+     */
+    public long writePurchasesTypesSumSorted(Appendable out) throws IOException {
+        final long start = metrics.start();
+        try {
+            final LedgerView view = getView();
+            final List<Map.Entry<String, BigDecimal>> types = view.getTypeSums();
+            for (Map.Entry<String, BigDecimal> entry : types) {
+                out.append(entry.getKey()).append(" - $").append(entry.getValue().toPlainString()).append('\n');
+            }
+            out.append("Total sum: $").append(view.getPurchasesTotalSum().toPlainString());
+            return types.size();
+        } finally {
+            metrics.record(Metrics.Operation.ANALYZE, start);
+        }
+    }
+
+    public String getPurchasesTypesSumSorted() {
+        return render(this::writePurchasesTypesSumSorted);
+    }
+
+    private static String render(Report report) {
+        final StringBuilder sb = new StringBuilder();
+        try {
+            report.writeTo(sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);      // a StringBuilder does not throw
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Streams all data into a temporary file and atomically replaces the data file with it.
+     * With a journal it only forces the journal to the disk.
+     * One save or load at a time; the changes counted before the save started are saved.
+     */
+    public void saveData() throws IOException {
+        final long start = metrics.start();
+        saveLock.lock();
+        try {
+            final long saving = changes.sum();
+            final Journal journal = this.journal;
+            if (journal != null) {
+                journal.sync();
+            } else {
+                writeSnapshot(this.dataSourceFile, -1);
+            }
+            savedChanges = saving;
+        } finally {
+            saveLock.unlock();
+            metrics.record(Metrics.Operation.SAVE, start);
+        }
+    }
+
+    /**
+     * Every category is written from its view in the snapshot, so no lock is held while writing
+     * @param journalSequence the last journal record contained in the data, -1 without a journal
+     */
+    private void writeSnapshot(Path target, long journalSequence) throws IOException {
+        final LedgerFormat format = LedgerFormat.of(target);
+        format.write(target, journalSequence, takeSnapshot(format));
+    }
+
+    /**
+     * Writes all data into the file, in the format of its extension (see LedgerFormat)
+     */
+    public void exportData(Path target) throws IOException {
+        writeSnapshot(target, -1);
+    }
+
+    /**
+     * Streams the data file section by section straight into the category stores.
+     * Every category is cleared first, sections of new categories register them.
+     * With a journal the journaled mutations are replayed on top of the data file.
+     */
+    public void loadData() throws IOException {
+        final long start = metrics.start();
+        saveLock.lock();
+        try {
+            final long loading = changes.sum();       // changes racing with the load stay unsaved
+            final Journal journal = this.journal;
+            if (journal != null) {
+                journalLock.writeLock().lock();
+                try {
+                    journal.replay(this::loadSnapshot, journalReplay);
+                } finally {
+                    journalLock.writeLock().unlock();
+                }
+            } else {
+                loadSnapshot();
+            }
+            savedChanges = loading;
+        } finally {
+            saveLock.unlock();
+            metrics.record(Metrics.Operation.LOAD, start);
+        }
+    }
+
+    /**
+     * @return the last journal sequence contained in the data file
+     */
+    private long loadSnapshot() throws IOException {
+        return loadSnapshot(this.dataSourceFile);
+    }
+
+    /**
+     * All categories stay locked while loading, so nobody sees a half loaded ledger;
+     * the categories registered by the ledger are locked as they are added.
+     * The purchases of a text ledger of format 2 are its transactions (see LedgerReader); a
+     * ledger without transactions (older text and binary ledgers) gets one untimed transaction
+     * per purchase line (see TransactionLog.UNTIMED), which no date range counts.
+     * A text ledger with an index (see LedgerIndex) is loaded lazily: only the income and the
+     * sums of the categories are read, every category reads its section on its first access
+     * and the transactions are read when they are needed.
+     * A sharded ledger is loaded the same way, with the sums of the indexes of its shards, but
+     * then all its shards are read at once on the common fork-join pool, once the locks are released.
+     */
+    private long loadSnapshot(Path source) throws IOException {
+        final long sequence;
+        loadLock.lock();
+        try {
+            sequence = loadSnapshotLocked(source);
+        } finally {
+            loadLock.unlock();
+        }
+        if (LedgerFormat.of(source) == LedgerFormat.SHARDED) {
+            final List<Callable<Void>> tasks = new ArrayList<>();
+            for (Purchases purchases : purchaseLists()) {
+                tasks.add(() -> {
+                    purchases.ensureLoaded();
+                    return null;
+                });
+            }
+            tasks.add(() -> {
+                loadTransactions();
+                return null;
+            });
+            ShardedLedger.runInParallel(tasks);
+        }
+        return sequence;
+    }
+
+    private long loadSnapshotLocked(Path source) throws IOException {
+        final Purchases[] locked = lockAll();
+        final List<Purchases> loaded = new ArrayList<>(Arrays.asList(locked));
+        try {
+            journalSequence = 0;
+            for (Purchases purchases : locked) {
+                purchases.clearData();        // Always clear the table when loading data from a source
+                purchases.beginBulkLoad();
+            }
+            purchasesTotalSum.reset();
+            transactions.clear();
+            pendingTransactions = null;
+            if (journal != null && Files.notExists(source)) {
+                return journalSequence;     // nothing was compacted yet, everything is in the journal
+            }
+
+            final List<Integer> sectionCategories = new ArrayList<>();
+            final boolean[] hasTransactions = new boolean[1];
+            final TransactionLog.Unordered sectionRows = new TransactionLog.Unordered();
+            final LedgerReader.LazySink sink = new LedgerReader.LazySink() {
+                private Purchases current;
+                private int currentCategory;
+
+                @Override
+                public void income(BigDecimal income) {
+                    DataManager.this.income = income;
+                }
+
+                @Override
+                public void section(String name) {
+                    if (!CategoryRegistry.isValidName(name)) {
+                        current = null;
+                        sectionCategories.add(-1);
+                        return;
+                    }
+                    int category = registerCategory(name);
+                    sectionCategories.add(category);
+                    current = purchasesOf(category);
+                    currentCategory = category;
+                    if (category >= loaded.size()) {
+                        current.lock.lock();
+                        current.beginBulkLoad();
+                        loaded.add(current);
+                    }
+                }
+
+                @Override
+                public void purchase(String name, long priceCents) {
+                    purchase(sectionRows.size(), TransactionLog.UNTIMED, name, priceCents);
+                }
+
+                @Override
+                public void purchase(long order, long timestamp, String name, long priceCents) {
+                    if (current != null) {
+                        final int nameId = names.intern(name);
+                        current.addNewPurchase(nameId, priceCents);
+                        purchasesTotalSum.add(priceCents);
+                        sectionRows.add(order, timestamp, currentCategory, nameId, priceCents);
+                    }
+                }
+
+                @Override
+                public void rejected(String lineText, String reason) {
+                    printRejected(lineText, reason);
+                }
+
+                @Override
+                public void sectionSize(int purchases) {
+                    if (current != null) {
+                        current.specializedPurchaseMap.ensureCapacity(purchases);
+                    }
+                }
+
+                @Override
+                public void sectionOrders(int[] byName, int[] byPrice) {
+                    if (current != null) {
+                        current.bulkLoadOrders(byName, byPrice);
+                    }
+                }
+
+                @Override
+                public void checkpoint(long sequence) {
+                    journalSequence = sequence;
+                }
+
+                @Override
+                public void transaction(long timestamp, int categorySection, String name, long priceCents) {
+                    if (categorySection < 0 || categorySection >= sectionCategories.size() || sectionCategories.get(categorySection) < 0) {
+                        rejected(name, "Transaction of an unknown category section " + categorySection);
+                        return;
+                    }
+                    transactions.append(timestamp, sectionCategories.get(categorySection), name, priceCents);
+                    hasTransactions[0] = true;
+                }
+
+                @Override
+                public void section(LedgerReader.Range section) {
+                    section(section.section.name);
+                    current.loadLater(new SectionSource(section), section.section.sumCents);
+                    purchasesTotalSum.add(section.section.sumCents);
+                }
+
+                @Override
+                public void transactions(List<LedgerReader.Range> sections) {
+                    pendingTransactions = new PendingTransactions(sections, sectionCategories);
+                    hasTransactions[0] = true;
+                }
+            };
+            LedgerFormat.of(source).read(source, sink);
+            if (!hasTransactions[0]) {
+                sectionRows.appendTo(transactions);
+            }
+            final TransactionLog.View log = transactions.view();
+            for (int row = 0; row < log.size(); row++) {
+                if (log.timestampAt(row) != TransactionLog.UNTIMED) {
+                    loaded.get(log.categoryAt(row)).rollup.add(dayOf(log.timestampAt(row)), log.centsAt(row));
+                }
+            }
+            return journalSequence;
+        } finally {
+            for (Purchases purchases : loaded) {
+                purchases.endBulkLoad();
+            }
+            for (int i = loaded.size() - 1; i >= locked.length; i--) {
+                loaded.get(i).lock.unlock();
+            }
+            unlockAll(locked);
+        }
+    }
+
+    private static void printRejected(String lineText, String reason) {
+        System.out.println(reason);
+        System.out.println("LineText:" + lineText);
+    }
+
+    /**
+     * A category section of a lazily loaded text ledger; its bytes have to have the checksum
+     * the sum of the store was taken with
+     */
+    private final class SectionSource implements Purchases.Source {
+        private final LedgerReader.Range section;
+
+        SectionSource(LedgerReader.Range section) {
+            this.section = section;
+        }
+
+        @Override
+        public void loadInto(PurchaseMap purchases) throws IOException {
+            purchases.ensureCapacity(section.section.count);
+            section.read(new LedgerReader.Sink() {
+                @Override
+                public void income(BigDecimal income) {
+                }
+
+                @Override
+                public void section(String name) {
+                }
+
+                @Override
+                public void purchase(String name, long priceCents) {
+                    purchases.merge(name, priceCents);
+                }
+
+                @Override
+                public void rejected(String lineText, String reason) {
+                    printRejected(lineText, reason);
+                }
+            });
+        }
+
+        @Override
+        public void sumChanged(long deltaCents) {
+            purchasesTotalSum.add(deltaCents);
+        }
+    }
+
+    /**
+     * The transactions of a lazily loaded text ledger or of its shards: the category sections,
+     * whose purchase lines are the transactions (untimed ones in format 1), or the [Transactions]
+     * section of format 1
+     */
+    private static final class PendingTransactions {
+        final List<LedgerReader.Range> sections;
+        /** the category of every section of the ledger */
+        final List<Integer> sectionCategories;
+
+        PendingTransactions(List<LedgerReader.Range> sections, List<Integer> sectionCategories) {
+            this.sections = sections;
+            this.sectionCategories = sectionCategories;
+        }
+    }
+
+    /**
+     * Reads the transactions of a lazily loaded ledger, if they are not read yet. They are older
+     * than the ones added since the load, so they go before them, and into the rollups.
+     */
+    private void loadTransactions() {
+        if (pendingTransactions == null) {
+            return;
+        }
+        loadLock.lock();
+        try {
+            final PendingTransactions pending = pendingTransactions;
+            if (pending == null) {
+                return;
+            }
+            final TransactionLog.Unordered rows = new TransactionLog.Unordered();
+            for (LedgerReader.Range section : pending.sections) {
+                final int category = section.position < 0 ? -1 : pending.sectionCategories.get(section.position);
+                try {
+                    section.read(new LedgerReader.Sink() {
+                        @Override
+                        public void income(BigDecimal income) {
+                        }
+
+                        @Override
+                        public void section(String name) {
+                        }
+
+                        @Override
+                        public void purchase(String name, long priceCents) {
+                            rows.add(rows.size(), TransactionLog.UNTIMED, category, names.intern(name), priceCents);
+                        }
+
+                        @Override
+                        public void purchase(long order, long timestamp, String name, long priceCents) {
+                            rows.add(order, timestamp, category, names.intern(name), priceCents);
+                        }
+
+                        @Override
+                        public void rejected(String lineText, String reason) {
+                            printRejected(lineText, reason);
+                        }
+
+                        @Override
+                        public void transaction(long timestamp, int categorySection, String name, long priceCents) {
+                            if (categorySection < 0 || categorySection >= pending.sectionCategories.size()) {
+                                rejected(name, "Transaction of an unknown category section " + categorySection);
+                                return;
+                            }
+                            rows.add(rows.size(), timestamp, pending.sectionCategories.get(categorySection),
+                                    names.intern(name), priceCents);
+                        }
+                    });
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            final TransactionLog older = new TransactionLog(names);
+            rows.appendTo(older);
+            final TransactionLog.View log = older.view();
+            for (int row = 0; row < log.size(); row++) {
+                if (log.timestampAt(row) == TransactionLog.UNTIMED) {
+                    continue;
+                }
+                final Purchases purchases = purchasesOf(log.categoryAt(row));
+                purchases.lock.lock();
+                try {
+                    purchases.rollup.add(dayOf(log.timestampAt(row)), log.centsAt(row));
+                } finally {
+                    purchases.lock.unlock();
+                }
+            }
+            transactions.prepend(log);
+            pendingTransactions = null;
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    /**
+     * Replaces all data with the content of the file, in the format of its extension
+     */
+    public void importData(Path source) throws IOException {
+        loadSnapshot(source);
+        changed();
+    }
+
+    /**
+     * @return the epoch day of the time in the time zone of the rollups
+     */
+    private long dayOf(long timestamp) {
+        final int offsetSeconds = zone.getRules().getOffset(Instant.ofEpochMilli(timestamp)).getTotalSeconds();
+        return Math.floorDiv(timestamp + offsetSeconds * 1000L, MILLIS_PER_DAY);
+    }
+
+    /**
+     * @return the spending of the category from the first to the last day, both included
+     */
+    public long getPurchaseListSumCents(int category, LocalDate first, LocalDate last) {
+        loadTransactions();         // the rollups are built from them
+        final Purchases purchases = purchasesOf(category);
+        purchases.lock.lock();
+        try {
+            return purchases.rollup.sum(first, last);
+        } finally {
+            purchases.lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the spending of every category from the first to the last day (both included)
+     * in category order, and the total (without a line end)
+     * @return the number of categories
+     */
+    public long writeDateRangeSums(LocalDate first, LocalDate last, Appendable out) throws IOException {
+        final long start = metrics.start();
+        try {
+            final int count = categories.size();
+            long total = 0;
+            for (int category = 0; category < count; category++) {
+                long sum = getPurchaseListSumCents(category, first, last);
+                Cents.appendTo(out.append(categories.nameOf(category)).append(" - $"), sum).append('\n');
+                total += sum;
+            }
+            Cents.appendTo(out.append("Total sum: $"), total);
+            return count;
+        } finally {
+            metrics.record(Metrics.Operation.ANALYZE, start);
+        }
+    }
+
+    public BigDecimal getBalance() {
+        final long start = metrics.start();
+        try {
+            return this.income.subtract(getPurchasesTotalSum());
+        } finally {
+            metrics.record(Metrics.Operation.BALANCE, start);
+        }
+    }
+
+}
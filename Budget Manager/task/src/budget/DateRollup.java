@@ -0,0 +1,171 @@
+package budget;
+
+import java.time.LocalDate;
+
+/**
+ * Spending of one category per day and per month, updated on every add, so the total of any
+ * date range is a sum of buckets instead of a scan of the transactions: the whole months of
+ * the range are read from the month buckets and only the days of a partial first and last
+ * month from the day buckets. A range costs at most 62 day lookups plus one per month.
+ *
+ * Days are epoch days (see LocalDate.toEpochDay), months are year * 12 + month - 1, both
+ * from FIRST_DAY to LAST_DAY; transactions outside are rejected when they are read or added
+ * (see isSupported) and ranges are cut to them.
+ * Not thread safe, DataManager updates and reads it under the lock of the category.
+ */
+class DateRollup {
+    static final LocalDate FIRST_DAY = LocalDate.of(1, 1, 1);
+    static final LocalDate LAST_DAY = LocalDate.of(9999, 12, 31);
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+    /** a day of slack on both ends, no time zone moves these times out of the days */
+    private static final long MIN_TIMESTAMP = (FIRST_DAY.toEpochDay() + 1) * MILLIS_PER_DAY;
+    private static final long MAX_TIMESTAMP = LAST_DAY.toEpochDay() * MILLIS_PER_DAY - 1;
+
+    private final Buckets days = new Buckets();
+    private final Buckets months = new Buckets();
+    private int lastDay = Integer.MIN_VALUE;
+    private int lastMonth;
+
+    /**
+     * @return true if the rollups keep the time, in epoch milliseconds
+     */
+    static boolean isSupported(long timestamp) {
+        return timestamp >= MIN_TIMESTAMP && timestamp <= MAX_TIMESTAMP;
+    }
+
+    /**
+     * @throws IllegalArgumentException for a day before FIRST_DAY or after LAST_DAY
+     */
+    public void add(long epochDay, long priceCents) {
+        if (epochDay < FIRST_DAY.toEpochDay() || epochDay > LAST_DAY.toEpochDay()) {
+            throw new IllegalArgumentException("Day out of range: " + epochDay);
+        }
+        final int day = (int) epochDay;
+        if (day != lastDay) {
+            lastMonth = monthOf(LocalDate.ofEpochDay(day));
+            lastDay = day;
+        }
+        days.add(day, priceCents);
+        months.add(lastMonth, priceCents);
+    }
+
+    /**
+     * @return the spending of the days from first to last, both included
+     */
+    public long sum(LocalDate first, LocalDate last) {
+        if (first.isBefore(FIRST_DAY)) {
+            first = FIRST_DAY;
+        }
+        if (last.isAfter(LAST_DAY)) {
+            last = LAST_DAY;
+        }
+        if (first.isAfter(last)) {
+            return 0;
+        }
+        int firstMonth = monthOf(first);
+        int lastMonth = monthOf(last);
+        if (firstMonth == lastMonth) {
+            return sumDays(first.toEpochDay(), last.toEpochDay());
+        }
+        long sum = 0;
+        if (first.getDayOfMonth() != 1) {
+            sum += sumDays(first.toEpochDay(), first.withDayOfMonth(first.lengthOfMonth()).toEpochDay());
+            firstMonth++;
+        }
+        if (last.getDayOfMonth() != last.lengthOfMonth()) {
+            sum += sumDays(last.withDayOfMonth(1).toEpochDay(), last.toEpochDay());
+            lastMonth--;
+        }
+        for (int month = firstMonth; month <= lastMonth; month++) {
+            sum += months.get(month);
+        }
+        return sum;
+    }
+
+    private long sumDays(long first, long last) {
+        long sum = 0;
+        for (long day = first; day <= last; day++) {
+            sum += days.get((int) day);
+        }
+        return sum;
+    }
+
+    private static int monthOf(LocalDate date) {
+        return date.getYear() * 12 + date.getMonthValue() - 1;
+    }
+
+    public void clear() {
+        days.clear();
+        months.clear();
+        lastDay = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Open addressing map from an int key to a sum in cents, no object per bucket
+     */
+    private static final class Buckets {
+        private static final int MIN_CAPACITY = 64;
+
+        private int[] keys = new int[MIN_CAPACITY];
+        private long[] sums = new long[MIN_CAPACITY];
+        private boolean[] used = new boolean[MIN_CAPACITY];
+        private int size;
+
+        private static int hash(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        private int slot(int key) {
+            final int mask = keys.length - 1;
+            int index = hash(key) & mask;
+            while (used[index] && keys[index] != key) {
+                index = (index + 1) & mask;
+            }
+            return index;
+        }
+
+        void add(int key, long cents) {
+            int index = slot(key);
+            if (!used[index]) {
+                if (size + 1 > keys.length / 4 * 3) {
+                    rehash(keys.length * 2);
+                    index = slot(key);
+                }
+                used[index] = true;
+                keys[index] = key;
+                size++;
+            }
+            sums[index] += cents;
+        }
+
+        long get(int key) {
+            int index = slot(key);
+            return used[index] ? sums[index] : 0;
+        }
+
+        private void rehash(int capacity) {
+            final int[] oldKeys = keys;
+            final long[] oldSums = sums;
+            final boolean[] oldUsed = used;
+            keys = new int[capacity];
+            sums = new long[capacity];
+            used = new boolean[capacity];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) {
+                    int index = slot(oldKeys[i]);
+                    used[index] = true;
+                    keys[index] = oldKeys[i];
+                    sums[index] = oldSums[i];
+                }
+            }
+        }
+
+        void clear() {
+            keys = new int[MIN_CAPACITY];
+            sums = new long[MIN_CAPACITY];
+            used = new boolean[MIN_CAPACITY];
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package budget;
+
+/**
+ * Fixed capacity int array; grow() returns a bigger column with the same values
+ */
+abstract class IntColumn {
+    abstract int get(int index);
+
+    abstract void set(int index, int value);
+
+    abstract int capacity();
+
+    /**
+     * @return a column of the capacity holding the values of this one; this column must not
+     * be written afterwards (the two may share memory)
+     */
+    abstract IntColumn grow(int capacity);
+
+    abstract IntColumn copy();
+}
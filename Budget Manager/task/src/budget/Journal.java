@@ -0,0 +1,417 @@
+package budget;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal of the income and purchase mutations of a DataManager.
+ * Every record carries a sequence number; the ledger snapshot remembers the last sequence
+ * it contains (the [Journal] section), so replaying skips what is already in the snapshot.
+ *
+ * Record layout: int payload length, payload, int CRC32 of the payload. Names are written as
+ * an int length and their UTF-8 bytes.
+ * A torn record at the end of the file (a crash in the middle of an append) ends the replay,
+ * and so does a length longer than the rest of the file.
+ *
+ * Once the journal grows past the compaction threshold (see needsCompaction) it is rotated
+ * to "*.journal.old", a snapshot is written in the background and the rotated journal is deleted.
+ * If the snapshot fails the rotated journal stays; the next compaction appends the journal to
+ * it instead of rotating, so the records stay in sequence order until a snapshot succeeds.
+ */
+class Journal implements Closeable {
+    private static final int MAGIC = 0x424D4A31;     // "BMJ1"
+    private static final byte INCOME = 1;
+    /** purchase without its time, written before the transaction log existed */
+    private static final byte PURCHASE = 2;
+    /** purchase with its names in modified UTF-8 of at most 64KB, written before UTF8_PURCHASE */
+    private static final byte TIMED_PURCHASE = 3;
+    private static final byte UTF8_PURCHASE = 4;
+    private static final int BATCH_SIZE = 256;
+    private static final long BATCH_INTERVAL_MILLIS = 50;
+
+    /**
+     * When appended records are forced to the disk
+     */
+    enum SyncPolicy {
+        /** fsync after every record */
+        ALWAYS,
+        /** group commit: fsync once per BATCH_SIZE records or BATCH_INTERVAL_MILLIS */
+        BATCH,
+        /** leave it to the operating system, fsync only on sync() and close() */
+        NONE
+    }
+
+    /**
+     * Receives the replayed mutations
+     */
+    interface Listener {
+        void income(long incomeCents);
+
+        /**
+         * @param timestamp the time of the purchase in epoch milliseconds, 0 if the record does not know it
+         */
+        void purchase(String category, String name, long priceCents, long timestamp);
+    }
+
+    /**
+     * Creates the snapshot of the current state containing every record up to the sequence.
+     * Called on the appending thread; the returned task is run in the background.
+     */
+    interface Checkpointer {
+        IoTask capture(long sequence);
+    }
+
+    interface IoTask {
+        void run() throws IOException;
+    }
+
+    /**
+     * Loads the snapshot and returns the last sequence it contains
+     */
+    interface SnapshotLoader {
+        long load() throws IOException;
+    }
+
+    private final Path journalFile;
+    private final Path rotatedFile;
+    private final SyncPolicy syncPolicy;
+    private final long compactThresholdBytes;
+    private final RecordBuffer recordBytes = new RecordBuffer();
+    private final DataOutputStream record = new DataOutputStream(recordBytes);
+    private final CRC32 crc = new CRC32();
+    private final ExecutorService compactor;
+    private final ScheduledExecutorService flusher;
+
+    private Checkpointer checkpointer;
+    private FileChannel channel;
+    private DataOutputStream out;
+    private long sequence;
+    private long size;
+    private int pendingRecords;
+    private boolean compacting;
+
+    Journal(Path ledgerFile, SyncPolicy syncPolicy, long compactThresholdBytes) {
+        this.journalFile = ledgerFile.resolveSibling(ledgerFile.getFileName() + ".journal");
+        this.rotatedFile = ledgerFile.resolveSibling(ledgerFile.getFileName() + ".journal.old");
+        this.syncPolicy = syncPolicy;
+        this.compactThresholdBytes = compactThresholdBytes;
+        this.compactor = Executors.newSingleThreadExecutor(runnable -> daemon(runnable, "journal-compactor"));
+        this.flusher = syncPolicy == SyncPolicy.BATCH
+                ? Executors.newSingleThreadScheduledExecutor(runnable -> daemon(runnable, "journal-flusher"))
+                : null;
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Replays the journal on top of the loaded snapshot and opens it for appending.
+     * A rotated journal left over by an interrupted compaction is folded into a fresh
+     * snapshot right away.
+     * @param snapshotSequence the last sequence contained in the loaded snapshot
+     */
+    public synchronized void open(long snapshotSequence, Listener listener, Checkpointer checkpointer) throws IOException {
+        this.checkpointer = checkpointer;
+        boolean leftover = Files.exists(rotatedFile);
+        Replay replay = new Replay(snapshotSequence);
+        if (leftover) {
+            replay.read(rotatedFile, listener);
+        }
+        long validLength = Files.exists(journalFile) ? replay.read(journalFile, listener) : 0;
+        this.sequence = replay.sequence;
+
+        channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(validLength);       // drop a torn tail
+        channel.position(validLength);
+        out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+        if (validLength == 0) {
+            out.writeInt(MAGIC);
+            validLength = Integer.BYTES;
+        }
+        size = validLength;
+
+        if (leftover) {
+            checkpointer.capture(sequence).run();
+            Files.delete(rotatedFile);
+        }
+        if (flusher != null) {
+            flusher.scheduleWithFixedDelay(this::flushBatch, BATCH_INTERVAL_MILLIS, BATCH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Reloads the snapshot and replays the journal on top of it. A concurrent compaction can
+     * not delete the rotated journal in between, so no record gets lost.
+     */
+    public synchronized void replay(SnapshotLoader snapshotLoader, Listener listener) throws IOException {
+        sync();
+        Replay replay = new Replay(snapshotLoader.load());
+        if (Files.exists(rotatedFile)) {
+            replay.read(rotatedFile, listener);
+        }
+        replay.read(journalFile, listener);
+    }
+
+    private class Replay {
+        long sequence;
+
+        Replay(long sequence) {
+            this.sequence = sequence;
+        }
+
+        /**
+         * @return the length of the valid part of the file
+         */
+        long read(Path file, Listener listener) throws IOException {
+            final long fileSize = Files.size(file);
+            long valid = 0;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException(file + " is not a journal file");
+                }
+                valid = Integer.BYTES;
+                byte[] payload = new byte[256];
+                CRC32 checksum = new CRC32();
+                while (true) {
+                    int length = in.readInt();
+                    if (length <= 0 || length > fileSize - valid - Integer.BYTES * 2) {
+                        break;
+                    }
+                    if (payload.length < length) {
+                        payload = new byte[length];
+                    }
+                    in.readFully(payload, 0, length);
+                    int expected = in.readInt();
+                    checksum.reset();
+                    checksum.update(payload, 0, length);
+                    if ((int) checksum.getValue() != expected) {
+                        break;
+                    }
+                    apply(new DataInputStream(new ByteArrayInputStream(payload, 0, length)), listener);
+                    valid += Integer.BYTES * 2 + length;
+                }
+            } catch (EOFException e) {
+                // the end of the file or a torn record
+            }
+            return valid;
+        }
+
+        private void apply(DataInputStream in, Listener listener) throws IOException {
+            byte type = in.readByte();
+            long recordSequence = in.readLong();
+            if (recordSequence <= sequence) {
+                return;
+            }
+            sequence = recordSequence;
+            switch (type) {
+                case INCOME:
+                    listener.income(in.readLong());
+                    break;
+                case PURCHASE:
+                    listener.purchase(in.readUTF(), in.readUTF(), in.readLong(), 0);
+                    break;
+                case TIMED_PURCHASE:
+                    listener.purchase(in.readUTF(), in.readUTF(), in.readLong(), in.readLong());
+                    break;
+                case UTF8_PURCHASE:
+                    listener.purchase(readString(in), readString(in), in.readLong(), in.readLong());
+                    break;
+                default:
+                    throw new IOException("Unknown journal record type: " + type);
+            }
+        }
+
+        private String readString(DataInputStream in) throws IOException {
+            final int length = in.readInt();
+            if (length < 0 || length > in.available()) {
+                throw new IOException("Broken journal record " + sequence);
+            }
+            final byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    public synchronized void appendIncome(long incomeCents) throws IOException {
+        startRecord(INCOME);
+        record.writeLong(incomeCents);
+        endRecord();
+    }
+
+    public synchronized void appendPurchase(String category, String name, long priceCents, long timestamp) throws IOException {
+        startRecord(UTF8_PURCHASE);
+        writeString(category);
+        writeString(name);
+        record.writeLong(priceCents);
+        record.writeLong(timestamp);
+        endRecord();
+    }
+
+    private void writeString(String text) throws IOException {
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        record.writeInt(bytes.length);
+        record.write(bytes);
+    }
+
+    private void startRecord(byte type) throws IOException {
+        recordBytes.reset();
+        record.writeByte(type);
+        record.writeLong(++sequence);
+    }
+
+    private void endRecord() throws IOException {
+        crc.reset();
+        crc.update(recordBytes.buffer(), 0, recordBytes.size());
+        out.writeInt(recordBytes.size());
+        recordBytes.writeTo(out);
+        out.writeInt((int) crc.getValue());
+        size += Integer.BYTES * 2 + recordBytes.size();
+        pendingRecords++;
+
+        if (syncPolicy == SyncPolicy.ALWAYS || (syncPolicy == SyncPolicy.BATCH && pendingRecords >= BATCH_SIZE)) {
+            sync();
+        }
+    }
+
+    public synchronized boolean needsCompaction() {
+        return size >= compactThresholdBytes && !compacting;
+    }
+
+    /**
+     * Rotates the journal and writes a snapshot of everything up to now in the background.
+     * The caller has to make sure no mutation is between its append and its application.
+     */
+    public synchronized void compact() throws IOException {
+        if (compacting) {
+            return;
+        }
+        sync();
+        out.close();
+        if (Files.exists(rotatedFile)) {
+            appendRecords(journalFile, rotatedFile);        // left over by a failed compaction
+            Files.delete(journalFile);
+        } else {
+            Files.move(journalFile, rotatedFile);
+        }
+        channel = FileChannel.open(journalFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+        out.writeInt(MAGIC);
+        size = Integer.BYTES;
+
+        compacting = true;
+        final IoTask snapshot;
+        try {
+            snapshot = checkpointer.capture(sequence);
+        } catch (RuntimeException e) {
+            compacting = false;
+            throw e;
+        }
+        compactor.execute(() -> {
+            try {
+                snapshot.run();
+                synchronized (this) {
+                    Files.delete(rotatedFile);
+                }
+            } catch (IOException | RuntimeException e) {
+                // the rotated journal stays, the next compaction or start folds it in
+                e.printStackTrace();
+            } finally {
+                synchronized (this) {
+                    compacting = false;
+                }
+            }
+        });
+    }
+
+    /**
+     * Appends the records of the journal (without its magic number) to the end of the target
+     */
+    private static void appendRecords(Path journal, Path target) throws IOException {
+        try (FileChannel from = FileChannel.open(journal, StandardOpenOption.READ);
+             FileChannel to = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            long position = Integer.BYTES;
+            while (position < from.size()) {
+                position += from.transferTo(position, from.size() - position, to);
+            }
+            to.force(false);
+        }
+    }
+
+    private synchronized void flushBatch() {
+        if (pendingRecords > 0 && out != null) {
+            try {
+                sync();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Forces every appended record to the disk
+     */
+    public synchronized void sync() throws IOException {
+        out.flush();
+        channel.force(false);
+        pendingRecords = 0;
+    }
+
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+        RecordBuffer() {
+            super(256);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (out != null) {
+                sync();
+                out.close();
+                out = null;
+            }
+        }
+    }
+}
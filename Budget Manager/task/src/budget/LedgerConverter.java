@@ -0,0 +1,29 @@
+package budget;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+
+/**
+ * Converts a ledger between the text, the binary, the sharded and the compressed format (chosen by the
+ * file extensions).
+ * Usage: LedgerConverter purchases.txt purchases.bin
+ */
+public class LedgerConverter {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: LedgerConverter <source ledger> <target ledger>");
+            System.out.println("Files ending with " + LedgerFormat.BINARY_EXTENSION + " use the binary format,");
+            System.out.println("directories ending with " + LedgerFormat.SHARDED_EXTENSION + " the sharded one,");
+            System.out.println("files ending with " + LedgerFormat.COMPRESSED_EXTENSION + " the compressed one");
+            return;
+        }
+        Path source = Path.of(args[0]);
+        Path target = Path.of(args[1]);
+        DataManager dataManager = new DataManager(source, BigDecimal.ZERO);
+        dataManager.importData(source);
+        dataManager.exportData(target);
+        System.out.printf("Converted %s (%s) to %s (%s)%n", source, LedgerFormat.of(source), target, LedgerFormat.of(target));
+    }
+}
@@ -0,0 +1,88 @@
+package budget;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * File formats of the persisted ledger. The text format (LedgerReader/LedgerWriter) is the
+ * interchange and export format, the binary one (BinaryLedger) is for snapshots loaded without
+ * text parsing or sorting, the sharded one (ShardedLedger) is a directory of text ledgers,
+ * written and read in parallel, and the compressed one (CompressedLedger) is for archives.
+ */
+enum LedgerFormat {
+    TEXT {
+        @Override
+        void read(Path source, LedgerReader.LazySink sink) throws IOException {
+            LedgerReader.read(source, sink);
+        }
+
+        @Override
+        void write(Path target, long journalSequence, LedgerSnapshot snapshot) throws IOException {
+            LedgerWriter.write(target, journalSequence, snapshot);
+        }
+    },
+    BINARY {
+        @Override
+        void read(Path source, LedgerReader.LazySink sink) throws IOException {
+            BinaryLedger.read(source, sink);
+        }
+
+        @Override
+        void write(Path target, long journalSequence, LedgerSnapshot snapshot) throws IOException {
+            BinaryLedger.write(target, journalSequence, snapshot);
+        }
+    },
+    SHARDED {
+        @Override
+        void read(Path source, LedgerReader.LazySink sink) throws IOException {
+            ShardedLedger.read(source, sink);
+        }
+
+        @Override
+        void write(Path target, long journalSequence, LedgerSnapshot snapshot) throws IOException {
+            ShardedLedger.write(target, journalSequence, snapshot);
+        }
+    },
+    COMPRESSED {
+        @Override
+        void read(Path source, LedgerReader.LazySink sink) throws IOException {
+            CompressedLedger.read(source, sink);
+        }
+
+        @Override
+        void write(Path target, long journalSequence, LedgerSnapshot snapshot) throws IOException {
+            CompressedLedger.write(target, journalSequence, snapshot);
+        }
+    };
+
+    static final String BINARY_EXTENSION = ".bin";
+    static final String SHARDED_EXTENSION = ".ledger";
+    static final String COMPRESSED_EXTENSION = ".ledz";
+
+    /**
+     * @return the format of the file chosen by its extension, "*.bin" files are binary,
+     * "*.ledger" directories sharded and "*.ledz" files compressed
+     */
+    static LedgerFormat of(Path file) {
+        final String name = file.getFileName().toString();
+        if (name.endsWith(BINARY_EXTENSION)) {
+            return BINARY;
+        }
+        if (name.endsWith(COMPRESSED_EXTENSION)) {
+            return COMPRESSED;
+        }
+        return name.endsWith(SHARDED_EXTENSION) ? SHARDED : TEXT;
+    }
+
+    /**
+     * Reads the ledger into the sink; the text and the sharded format pass the sections of
+     * indexed text ledgers as ranges, the others all content
+     */
+    abstract void read(Path source, LedgerReader.LazySink sink) throws IOException;
+
+    /**
+     * Writes the snapshot, replacing the ledger only once it is complete
+     * @param journalSequence the last journal record contained in the snapshot, -1 without a journal
+     */
+    abstract void write(Path target, long journalSequence, LedgerSnapshot snapshot) throws IOException;
+}
@@ -0,0 +1,514 @@
+package budget;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * Byte offsets of the sections of a text ledger, so that a category can be read on its own
+ * (DataManager loads the categories on their first access). LedgerWriter ends every ledger
+ * with it:
+ * <pre>
+ * [Index]
+ * H 27                          the end of the [Income], [Journal] and [Format] lines
+ * F 2                           the format of the ledger, 1 without this line
+ * S 27 84 2 2990 5d1c07e2 Food  a category section: its [Food] line, its end, purchase lines, sum in cents,
+ *                               CRC32C of its bytes, name
+ * I 00000000000000000112        the offset of the [Index] line, always the last line
+ * </pre>
+ * Ledgers of format 1 (see LedgerReader) may have a line for their [Transactions] section:
+ * <pre>
+ * T 61 112 0be3a9f4             its line, its end and the CRC32C of its bytes
+ * </pre>
+ * The counts and sums are taken without reading the sections, so the index is only used if
+ * the checksum of every section still matches its bytes; checking them reads the file once,
+ * but parses nothing. A ledger without an index (or with an outdated one) is scanned instead:
+ * one pass over its bytes, which finds the section lines and adds up the prices without
+ * building any purchase.
+ */
+final class LedgerIndex {
+    private static final int TRAILER_SIZE = 23;     // "I " + 20 digits + '\n'
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * A category section, from its [Name] line to the next section
+     */
+    static final class Section {
+        final String name;
+        final long start;
+        final long end;
+        /** the number of purchase lines, names may repeat */
+        final int count;
+        final long sumCents;
+        /** the CRC32C of the bytes from start to end, see newChecksum() */
+        final long crc;
+
+        Section(String name, long start, long end, int count, long sumCents, long crc) {
+            this.name = name;
+            this.start = start;
+            this.end = end;
+            this.count = count;
+            this.sumCents = sumCents;
+            this.crc = crc;
+        }
+    }
+
+    private final long headEnd;
+    private final int format;
+    private final List<Section> sections;
+    private final long transactionsStart;
+    private final long transactionsEnd;
+    private final long transactionsCrc;
+    private final boolean clean;
+
+    /**
+     * @param transactionsStart -1 without a [Transactions] section
+     * @param clean false if a line would be rejected or is in an unexpected place, such a
+     *              ledger has to be read in one go
+     */
+    LedgerIndex(long headEnd, int format, List<Section> sections, long transactionsStart, long transactionsEnd,
+                long transactionsCrc, boolean clean) {
+        this.headEnd = headEnd;
+        this.format = format;
+        this.sections = Collections.unmodifiableList(sections);
+        this.transactionsStart = transactionsStart;
+        this.transactionsEnd = transactionsEnd;
+        this.transactionsCrc = transactionsCrc;
+        this.clean = clean;
+    }
+
+    /**
+     * @return the checksum of the sections, the same for writing, scanning and reading them
+     */
+    static Checksum newChecksum() {
+        return new CRC32C();
+    }
+
+    /**
+     * @return the index of the ledger, read from its end or built by a scan
+     */
+    static LedgerIndex of(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final LedgerIndex index = read(channel);
+            return index != null ? index : scan(channel);
+        }
+    }
+
+    /**
+     * @param transactions true if the ledger may have a [Transactions] section (of format 1), false
+     * for a category shard
+     * @return the index of a text ledger that can be loaded lazily, null if it has to be read in one
+     * go: it has rejected lines (which are reported while loading), a [Transactions] section where
+     * it may have none, or sections which are no category or repeat one
+     */
+    static LedgerIndex lazyIndexOf(Path source, boolean transactions) throws IOException {
+        final LedgerIndex index = of(source);
+        if (!index.isClean() || index.hasTransactions() && (!transactions || index.getFormat() != 1)) {
+            return null;
+        }
+        final Set<String> names = new HashSet<>();
+        for (Section section : index.getSections()) {
+            if (!CategoryRegistry.isValidName(section.name) || !names.add(section.name)) {
+                return null;
+            }
+        }
+        return index;
+    }
+
+    public long getHeadEnd() {
+        return headEnd;
+    }
+
+    /**
+     * @return the format of the purchase lines, see LedgerReader
+     */
+    public int getFormat() {
+        return format;
+    }
+
+    public List<Section> getSections() {
+        return sections;
+    }
+
+    public boolean hasTransactions() {
+        return transactionsStart >= 0;
+    }
+
+    public long getTransactionsStart() {
+        return transactionsStart;
+    }
+
+    public long getTransactionsEnd() {
+        return transactionsEnd;
+    }
+
+    public long getTransactionsCrc() {
+        return transactionsCrc;
+    }
+
+    public boolean isClean() {
+        return clean;
+    }
+
+    /**
+     * Writes the [Index] section
+     * @param offset the offset of the section in the file
+     */
+    void writeTo(Writer out, long offset) throws IOException {
+        out.write('[' + LedgerReader.INDEX_SECTION + "]\n");
+        out.write("H " + headEnd + '\n');
+        if (format != 1) {
+            out.write("F " + format + '\n');
+        }
+        for (Section section : sections) {
+            out.write("S " + section.start + ' ' + section.end + ' ' + section.count + ' ' + section.sumCents
+                    + ' ' + Long.toHexString(section.crc) + ' ' + section.name + '\n');
+        }
+        if (hasTransactions()) {
+            out.write("T " + transactionsStart + ' ' + transactionsEnd + ' ' + Long.toHexString(transactionsCrc) + '\n');
+        }
+        out.write(String.format("I %020d\n", offset));
+    }
+
+    /**
+     * @return the index at the end of the ledger, null if there is none or it does not match,
+     * e.g. a price was edited by hand
+     */
+    private static LedgerIndex read(FileChannel channel) throws IOException {
+        final long size = channel.size();
+        if (size < TRAILER_SIZE) {
+            return null;
+        }
+        final String trailer = readString(channel, size - TRAILER_SIZE, TRAILER_SIZE);
+        if (!trailer.startsWith("I ") || trailer.charAt(TRAILER_SIZE - 1) != '\n') {
+            return null;
+        }
+        final long offset;
+        try {
+            offset = Long.parseLong(trailer, 2, TRAILER_SIZE - 1, 10);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        final String header = '[' + LedgerReader.INDEX_SECTION + "]\n";
+        if (offset < 0 || offset > size - TRAILER_SIZE - header.length()) {
+            return null;
+        }
+        final String text = readString(channel, offset, (int) Math.min(Integer.MAX_VALUE, size - TRAILER_SIZE - offset));
+        if (!text.startsWith(header)) {
+            return null;
+        }
+        long headEnd = -1;
+        int format = 1;
+        long transactionsStart = -1;
+        long transactionsEnd = -1;
+        long transactionsCrc = 0;
+        final List<Section> sections = new ArrayList<>();
+        try {
+            for (String line : text.substring(header.length()).split("\n")) {
+                String[] fields = line.split(" ", 7);
+                switch (fields[0]) {
+                    case "H":
+                        headEnd = Long.parseLong(fields[1]);
+                        break;
+                    case "F":
+                        format = Integer.parseInt(fields[1]);
+                        break;
+                    case "S":
+                        sections.add(new Section(fields[6], Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                                Integer.parseInt(fields[3]), Long.parseLong(fields[4]), Long.parseLong(fields[5], 16)));
+                        break;
+                    case "T":
+                        transactionsStart = Long.parseLong(fields[1]);
+                        transactionsEnd = Long.parseLong(fields[2]);
+                        transactionsCrc = Long.parseLong(fields[3], 16);
+                        break;
+                    default:
+                        return null;
+                }
+            }
+        } catch (RuntimeException e) {
+            return null;        // a broken line, or one of an index without checksums
+        }
+        if (headEnd < 0 || headEnd > offset || format < 1 || format > LedgerReader.FORMAT) {
+            return null;
+        }
+        for (Section section : sections) {
+            if (section.start < headEnd || section.end > offset || section.start > section.end
+                    || !isSectionLine(channel, section.start, section.name)
+                    || checksum(channel, section.start, section.end) != section.crc) {
+                return null;
+            }
+        }
+        if (transactionsStart >= 0 && (transactionsEnd > offset || transactionsStart > transactionsEnd
+                || !isSectionLine(channel, transactionsStart, LedgerReader.TRANSACTIONS_SECTION)
+                || checksum(channel, transactionsStart, transactionsEnd) != transactionsCrc)) {
+            return null;
+        }
+        return new LedgerIndex(headEnd, format, sections, transactionsStart, transactionsEnd, transactionsCrc, true);
+    }
+
+    /**
+     * @return the checksum of the bytes from start (included) to end (excluded)
+     */
+    private static long checksum(FileChannel channel, long start, long end) throws IOException {
+        final Checksum checksum = newChecksum();
+        final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(1, end - start)));
+        long position = start;
+        while (position < end) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+            final int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            buffer.flip();
+            checksum.update(buffer);
+            position += read;
+        }
+        return checksum.getValue();
+    }
+
+    private static boolean isSectionLine(FileChannel channel, long offset, String name) throws IOException {
+        final byte[] line = ('[' + name + "]\n").getBytes(StandardCharsets.UTF_8);
+        return offset + line.length <= channel.size()
+                && readString(channel, offset, line.length).equals(new String(line, StandardCharsets.UTF_8));
+    }
+
+    private static String readString(FileChannel channel, long offset, int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                break;
+            }
+        }
+        return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Builds the index from the bytes of the ledger, the same way LedgerReader sees its lines
+     */
+    static LedgerIndex scan(FileChannel channel) throws IOException {
+        final Scanner scanner = new Scanner();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long bufferOffset = 0;          // the file offset of the first byte in the buffer
+        channel.position(0);
+        while (true) {
+            final int read = channel.read(buffer);
+            buffer.flip();
+            final byte[] bytes = buffer.array();
+            int lineStart = 0;
+            for (int i = 0; i < buffer.limit(); i++) {
+                if (bytes[i] == '\n') {
+                    scanner.line(bytes, lineStart, i, i + 1, bufferOffset + lineStart);
+                    lineStart = i + 1;
+                }
+            }
+            if (read < 0) {
+                if (lineStart < buffer.limit()) {
+                    scanner.line(bytes, lineStart, buffer.limit(), buffer.limit(), bufferOffset + lineStart);
+                }
+                return scanner.finish(bufferOffset + buffer.limit());
+            }
+            buffer.position(lineStart);
+            buffer.compact();
+            bufferOffset += lineStart;
+            if (!buffer.hasRemaining()) {
+                ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);     // a very long line
+                buffer.flip();
+                buffer = grown.put(buffer);
+            }
+        }
+    }
+
+    private static final class Scanner {
+        private static final int HEAD = 0;
+        private static final int FORMAT = 1;
+        private static final int CATEGORY = 2;
+        private static final int TRANSACTIONS = 3;
+        private static final int INDEX = 4;
+
+        private final List<Section> sections = new ArrayList<>();
+        private final Digits digits = new Digits();
+        /** of the current section, reset by every section line */
+        private final Checksum checksum = newChecksum();
+        private int state = HEAD;
+        private long headEnd = -1;
+        private int format = 1;
+        private long transactionsStart = -1;
+        private long transactionsEnd = -1;
+        private long transactionsCrc;
+        private boolean clean = true;
+        private String name;
+        private long start;
+        private int count;
+        private long sum;
+
+        /**
+         * @param to the end of the line without its line end
+         * @param next the start of the next line
+         */
+        void line(byte[] bytes, int from, int to, int next, long offset) {
+            line(bytes, from, to, offset);
+            checksum.update(bytes, from, next - from);
+        }
+
+        private void line(byte[] bytes, int from, int to, long offset) {
+            if (to > from && bytes[to - 1] == '\r') {
+                to--;
+            }
+            for (int i = from; i < to; i++) {
+                if (bytes[i] == '\r') {
+                    clean = false;          // a line end for LedgerReader, but not for the offsets
+                    break;
+                }
+            }
+            if (to - from >= 2 && bytes[from] == '[' && bytes[to - 1] == ']') {
+                section(new String(bytes, from + 1, to - from - 2, StandardCharsets.UTF_8), offset);
+            } else if (state == CATEGORY) {
+                purchase(bytes, from, to);
+            } else if (state == FORMAT && !new String(bytes, from, to - from, StandardCharsets.UTF_8).isBlank()) {
+                try {
+                    format = LedgerReader.parseFormat(new String(bytes, from, to - from, StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    clean = false;          // LedgerReader reports it
+                }
+            }
+        }
+
+        private void section(String section, long offset) {
+            endSection(offset);
+            checksum.reset();
+            if (LedgerReader.INCOME_SECTION.equals(section) || LedgerReader.JOURNAL_SECTION.equals(section)
+                    || LedgerReader.FORMAT_SECTION.equals(section)) {
+                clean &= state == HEAD || state == FORMAT;         // the head is read in one piece
+                state = LedgerReader.FORMAT_SECTION.equals(section) ? FORMAT : HEAD;
+                return;
+            }
+            if (headEnd < 0) {
+                headEnd = offset;
+            }
+            if (LedgerReader.TRANSACTIONS_SECTION.equals(section)) {
+                clean &= transactionsStart < 0;
+                transactionsStart = offset;
+                state = TRANSACTIONS;
+            } else if (LedgerReader.INDEX_SECTION.equals(section)) {
+                state = INDEX;
+            } else {
+                state = CATEGORY;
+                name = section;
+                start = offset;
+                count = 0;
+                sum = 0;
+            }
+        }
+
+        private void endSection(long offset) {
+            if (state == CATEGORY) {
+                sections.add(new Section(name, start, offset, count, sum, checksum.getValue()));
+            } else if (state == TRANSACTIONS) {
+                transactionsEnd = offset;
+                transactionsCrc = checksum.getValue();
+            }
+        }
+
+        private void purchase(byte[] bytes, int from, int to) {
+            int currencyPos = to - 1;
+            while (currencyPos >= from && bytes[currencyPos] != '$') {
+                currencyPos--;
+            }
+            if (currencyPos < from) {
+                for (int i = from; i < to; i++) {
+                    clean &= Character.isWhitespace(bytes[i]);      // a blank line is skipped, others rejected
+                }
+                return;
+            }
+            if (format != 1 && !isOrderAndTime(bytes, from, currencyPos)) {
+                clean = false;
+                return;
+            }
+            try {
+                sum += Cents.parse(digits.of(bytes, currencyPos + 1, to), 0, to - currencyPos - 1);
+                count++;
+            } catch (NumberFormatException e) {
+                clean = false;
+            }
+        }
+
+        /**
+         * @return true if the line starts like LedgerReader.parseTransactionPurchase expects:
+         * an order, a time of the rollups or "-", each followed by a space
+         */
+        private static boolean isOrderAndTime(byte[] bytes, int from, int to) {
+            int i = from;
+            while (i < to && bytes[i] >= '0' && bytes[i] <= '9' && i - from < 18) {
+                i++;
+            }
+            if (i == from || i >= to || bytes[i] != ' ') {
+                return false;
+            }
+            final boolean negative = ++i < to && bytes[i] == '-';
+            if (negative && i + 1 < to && bytes[i + 1] == ' ') {
+                return true;
+            }
+            final int timeStart = negative ? ++i : i;
+            long timestamp = 0;
+            while (i < to && bytes[i] >= '0' && bytes[i] <= '9' && i - timeStart < 18) {
+                timestamp = timestamp * 10 + bytes[i++] - '0';
+            }
+            return i > timeStart && i < to && bytes[i] == ' '
+                    && DateRollup.isSupported(negative ? -timestamp : timestamp);
+        }
+
+        LedgerIndex finish(long size) {
+            endSection(size);
+            return new LedgerIndex(headEnd < 0 ? size : headEnd, format, sections, transactionsStart, transactionsEnd,
+                    transactionsCrc, clean);
+        }
+    }
+
+    /**
+     * The bytes of a price as characters, without decoding them into a String
+     */
+    private static final class Digits implements CharSequence {
+        private byte[] bytes;
+        private int from;
+        private int to;
+
+        Digits of(byte[] bytes, int from, int to) {
+            this.bytes = bytes;
+            this.from = from;
+            this.to = to;
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return to - from;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes[from + index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, from, to - from, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
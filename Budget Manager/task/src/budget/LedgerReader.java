@@ -0,0 +1,397 @@
+package budget;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Checksum;
+
+/**
+ * Single pass, line by line parser of the text ledger format:
+ * <pre>
+ * [Income]
+ * 1000.00
+ * [Format]
+ * 2
+ * [Food]
+ * 0 1700000000000 Milk $3.50
+ * 2 - Milk $1.20
+ * [Clothes]
+ * 1 1700000005000 Socks $5.00
+ * </pre>
+ * Every line of a category section is one purchase as it was made: its position in the
+ * transaction log (0 is the first), the time in epoch milliseconds or "-" if it is not known
+ * (see TransactionLog.UNTIMED), the name and the price. The category stores merge the lines
+ * of their section by name, the transaction log is all lines in the order of their positions.
+ * Ledgers without the [Format] section are of format 1: their lines are "Milk $3.50", merged by
+ * name, and the optional [Transactions] section lists the purchases as they were made, with the
+ * category as the index of its section in the file (0 is the first):
+ * <pre>
+ * [Transactions]
+ * 1700000000000 0 Milk $3.50
+ * </pre>
+ * Only one line is held in memory at a time, every parsed value is pushed straight to a
+ * Sink, so the memory used by loading does not depend on the size of the file.
+ * The [Index] section at the end is skipped, see LedgerIndex.
+ */
+class LedgerReader implements Closeable {
+    static final String INCOME_SECTION = "Income";
+    static final String JOURNAL_SECTION = "Journal";
+    static final String FORMAT_SECTION = "Format";
+    static final String TRANSACTIONS_SECTION = "Transactions";
+    static final String INDEX_SECTION = "Index";
+    /** the format LedgerWriter writes */
+    static final int FORMAT = 2;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final BufferedReader reader;
+    /** of the purchase lines, set by the [Format] section */
+    private int format;
+
+    LedgerReader(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.reader = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8), BUFFER_SIZE);
+        this.format = 1;
+    }
+
+    /**
+     * @param format of the purchase lines, for a reader starting after the [Format] section
+     */
+    LedgerReader(BufferedReader reader, int format) {
+        this.reader = reader;
+        this.format = format;
+    }
+
+    /**
+     * Reads the bytes from start (included) to end (excluded) of the file, e.g. the head
+     * found by a LedgerIndex
+     */
+    static LedgerReader ofRange(Path path, long start, long end) throws IOException {
+        return ofRange(path, start, end, null, 1);
+    }
+
+    /**
+     * Reads one or more sections found by a LedgerIndex
+     * @param checksum gets every byte of the range that is read, null for none
+     * @param format of the ledger, see LedgerIndex.getFormat()
+     */
+    static LedgerReader ofRange(Path path, long start, long end, Checksum checksum, int format) throws IOException {
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        final InputStream range = new InputStream() {
+            private long position = start;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                if (position >= end) {
+                    return -1;
+                }
+                int read = channel.read(ByteBuffer.wrap(bytes, offset, (int) Math.min(length, end - position)), position);
+                if (read > 0) {
+                    position += read;
+                    if (checksum != null) {
+                        checksum.update(bytes, offset, read);
+                    }
+                }
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+        return new LedgerReader(new BufferedReader(new InputStreamReader(range, StandardCharsets.UTF_8), BUFFER_SIZE),
+                format);
+    }
+
+    /**
+     * Receives the content of the ledger in the order it appears in the file
+     */
+    interface Sink {
+        void income(BigDecimal income);
+
+        void section(String name);
+
+        void purchase(String name, long priceCents);
+
+        /**
+         * One purchase of the current section as it was made, a line of format 2; the
+         * default merges it like a purchase of format 1
+         * @param order the position of the purchase in the transaction log, 0 is the first
+         * @param timestamp TransactionLog.UNTIMED if the time is not known
+         */
+        default void purchase(long order, long timestamp, String name, long priceCents) {
+            purchase(name, priceCents);
+        }
+
+        void rejected(String lineText, String reason);
+
+        /**
+         * The number of purchases of the current section, when the format knows it up front
+         */
+        default void sectionSize(int purchases) {
+        }
+
+        /**
+         * The last journal sequence contained in this ledger, see Journal
+         */
+        default void checkpoint(long journalSequence) {
+        }
+
+        /**
+         * One purchase as it was made, see the [Transactions] section
+         * @param categorySection the index of the category section in the file, 0 is the first
+         */
+        default void transaction(long timestamp, int categorySection, String name, long priceCents) {
+        }
+
+        /**
+         * The purchases of the current section in name and in price order, when the format keeps
+         * them (see BinaryLedger); a purchase is its position in the section, 0 is the first
+         */
+        default void sectionOrders(int[] byName, int[] byPrice) {
+        }
+    }
+
+    /**
+     * A Sink which reads the category sections of an indexed text ledger when it needs them,
+     * see read(Path, LazySink)
+     */
+    interface LazySink extends Sink {
+        /**
+         * A category section, instead of section(name) and its purchases
+         */
+        void section(Range section);
+
+        /**
+         * The sections with the transactions of the ledger: its category sections, or the
+         * [Transactions] section of format 1
+         */
+        void transactions(List<Range> sections);
+    }
+
+    /**
+     * A section of a text ledger found by its LedgerIndex
+     */
+    static final class Range {
+        final Path file;
+        final LedgerIndex.Section section;
+        /** the index of the category section in the ledger, 0 is the first, -1 for [Transactions] */
+        final int position;
+        /** of the ledger, see LedgerIndex.getFormat() */
+        final int format;
+
+        Range(Path file, LedgerIndex.Section section, int position, int format) {
+            this.file = file;
+            this.section = section;
+            this.position = position;
+            this.format = format;
+        }
+
+        static Range transactionsOf(Path file, LedgerIndex index) {
+            return new Range(file, new LedgerIndex.Section(TRANSACTIONS_SECTION, index.getTransactionsStart(),
+                    index.getTransactionsEnd(), 0, 0, index.getTransactionsCrc()), -1, index.getFormat());
+        }
+
+        /**
+         * @throws IOException also if the bytes of the section no longer have the checksum of the index
+         */
+        void read(Sink sink) throws IOException {
+            final Checksum checksum = LedgerIndex.newChecksum();
+            try (LedgerReader reader = ofRange(file, section.start, section.end, checksum, format)) {
+                reader.readAll(sink);
+            }
+            if (checksum.getValue() != section.crc) {
+                throw new IOException(file + " changed since it was loaded, [" + section.name + "] differs");
+            }
+        }
+    }
+
+    /**
+     * Reads a text ledger. One whose index can be used (see LedgerIndex.lazyIndexOf) is read
+     * lazily: only the income and the journal sequence are read, the sections are passed as
+     * ranges.
+     */
+    static void read(Path file, LazySink sink) throws IOException {
+        final LedgerIndex index = LedgerIndex.lazyIndexOf(file, true);
+        if (index == null) {
+            try (LedgerReader reader = new LedgerReader(file)) {
+                reader.readAll(sink);
+            }
+            return;
+        }
+        try (LedgerReader reader = ofRange(file, 0, index.getHeadEnd())) {
+            reader.readAll(sink);
+        }
+        final List<Range> sections = new ArrayList<>();
+        for (LedgerIndex.Section section : index.getSections()) {
+            final Range range = new Range(file, section, sections.size(), index.getFormat());
+            sink.section(range);
+            sections.add(range);
+        }
+        sink.transactions(index.hasTransactions() ? List.of(Range.transactionsOf(file, index)) : sections);
+    }
+
+    public void readAll(Sink sink) throws IOException {
+        String section = null;
+        String lineText;
+        while ((lineText = reader.readLine()) != null) {
+            if (lineText.startsWith("[") && lineText.endsWith("]")) {
+                section = lineText.substring(1, lineText.length() - 1);
+                if (!isMetadata(section)) {
+                    sink.section(section);
+                }
+            } else if (INCOME_SECTION.equals(section)) {
+                if (!lineText.isBlank()) {
+                    try {
+                        sink.income(new BigDecimal(lineText.trim()));
+                    } catch (NumberFormatException e) {
+                        sink.rejected(lineText, "Income is not a number");
+                    }
+                }
+            } else if (FORMAT_SECTION.equals(section)) {
+                if (!lineText.isBlank()) {
+                    format = parseFormat(lineText);
+                }
+            } else if (JOURNAL_SECTION.equals(section)) {
+                if (!lineText.isBlank()) {
+                    try {
+                        sink.checkpoint(Long.parseLong(lineText.trim()));
+                    } catch (NumberFormatException e) {
+                        sink.rejected(lineText, "Journal sequence is not a number");
+                    }
+                }
+            } else if (TRANSACTIONS_SECTION.equals(section)) {
+                parseTransaction(lineText, sink);
+            } else if (section != null && !INDEX_SECTION.equals(section)) {
+                if (format == 1) {
+                    parsePurchase(lineText, sink);
+                } else {
+                    parseTransactionPurchase(lineText, sink);
+                }
+            }
+        }
+    }
+
+    /**
+     * @throws IOException for a format this reader does not know, e.g. of a later version
+     */
+    static int parseFormat(String lineText) throws IOException {
+        try {
+            final int format = Integer.parseInt(lineText.trim());
+            if (format >= 1 && format <= FORMAT) {
+                return format;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IOException("Unsupported text ledger format " + lineText.trim());
+    }
+
+    /**
+     * @return true for the sections which are not categories
+     */
+    static boolean isMetadata(String section) {
+        return INCOME_SECTION.equals(section) || JOURNAL_SECTION.equals(section) || FORMAT_SECTION.equals(section)
+                || TRANSACTIONS_SECTION.equals(section) || INDEX_SECTION.equals(section);
+    }
+
+    static void parsePurchase(String lineText, Sink sink) {
+        int currencyPos = lineText.lastIndexOf('$');
+        if (currencyPos == -1) {
+            if (!lineText.isBlank()) {
+                sink.rejected(lineText, "Missing $ price");
+            }
+            return;
+        }
+        long priceCents;
+        try {
+            priceCents = Cents.parse(lineText, currencyPos + 1, lineText.length());
+        } catch (NumberFormatException e) {
+            sink.rejected(lineText, e.getMessage());
+            return;
+        }
+        sink.purchase(lineText.substring(0, currencyPos).trim(), priceCents);
+    }
+
+    static void parseTransaction(String lineText, Sink sink) {
+        final int timeEnd = lineText.indexOf(' ');
+        final int categoryEnd = timeEnd < 0 ? -1 : lineText.indexOf(' ', timeEnd + 1);
+        final int currencyPos = lineText.lastIndexOf('$');
+        if (categoryEnd < 0 || currencyPos < categoryEnd) {
+            if (!lineText.isBlank()) {
+                sink.rejected(lineText, "Missing transaction time, category or $ price");
+            }
+            return;
+        }
+        long timestamp;
+        int categorySection;
+        long priceCents;
+        try {
+            timestamp = Long.parseLong(lineText, 0, timeEnd, 10);
+            categorySection = Integer.parseInt(lineText, timeEnd + 1, categoryEnd, 10);
+            priceCents = Cents.parse(lineText, currencyPos + 1, lineText.length());
+        } catch (NumberFormatException e) {
+            sink.rejected(lineText, e.getMessage());
+            return;
+        }
+        if (!DateRollup.isSupported(timestamp)) {
+            sink.rejected(lineText, "Transaction time out of range");
+            return;
+        }
+        sink.transaction(timestamp, categorySection, lineText.substring(categoryEnd + 1, currencyPos).trim(), priceCents);
+    }
+
+    /**
+     * Parses a purchase line of format 2, "order time name $price"
+     */
+    static void parseTransactionPurchase(String lineText, Sink sink) {
+        final int orderEnd = lineText.indexOf(' ');
+        final int timeEnd = orderEnd < 0 ? -1 : lineText.indexOf(' ', orderEnd + 1);
+        final int currencyPos = lineText.lastIndexOf('$');
+        if (timeEnd < 0 || currencyPos < timeEnd) {
+            if (!lineText.isBlank()) {
+                sink.rejected(lineText, "Missing purchase order, time or $ price");
+            }
+            return;
+        }
+        long order;
+        long timestamp;
+        long priceCents;
+        try {
+            order = Long.parseLong(lineText, 0, orderEnd, 10);
+            timestamp = timeEnd == orderEnd + 2 && lineText.charAt(orderEnd + 1) == '-'
+                    ? TransactionLog.UNTIMED : Long.parseLong(lineText, orderEnd + 1, timeEnd, 10);
+            priceCents = Cents.parse(lineText, currencyPos + 1, lineText.length());
+        } catch (NumberFormatException e) {
+            sink.rejected(lineText, e.getMessage());
+            return;
+        }
+        if (!TransactionLog.isValidTime(timestamp) || (timestamp == TransactionLog.UNTIMED && timeEnd != orderEnd + 2)) {
+            sink.rejected(lineText, "Purchase time out of range");
+            return;
+        }
+        sink.purchase(order, timestamp, lineText.substring(timeEnd + 1, currencyPos).trim(), priceCents);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,340 @@
+package budget;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Serves many independent ledgers over HTTP with JSON bodies. Every ledger is a DataManager
+ * of its own on the file DIRECTORY/NAME.txt, loaded when the ledger is first used:
+ * <pre>
+ * POST /ledgers/NAME/income       {"amount": 1000.00}          sets the income like Add Income
+ * POST /ledgers/NAME/purchases    {"category": "Food", "name": "Milk", "price": 3.50}
+ * GET  /ledgers/NAME/balance      {"balance": 996.50}
+ * GET  /ledgers/NAME/purchases[?category=Food][&amp;offset=0][&amp;limit=100]
+ *                                 {"purchases": [{"category": "Food", "name": "Milk", "price": 3.50}]}
+ *                                 in the Analyze order (price descending), one page of it
+ * GET  /ledgers/NAME/types        {"types": [{"category": "Food", "sum": 3.50}], "total": 3.50}
+ * POST /ledgers/NAME/save
+ * POST /ledgers/NAME/load
+ * </pre>
+ * Prices are JSON numbers or strings. Ledger names are letters, digits, '-' and '_'; purchase
+ * names can not contain control characters, which would break the lines of the saved ledger.
+ * Errors are answered with 400, 404, 405 or 500 and {"error": "..."}; requests without a
+ * response body with 204.
+ *
+ * Every exchange runs on a virtual thread of its own where the JDK has them (21 and later;
+ * they are looked up reflectively because the sources target Java 11), otherwise on a
+ * fixed pool of platform threads. The DataManagers are thread safe, so requests to one
+ * ledger only wait for the locks of the categories they touch.
+ */
+class LedgerServer implements AutoCloseable {
+    private static final String PREFIX = "/ledgers/";
+    private static final Pattern LEDGER_NAME = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    private static final int MAX_BODY_BYTES = 1 << 16;
+    private static final int DEFAULT_LIMIT = 100;
+    private static final Set<String> ACTIONS = Set.of("income", "purchases", "balance", "types", "save", "load");
+
+    static {
+        // the JDK server writes the headers and the body of a response in two packets; with
+        // Nagle's algorithm the body waits for the delayed ACK of the headers (40 ms)
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final Path directory;
+    private final ColumnStorage storage;
+    private final Map<String, DataManager> ledgers = new ConcurrentHashMap<>();
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * @param address where to listen, port 0 for any free one
+     */
+    LedgerServer(Path directory, ColumnStorage storage, InetSocketAddress address) throws IOException {
+        this.directory = directory;
+        this.storage = storage;
+        Files.createDirectories(directory);
+        this.executor = newRequestExecutor();
+        this.server = HttpServer.create(address, 4096);
+        this.server.createContext(PREFIX, this::handle);
+        this.server.setExecutor(executor);
+    }
+
+    /**
+     * @return a virtual thread per task executor, or a pool of platform threads before Java 21
+     */
+    static ExecutorService newRequestExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return Executors.newFixedThreadPool(Math.max(16, 8 * Runtime.getRuntime().availableProcessors()));
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    public int getLedgerCount() {
+        return ledgers.size();
+    }
+
+    /**
+     * Stops accepting requests, waits a second for the running ones and closes the ledgers
+     * (without saving them)
+     */
+    @Override
+    public void close() throws IOException {
+        server.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (DataManager dataManager : ledgers.values()) {
+            dataManager.close();
+        }
+    }
+
+    private DataManager ledger(String name) {
+        if (!LEDGER_NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid ledger name " + name);
+        }
+        return ledgers.computeIfAbsent(name, key -> {
+            DataManager dataManager = new DataManager(directory.resolve(key + ".txt"), BigDecimal.ZERO, storage);
+            if (Files.exists(dataManager.getDataSourceFile())) {
+                try {
+                    dataManager.loadData();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return dataManager;
+        });
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String[] parts = path.substring(PREFIX.length()).split("/");
+            if (parts.length != 2) {
+                respond(exchange, 404, error("Unknown path " + path));
+                return;
+            }
+            String method = exchange.getRequestMethod();
+            String action = parts[1];
+            if (!ACTIONS.contains(action)) {
+                respond(exchange, 404, error("Unknown path " + path));
+                return;
+            }
+            DataManager dataManager = ledger(parts[0]);
+            switch (method + " " + action) {
+                case "POST income":
+                    dataManager.setIncome(incomeOf(readObject(exchange).get("amount")));
+                    respond(exchange, 204, null);
+                    break;
+                case "POST purchases":
+                    addPurchase(dataManager, readObject(exchange));
+                    respond(exchange, 204, null);
+                    break;
+                case "GET balance":
+                    respond(exchange, 200, new StringBuilder("{\"balance\": ")
+                            .append(dataManager.getBalance().setScale(Cents.SCALE, RoundingMode.HALF_UP).toPlainString())
+                            .append('}'));
+                    break;
+                case "GET purchases":
+                    respond(exchange, 200, purchases(dataManager, queryOf(exchange)));
+                    break;
+                case "GET types":
+                    respond(exchange, 200, types(dataManager));
+                    break;
+                case "POST save":
+                    dataManager.saveData();
+                    respond(exchange, 204, null);
+                    break;
+                case "POST load":
+                    dataManager.loadData();
+                    respond(exchange, 204, null);
+                    break;
+                default:
+                    respond(exchange, 405, error(method + " " + path + " is not allowed"));
+            }
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            // ArithmeticException: the sums of the ledger would overflow
+            respond(exchange, 400, error(e.getMessage()));
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            respond(exchange, 500, error(e.getMessage() == null ? e.toString() : e.getMessage()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void addPurchase(DataManager dataManager, Map<String, String> request) {
+        String category = request.get("category");
+        String name = request.get("name");
+        if (category == null || category.isEmpty() || name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("A purchase needs a category and a name");
+        }
+        if (name.chars().anyMatch(Character::isISOControl)) {
+            throw new IllegalArgumentException("Invalid purchase name " + Json.quote(new StringBuilder(), name));
+        }
+        final String price = request.get("price");
+        if (price == null) {
+            throw new IllegalArgumentException("Missing price");
+        }
+        final long priceCents;
+        try {
+            priceCents = Cents.parse(price);      // rounded up like the Add Purchase menu does
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException("Invalid price " + price);
+        }
+        dataManager.addPurchaseToList(dataManager.registerCategory(category), name, priceCents);
+    }
+
+    private static StringBuilder purchases(DataManager dataManager, Map<String, String> query) {
+        final int offset = intOf(query, "offset", 0);
+        final int limit = intOf(query, "limit", DEFAULT_LIMIT);
+        final String categoryName = query.get("category");
+        final StringBuilder sb = new StringBuilder(64 + 64 * Math.min(limit, 1024)).append("{\"purchases\": [");
+        if (categoryName == null) {
+            // the merged order of all categories does not keep the category of an entry
+            List<Map.Entry<String, BigDecimal>> top =
+                    dataManager.getTopPurchases((int) Math.min(Integer.MAX_VALUE, (long) offset + limit));
+            appendEntries(sb, null, top.subList(Math.min(offset, top.size()), top.size()));
+        } else {
+            int category = dataManager.categoryOf(categoryName);
+            if (category < 0) {
+                throw new IllegalArgumentException("Unknown category " + categoryName);
+            }
+            appendEntries(sb, dataManager.getCategoryName(category), dataManager.getPurchasesPage(category, offset, limit));
+        }
+        return sb.append("]}");
+    }
+
+    private static void appendEntries(StringBuilder sb, String category, List<Map.Entry<String, BigDecimal>> entries) {
+        for (int i = 0; i < entries.size(); i++) {
+            sb.append(i == 0 ? "{" : ", {");
+            if (category != null) {
+                Json.quote(sb.append("\"category\": "), category).append(", ");
+            }
+            Json.quote(sb.append("\"name\": "), entries.get(i).getKey())
+                    .append(", \"price\": ").append(entries.get(i).getValue().toPlainString()).append('}');
+        }
+    }
+
+    /**
+     * The category sums in the order of Analyze by type
+     */
+    private static StringBuilder types(DataManager dataManager) {
+        final LedgerView view = dataManager.getView();
+        final List<Map.Entry<String, BigDecimal>> types = view.getTypeSums();
+        final StringBuilder sb = new StringBuilder(64 * types.size()).append("{\"types\": [");
+        for (int i = 0; i < types.size(); i++) {
+            Json.quote(sb.append(i == 0 ? "{\"category\": " : ", {\"category\": "), types.get(i).getKey())
+                    .append(", \"sum\": ").append(types.get(i).getValue().toPlainString()).append('}');
+        }
+        return sb.append("], \"total\": ").append(view.getPurchasesTotalSum().toPlainString()).append('}');
+    }
+
+    /**
+     * Rounded half up like the Add Income menu does
+     */
+    private static BigDecimal incomeOf(String amount) {
+        if (amount == null) {
+            throw new IllegalArgumentException("Missing amount");
+        }
+        try {
+            return Cents.parseAmount(amount);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid amount " + amount);
+        }
+    }
+
+    private static int intOf(Map<String, String> query, String name, int defaultValue) {
+        String value = query.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int number = Integer.parseInt(value);
+            if (number < 0) {
+                throw new IllegalArgumentException("Negative " + name + " " + value);
+            }
+            return number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " " + value);
+        }
+    }
+
+    private static Map<String, String> readObject(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readNBytes(MAX_BODY_BYTES + 1);
+            if (body.length > MAX_BODY_BYTES) {
+                throw new IllegalArgumentException("Request body larger than " + MAX_BODY_BYTES + " bytes");
+            }
+            return Json.parseObject(new String(body, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static Map<String, String> queryOf(HttpExchange exchange) {
+        final Map<String, String> query = new HashMap<>();
+        final String rawQuery = exchange.getRequestURI().getRawQuery();
+        if (rawQuery != null) {
+            for (String parameter : rawQuery.split("&")) {
+                int separator = parameter.indexOf('=');
+                if (separator > 0) {
+                    query.put(URLDecoder.decode(parameter.substring(0, separator), StandardCharsets.UTF_8),
+                            URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return query;
+    }
+
+    private static StringBuilder error(String message) {
+        return Json.quote(new StringBuilder("{\"error\": "), String.valueOf(message)).append('}');
+    }
+
+    private static void respond(HttpExchange exchange, int status, CharSequence json) throws IOException {
+        if (json == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package budget;
+
+/**
+ * Everything a save writes. DataManager takes it with every category locked, so the
+ * transactions are exactly the purchases of the categories; the format classes write it
+ * without any lock (see LedgerFormat.write).
+ */
+final class LedgerSnapshot {
+    final LedgerView view;
+    /** the name order of every category for the binary format, null for the others */
+    final int[][] nameOrders;
+    final TransactionLog.View log;
+    /** the dictionary of the names of the view and of the log */
+    final NameDictionary names;
+
+    LedgerSnapshot(LedgerView view, int[][] nameOrders, TransactionLog.View log, NameDictionary names) {
+        this.view = view;
+        this.nameOrders = nameOrders;
+        this.log = log;
+        this.names = names;
+    }
+}
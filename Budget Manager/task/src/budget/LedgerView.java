@@ -0,0 +1,206 @@
+package budget;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * An immutable view of a DataManager, for the reports and the snapshots: it never changes and
+ * needs no lock, so a long report (printed to a slow console or sent over the network) does
+ * not hold up the writers and can not see a purchase half added. The total is the sum of the
+ * categories of the view, so they always add up.
+ *
+ * Every category is a Category view, which its store keeps until it changes again: a view
+ * of an unchanged category costs nothing, a changed one a copy of the prices and of the price
+ * index under the lock of that category only (the names of the entries never change, they are
+ * shared with the store). The categories are taken one after the other, so a view may hold a
+ * purchase of one category and miss an earlier one of another.
+ */
+class LedgerView {
+    private final BigDecimal income;
+    private final Category[] categories;
+
+    LedgerView(BigDecimal income, Category[] categories) {
+        this.income = income;
+        this.categories = categories;
+    }
+
+    /**
+     * One category store at one version
+     */
+    static final class Category {
+        private final String name;
+        private final NameDictionary dictionary;
+        private final IntColumn names;
+        private final LongColumn cents;
+        private final PriceIndex priceIndex;
+        private final int size;
+        private final long sumCents;
+
+        /**
+         * Called under the lock of the store
+         */
+        Category(String name, PurchaseMap purchases, PriceIndex priceIndex, long sumCents) {
+            this.name = name;
+            this.dictionary = purchases.dictionary();
+            this.names = purchases.nameIdColumn();
+            this.cents = purchases.copyValues();
+            this.priceIndex = new PriceIndex(priceIndex);
+            this.size = purchases.size();
+            this.sumCents = sumCents;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long getSumCents() {
+            return sumCents;
+        }
+
+        NameDictionary dictionary() {
+            return dictionary;
+        }
+
+        int nameIdAt(int id) {
+            return names.get(id);
+        }
+
+        String nameAt(int id) {
+            return dictionary.nameOf(names.get(id));
+        }
+
+        long centsAt(int id) {
+            return cents.get(id);
+        }
+
+        /**
+         * @return the entry ids in price order, see PriceIndex.order()
+         */
+        int[] priceOrder() {
+            return priceIndex.order();
+        }
+
+        /**
+         * Writes "name $price" lines in the order the purchases were first made
+         * @return the number of purchases written
+         */
+        public long writeContent(Appendable out) throws IOException {
+            for (int id = 0; id < size; id++) {
+                Cents.appendTo(out.append(dictionary.nameOf(names.get(id))).append(" $"), cents.get(id)).append('\n');
+            }
+            return size;
+        }
+
+        /**
+         * Writes "name $price" lines in the Analyze order
+         * @return the number of purchases written
+         */
+        public long writeContentPriceSorted(Appendable out) throws IOException {
+            for (PriceIndex.Cursor cursor = priceIndex.cursor(0); cursor.hasNext(); ) {
+                int id = cursor.next();
+                Cents.appendTo(out.append(dictionary.nameOf(names.get(id))).append(" $"), cents.get(id)).append('\n');
+            }
+            return size;
+        }
+    }
+
+    public int getCategoryCount() {
+        return categories.length;
+    }
+
+    public Category getCategory(int category) {
+        return categories[category];
+    }
+
+    public BigDecimal getIncome() {
+        return income;
+    }
+
+    public long getPurchaseCount() {
+        long count = 0;
+        for (Category category : categories) {
+            count += category.size;
+        }
+        return count;
+    }
+
+    public BigDecimal getPurchaseListSum(int category) {
+        return Cents.toBigDecimal(categories[category].sumCents);
+    }
+
+    public BigDecimal getPurchasesTotalSum() {
+        long sum = 0;
+        for (Category category : categories) {
+            sum += category.sumCents;
+        }
+        return Cents.toBigDecimal(sum);
+    }
+
+    public BigDecimal getBalance() {
+        return income.subtract(getPurchasesTotalSum());
+    }
+
+    /**
+     * @return the sum of every category in the Analyze by type order: the largest sum first,
+     * equal sums by their names in reverse
+     */
+    public List<Map.Entry<String, BigDecimal>> getTypeSums() {
+        final List<Map.Entry<String, BigDecimal>> types = new ArrayList<>(categories.length);
+        for (int category = 0; category < categories.length; category++) {
+            types.add(Map.entry(categories[category].name, getPurchaseListSum(category)));
+        }
+        types.sort(Map.Entry.<String, BigDecimal>comparingByValue().thenComparing(Map.Entry.comparingByKey()).reversed());
+        return types;
+    }
+
+    public long writePurchaseTotalContent(Appendable out) throws IOException {
+        long count = 0;
+        for (Category category : categories) {
+            count += category.writeContent(out);
+        }
+        return count;
+    }
+
+    /**
+     * Merges the price indexes of all categories, walking them side by side
+     * @return the number of purchases written
+     */
+    public long writePurchaseTotalContentPriceSorted(Appendable out) throws IOException {
+        final PriceIndex.Cursor[] cursors = new PriceIndex.Cursor[categories.length];
+        final int[] heads = new int[categories.length];
+        final PriorityQueue<Integer> queue = new PriorityQueue<>(Math.max(1, categories.length), (a, b) -> {
+            Category categoryA = categories[a];
+            Category categoryB = categories[b];
+            int byPrice = Long.compare(categoryB.cents.get(heads[b]), categoryA.cents.get(heads[a]));
+            return byPrice != 0 ? byPrice
+                    : categoryA.dictionary.compare(categoryB.names.get(heads[b]), categoryA.names.get(heads[a]));
+        });
+        for (int c = 0; c < categories.length; c++) {
+            cursors[c] = categories[c].priceIndex.cursor(0);
+            if (cursors[c].hasNext()) {
+                heads[c] = cursors[c].next();
+                queue.add(c);
+            }
+        }
+        long count = 0;
+        for (; !queue.isEmpty(); count++) {
+            int c = queue.poll();
+            Category category = categories[c];
+            Cents.appendTo(out.append(category.dictionary.nameOf(category.names.get(heads[c]))).append(" $"),
+                    category.cents.get(heads[c])).append('\n');
+            if (cursors[c].hasNext()) {
+                heads[c] = cursors[c].next();
+                queue.add(c);
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,222 @@
+package budget;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Checksum;
+
+/**
+ * Writes the text ledger format 2 (see LedgerReader) through one buffered writer into a
+ * temporary file next to the target. Only commit() replaces the target, with an atomic
+ * rename after the data reached the disk, so a crash in the middle of a save leaves the
+ * previous ledger untouched. Closing without commit() throws the temporary file away.
+ * The byte offsets and checksums of the sections are recorded as they are written, commit()
+ * appends them as the [Index] section (see LedgerIndex).
+ */
+class LedgerWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path target;
+    private final Path tempFile;
+    private final FileChannel channel;
+    private final BufferedWriter writer;
+    /** of the bytes written since the start of the current section */
+    private final Checksum checksum = LedgerIndex.newChecksum();
+    private final StringBuilder line = new StringBuilder(128);
+    private final List<LedgerIndex.Section> sections = new ArrayList<>();
+    private long headEnd = -1;
+    private String sectionName;
+    private long sectionStart;
+    private int sectionCount;
+    private long sectionSum;
+    private boolean formatWritten;
+    private boolean committed;
+
+    /**
+     * Writes the snapshot with the purchases of every category in the order of the log
+     * @param journalSequence the last journal record contained in the snapshot, -1 without a journal
+     */
+    static void write(Path target, long journalSequence, LedgerSnapshot snapshot) throws IOException {
+        final LedgerView view = snapshot.view;
+        final int[][] rows = snapshot.log.rowsByCategory(view.getCategoryCount());
+        try (LedgerWriter writer = new LedgerWriter(target)) {
+            writer.income(view.getIncome());
+            if (journalSequence >= 0) {
+                writer.checkpoint(journalSequence);
+            }
+            for (int category = 0; category < view.getCategoryCount(); category++) {
+                writer.section(view.getCategory(category).getName());
+                writer.purchases(snapshot.log, rows[category]);
+            }
+            writer.commit();
+        }
+    }
+
+    LedgerWriter(Path target) throws IOException {
+        this.target = target;
+        this.tempFile = target.resolveSibling(target.getFileName() + ".tmp");
+        this.channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.writer = new BufferedWriter(Channels.newWriter(new ChecksumChannel(channel, checksum),
+                StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    public void income(BigDecimal income) throws IOException {
+        section(LedgerReader.INCOME_SECTION);
+        writer.write(income.toPlainString());
+        writer.write('\n');
+    }
+
+    public void checkpoint(long journalSequence) throws IOException {
+        section(LedgerReader.JOURNAL_SECTION);
+        writer.write(Long.toString(journalSequence));
+        writer.write('\n');
+    }
+
+    /**
+     * Starts a section; the [Format] section is written before the first category section
+     */
+    public void section(String name) throws IOException {
+        if (!LedgerReader.isMetadata(name)) {
+            format();
+            endSection();
+            sectionName = name;
+            sectionStart = position();
+            checksum.reset();
+            sectionCount = 0;
+            sectionSum = 0;
+            if (headEnd < 0) {
+                headEnd = sectionStart;
+            }
+        }
+        writer.write('[');
+        writer.write(name);
+        writer.write("]\n");
+    }
+
+    private void format() throws IOException {
+        if (!formatWritten) {
+            formatWritten = true;
+            writer.write('[' + LedgerReader.FORMAT_SECTION + "]\n" + LedgerReader.FORMAT + '\n');
+        }
+    }
+
+    /**
+     * Writes a purchase line of the current section
+     * @param order the position of the purchase in the transaction log
+     * @param timestamp TransactionLog.UNTIMED if the time is not known
+     */
+    public void purchase(long order, long timestamp, String name, long priceCents) throws IOException {
+        line.setLength(0);
+        line.append(order).append(' ');
+        if (timestamp == TransactionLog.UNTIMED) {
+            line.append('-');
+        } else {
+            line.append(timestamp);
+        }
+        Cents.appendTo(line.append(' ').append(name).append(" $"), priceCents).append('\n');
+        writer.append(line);
+        sectionCount++;
+        sectionSum += priceCents;
+    }
+
+    /**
+     * Writes the transactions of the current section
+     * @param rows the rows of the log, ascending (see TransactionLog.View.rowsByCategory)
+     */
+    public void purchases(TransactionLog.View log, int[] rows) throws IOException {
+        for (int row : rows) {
+            purchase(row, log.timestampAt(row), log.nameAt(row), log.centsAt(row));
+        }
+    }
+
+    private void endSection() throws IOException {
+        if (sectionName != null) {
+            final long end = position();
+            sections.add(new LedgerIndex.Section(sectionName, sectionStart, end, sectionCount, sectionSum,
+                    checksum.getValue()));
+            sectionName = null;
+        }
+    }
+
+    /**
+     * @return the offset of the next byte in the file
+     */
+    private long position() throws IOException {
+        writer.flush();
+        return channel.position();
+    }
+
+    public void commit() throws IOException {
+        format();
+        endSection();
+        final long indexStart = position();
+        new LedgerIndex(headEnd < 0 ? indexStart : headEnd, LedgerReader.FORMAT, sections, -1, -1, 0, true)
+                .writeTo(writer, indexStart);
+        writer.flush();
+        channel.force(true);
+        writer.close();
+        try {
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        committed = true;
+    }
+
+    /**
+     * Passes the bytes on to the file and adds them to the checksum
+     */
+    private static final class ChecksumChannel implements WritableByteChannel {
+        private final FileChannel channel;
+        private final Checksum checksum;
+
+        ChecksumChannel(FileChannel channel, Checksum checksum) {
+            this.channel = channel;
+            this.checksum = checksum;
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            final ByteBuffer written = source.duplicate();
+            final int count = channel.write(source);
+            written.limit(written.position() + count);
+            checksum.update(written);
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!committed) {
+            try {
+                writer.close();
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+}
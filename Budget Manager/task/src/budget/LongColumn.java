@@ -0,0 +1,20 @@
+package budget;
+
+abstract class LongColumn {
+    abstract long get(int index);
+
+    abstract void set(int index, long value);
+
+    abstract int capacity();
+
+    /**
+     * @see IntColumn#grow(int)
+     */
+    abstract LongColumn grow(int capacity);
+
+    abstract LongColumn copy();
+
+    void add(int index, long value) {
+        set(index, get(index) + value);
+    }
+}
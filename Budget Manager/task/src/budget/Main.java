@@ -1,27 +1,130 @@
 package budget;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
 import java.util.*;
 
 public class Main {
     DataManager dataManager;
+    AutoSaver autoSaver;
 
     public Main() {
         this.dataManager = new DataManager(Path.of("purchases.txt"), BigDecimal.ZERO);
     }
 
-    public static void main(String[] args) {
-        Main mainApp = new Main();
-        mainApp.performUserInteraction();
+    /**
+     * The command line options, printed for an argument that is none of them
+     */
+    static final String USAGE = String.join("\n",
+            "Usage: budget.Main [OPTION]...",
+            "  --ledger=FILE                  the data file, \"*.bin\" files use the binary format, \"*.ledger\" directories",
+            "                                 the sharded one and \"*.ledz\" files the compressed one (default purchases.txt)",
+            "  --journal                      journal every mutation",
+            "  --journal-sync=always|batch|none  when journal records are forced to the disk (default batch)",
+            "  --journal-compact-bytes=N      journal size that triggers a new snapshot",
+            "  --batch[=SCRIPT]               run the commands of the script (or standard input) without menus",
+            "  --storage=heap|offheap         where the purchase data is kept (default budget.storage or heap)",
+            "  --serve[=PORT]                 serve the ledgers of a directory over HTTP until stopped (default 8080)",
+            "  --ledgers=DIR                  the directory of the served ledgers (default ledgers)",
+            "  --autosave[=MILLIS]            save in the background once no change came for MILLIS (default 2000)",
+            "  --autosave-max-delay=MILLIS    the longest a change stays unsaved with --autosave (default 30000)");
+    private static final List<String> OPTIONS = List.of("ledger", "journal", "journal-sync", "journal-compact-bytes",
+            "batch", "storage", "serve", "ledgers", "autosave", "autosave-max-delay");
+
+    /**
+     * @param options see USAGE; the formats are LedgerFormat, the journal Journal, the batch
+     * commands BatchRunner, the storages ColumnStorage, the server LedgerServer and the
+     * autosave AutoSaver
+     */
+    public Main(AppOptions options) throws IOException {
+        ColumnStorage storage = storageOf(options);
+        this.dataManager = new DataManager(Path.of(options.get("ledger", "purchases.txt")), BigDecimal.ZERO, storage);
+        if (options.has("journal")) {
+            Journal.SyncPolicy syncPolicy = Journal.SyncPolicy.valueOf(
+                    options.get("journal-sync", "batch").toUpperCase(Locale.ROOT));
+            this.dataManager.openJournal(new Journal(this.dataManager.getDataSourceFile(), syncPolicy,
+                    options.getLong("journal-compact-bytes", 4L << 20)));
+        }
+        this.dataManager.getMetrics().register();
+        if (options.has("autosave")) {
+            this.autoSaver = new AutoSaver(this.dataManager, options.getLong("autosave", 2000),
+                    options.getLong("autosave-max-delay", 30000));
+        }
+    }
+
+    private static ColumnStorage storageOf(AppOptions options) {
+        return options.has("storage")
+                ? ColumnStorage.of(options.get("storage", "heap")) : ColumnStorage.fromSystemProperties();
+    }
+
+    public static void main(String[] args) throws IOException {
+        final AppOptions options;
+        try {
+            options = new AppOptions(OPTIONS, args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        if (options.has("serve")) {
+            serve(options);
+            return;
+        }
+        Main mainApp = new Main(options);
+        if (options.has("batch")) {
+            mainApp.performBatch(options.get("batch", null));
+        } else {
+            mainApp.performUserInteraction();
+        }
+    }
+
+    private static void serve(AppOptions options) throws IOException {
+        LedgerServer server = new LedgerServer(Path.of(options.get("ledgers", "ledgers")), storageOf(options),
+                new InetSocketAddress((int) options.getLong("serve", 8080)));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }));
+        server.start();
+        System.out.println("Serving the ledgers of " + Path.of(options.get("ledgers", "ledgers")).toAbsolutePath()
+                + " on port " + server.getAddress().getPort());
+    }
+
+    /**
+     * The script is read and the reports are written in UTF-8, like the ledger files
+     */
+    public void performBatch(String script) throws IOException {
+        InputStream input = script == null ? System.in : Files.newInputStream(Path.of(script));
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), 1 << 16)) {
+            BatchRunner batchRunner = new BatchRunner(dataManager, new PrintWriter(
+                    new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16)));
+            batchRunner.run(reader);
+            System.err.println(batchRunner);
+        } finally {
+            closeData();
+        }
     }
 
     public void performUserInteraction() {
-        UserInteraction userInteraction = new UserInteraction();
+        UserInteraction userInteraction = new UserInteraction(dataManager.getMetrics());
         boolean exit = false;
 
         while (!exit) {
@@ -53,8 +156,15 @@ public class Main {
                     case Analyze:
                         showAnalyze(userInteraction);
                         break;
+                    case Stats:
+                        userInteraction.showStats(dataManager.getMetrics());
+                        break;
+                    case Search:
+                        searchPurchases(userInteraction);
+                        break;
                     case Exit:
                         exit = true;
+                        closeData();
                         userInteraction.exit();
                         break;
                     default:
@@ -76,6 +186,22 @@ public class Main {
         }
     }
 
+    private void closeData() {
+        dataManager.getMetrics().unregister();
+        if (autoSaver != null) {
+            try {
+                autoSaver.close();          // saves what is not saved yet
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        try {
+            dataManager.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     private void LoadData(UserInteraction userInteraction) {
         try {
             dataManager.loadData();
@@ -97,86 +223,59 @@ public class Main {
 
     private void getNewPurchaseData(UserInteraction userInteraction) {
         while (true) {
-            userInteraction.showPurchaseTypesMenuToAddPurchase();
+            CategoryMenu menu = new CategoryMenu("Choose the type of purchases", dataManager.getCategoryNames(), "Back");
+            userInteraction.showCategoryMenu(menu);
             int itemNumber = userInteraction.getMenuAction();
-            Optional<PurchaseTypesMenuToAddPurchase> userChoice = PurchaseTypesMenuToAddPurchase.getMenuItem(itemNumber);
+            int category = menu.getCategory(itemNumber);
 
-            PurchasesCategory category;
-            if (userChoice.isPresent()) {
-                switch (userChoice.get()) {
-                    case Food:
-                        category = PurchasesCategory.Food;
-                        break;
-                    case Clothes:
-                        category = PurchasesCategory.Clothes;
-                        break;
-                    case Entertainment:
-                        category = PurchasesCategory.Entertainment;
-                        break;
-                    case Other:
-                        category = PurchasesCategory.Other;
-                        break;
-
-                    case Back:
-                    default:
-                        return;
-                }
+            if (category >= 0) {
                 userInteraction.printBlankLine();
                 Map.Entry<String, BigDecimal> entry = userInteraction.getUserPurchase();
                 this.dataManager.addPurchaseToList(category, entry.getKey(), entry.getValue());
                 userInteraction.printBlankLine();
+            } else if (menu.getExtraItem(itemNumber) != null) {
+                return;
             }
         }
     }
 
     private void showPurchase(UserInteraction userInteraction) {
         while (true) {
-            userInteraction.showPurchaseTypesMenuToShowPurchase();
+            CategoryMenu menu = new CategoryMenu("Choose your action", dataManager.getCategoryNames(), "All", "Back");
+            userInteraction.showCategoryMenu(menu);
             int itemNumber = userInteraction.getMenuAction();
-            Optional<PurchaseTypesMenuToShowPurchase> userChoice = PurchaseTypesMenuToShowPurchase.getMenuItem(itemNumber);
-
-            PurchasesCategory category = null;
-            if (userChoice.isPresent()) {
-                switch (userChoice.get()) {
-                    case Food:
-                        category = PurchasesCategory.Food;
-                        break;
-                    case Clothes:
-                        category = PurchasesCategory.Clothes;
-                        break;
-                    case Entertainment:
-                        category = PurchasesCategory.Entertainment;
-                        break;
-                    case Other:
-                        category = PurchasesCategory.Other;
-                        break;
-                    case All:
-                        break;
-                    case Back:
-                    default:
-                        return;
-                }
+            int category = menu.getCategory(itemNumber);
+            String extraItem = menu.getExtraItem(itemNumber);
 
-                String purchases;
+            if (category >= 0 || "All".equals(extraItem)) {
+                Report purchases;
                 BigDecimal sum;
                 String title;
-                if (userChoice.get() == PurchaseTypesMenuToShowPurchase.All) {
-                    purchases = dataManager.getPurchaseTotalContent();
+                if (category < 0) {
+                    purchases = dataManager::writePurchaseTotalContent;
                     sum = dataManager.getPurchasesTotalSum();
-                    title = "All:\n";
+                    title = "All:";
                 } else {
-                    purchases = dataManager.getPurchaseListContent(category);
+                    purchases = out -> dataManager.writePurchaseListContent(category, out);
                     sum = dataManager.getPurchaseListSum(category);
-                    title = category.name() + ":\n";
+                    title = dataManager.getCategoryName(category) + ":";
                 }
                 userInteraction.printBlankLine();
-                userInteraction.showUserPurchase(title + purchases.trim(),
+                userInteraction.showUserPurchase(title, purchases,
                         String.format("Total sum: $%s", sum.toPlainString()));
                 userInteraction.printBlankLine();
+            } else if (extraItem != null) {
+                return;
             }
         }
     }
 
+    private void searchPurchases(UserInteraction userInteraction) {
+        String prefix = userInteraction.getUserSearch();
+        userInteraction.showUserSearchResults("Purchases starting with \"" + prefix + "\":",
+                out -> dataManager.writeSearchResults(prefix, out));
+    }
+
     private void showAnalyze(UserInteraction userInteraction) {
         while (true) {
             userInteraction.showPurchasesSortMenu();
@@ -186,14 +285,19 @@ public class Main {
                 userInteraction.printBlankLine();
                 switch (userChoice.get()) {
                     case SortALL:
-                        userInteraction.printSortedListData("All:", dataManager.getPurchaseTotalContentPriceSorted());
+                        userInteraction.printSortedListData("All:", dataManager.getPurchaseCount(),
+                                dataManager::writePurchaseTotalContentPriceSorted);
                         break;
                     case SortByType:
-                        userInteraction.printSortedListData("Types:", dataManager.getPurchasesTypesSumSorted());
+                        userInteraction.printSortedListData("Types:", dataManager.getCategoryCount(),
+                                dataManager::writePurchasesTypesSumSorted);
                         break;
                     case SortCertainType:
                         showAnalyzeCertainType(userInteraction);
                         break;
+                    case DateRange:
+                        showAnalyzeDateRange(userInteraction);
+                        break;
                     case Back:
                     default:
                         return;
@@ -205,26 +309,24 @@ public class Main {
         }
     }
 
+    private void showAnalyzeDateRange(UserInteraction userInteraction) {
+        LocalDate first = userInteraction.getUserDate("Enter the first date (yyyy-mm-dd):");
+        LocalDate last = first == null ? null : userInteraction.getUserDate("Enter the last date (yyyy-mm-dd):");
+        if (last != null) {
+            userInteraction.printSortedListData("Spending from " + first + " to " + last + ":\n",
+                    dataManager.getCategoryCount(), out -> dataManager.writeDateRangeSums(first, last, out));
+        }
+    }
+
     private void showAnalyzeCertainType(UserInteraction userInteraction) {
-        userInteraction.showPurchasesSortCertainTypeMenu();
+        CategoryMenu menu = new CategoryMenu("Choose the type of purchases", dataManager.getCategoryNames());
+        userInteraction.showCategoryMenu(menu);
         int itemNumber = userInteraction.getMenuAction();
-        Optional<PurchaseTypesMenuToSort> userChoice = PurchaseTypesMenuToSort.getMenuItem(itemNumber);
-        if (userChoice.isPresent()) {
+        int category = menu.getCategory(itemNumber);
+        if (category >= 0) {
             userInteraction.printBlankLine();
-            switch (userChoice.get()) {
-                case Food:
-                    userInteraction.printSortedListData(userChoice.get().menuText, dataManager.getPurchaseListContentPriceSorted(PurchasesCategory.Food));
-                    break;
-                case Clothes:
-                    userInteraction.printSortedListData(userChoice.get().menuText, dataManager.getPurchaseListContentPriceSorted(PurchasesCategory.Clothes));
-                    break;
-                case Entertainment:
-                    userInteraction.printSortedListData(userChoice.get().menuText, dataManager.getPurchaseListContentPriceSorted(PurchasesCategory.Entertainment));
-                    break;
-                case Other:
-                    userInteraction.printSortedListData(userChoice.get().menuText, dataManager.getPurchaseListContentPriceSorted(PurchasesCategory.Other));
-                    break;
-            }
+            userInteraction.printSortedListData(dataManager.getCategoryName(category), dataManager.getPurchaseCount(category),
+                    out -> dataManager.writePurchaseListContentPriceSorted(category, out));
         }
     }
 
@@ -232,9 +334,16 @@ public class Main {
 
 class UserInteraction {
     Scanner scanner;
+    private final Writer console = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+    private final Metrics metrics;
 
     UserInteraction() {
+        this(Metrics.DISABLED);
+    }
+
+    UserInteraction(Metrics metrics) {
         this.scanner = new Scanner(System.in);
+        this.metrics = metrics;
     }
 
     public int getMenuAction() {
@@ -275,323 +384,104 @@ class UserInteraction {
         return Map.entry(name, BigDecimal.valueOf(price).setScale(2, RoundingMode.UP));
     }
 
-    public void showUserPurchase(String purchaseList, String totalSum) {
-        if (purchaseList.isEmpty()) {
-            System.out.println("The purchase list is empty!");
-            return;
-        }
-        System.out.println(purchaseList);
-        System.out.println(totalSum);
-    }
-
-    public void showUserBalance(String balance) {
-        System.out.println(balance);
-    }
-
-    public void showMainMenu() {
-        MainMenu.showMainMenu();
-    }
-
-    public void showPurchaseTypesMenuToShowPurchase() {
-        PurchaseTypesMenuToShowPurchase.showPurchaseTypesMenuToShowPurchase();
-    }
-
-    public void showPurchaseTypesMenuToAddPurchase() {
-        PurchaseTypesMenuToAddPurchase.showPurchaseTypesMenuToAddPurchase();
-    }
-
-    public void showPurchasesSortMenu() {
-        PurchasesSortMenu.showPurchasesSortMenu();
-    }
-
-    public void showPurchasesSortCertainTypeMenu() {
-        PurchaseTypesMenuToSort.showPurchaseTypesMenuToSort();
+    public String getUserSearch() {
+        System.out.println("Enter the beginning of the purchase name:");
+        scanner.nextLine();
+        return scanner.nextLine();
     }
 
-    public void showPurchasesSaved() {
-        System.out.println("Purchases were saved!");
-    }
-
-    public void showPurchasesLoaded() {
-        System.out.println("Purchases were loaded!");
-    }
-
-    public void printSortedListData(String title, String purchaseTotalContentPriceSorted) {
-        if (purchaseTotalContentPriceSorted.isEmpty()) {
-            System.out.println("The purchase list is empty!");
-        } else {
-            System.out.println(title + purchaseTotalContentPriceSorted);
-        }
-    }
-}
-
-//*******************************Data Models *************************************
-
-/**
- * DataManger is based on Strategy pattern using Purchases helpList
- * Constructor: DataManager(Path sourceFile, BigDecimal income)
- *              - sourceFile : used file to store data and or load from it
- *              - income: amount of available money
- */
-class DataManager {
-    private final Purchases foodPurchases;
-    private final Purchases clothPurchases;
-    private final Purchases entertainmentPurchases;
-    private final Purchases otherPurchases;
-
-    private Purchases helpList;
-    private final String sectionName = "[%s]";
-
-    private final Path dataSourceFile;
-    private BigDecimal income;
-     final Comparator<Map.Entry<String, BigDecimal>> priceSorter = Map.Entry.comparingByValue();//.thenComparing(Map.Entry.comparingByKey());
-     final Comparator<Map.Entry<String, BigDecimal>> priceSorterReveserd = priceSorter.thenComparing(Map.Entry.comparingByKey()).reversed();
-
-    public DataManager(Path sourceFile, BigDecimal income) {
-        this.dataSourceFile = sourceFile;
-        this.income = income;
-        this.foodPurchases = new Food();
-        this.clothPurchases = new Clothes();
-        entertainmentPurchases = new Entertainment();
-        this.otherPurchases = new Other();
-    }
-
-    public void setIncome(BigDecimal income) {
-        this.income = income;
-    }
-    public BigDecimal getIncome() {
-        return this.income;
-    }
-
-    private void setPurchaseList(PurchasesCategory category) {
-        switch (category) {
-            case Food:
-                helpList = foodPurchases;
-                break;
-            case Clothes:
-                helpList = clothPurchases;
-                break;
-            case Entertainment:
-                helpList = entertainmentPurchases;
-                break;
-            case Other:
-                helpList = otherPurchases;
-                break;
-            default:
-                throw new IllegalStateException("Unexpected value: " + category);
-                //break;
-        }
-    }
-
-    public void addPurchaseToList(PurchasesCategory category, String name, BigDecimal price) {
-        setPurchaseList(category);
-        helpList.addNewPurchase(name, price);
-    }
-
-    public BigDecimal getPurchaseListSum(PurchasesCategory category) {
-        setPurchaseList(category);
-        return helpList.getPurchasesSum();
-    }
-
-    public BigDecimal getPurchasesTotalSum() {
-        BigDecimal total = BigDecimal.ZERO;
-        for (PurchasesCategory category : PurchasesCategory.values()) {
-            total = total.add(getPurchaseListSum(category));
+    /**
+     * @return the entered date, null (after telling the user) if it is not a date
+     */
+    public LocalDate getUserDate(String prompt) {
+        System.out.println(prompt);
+        String text = scanner.next();
+        try {
+            return LocalDate.parse(text);
+        } catch (DateTimeException e) {
+            System.out.println("It is not a date: " + text);
+            return null;
         }
-        return total;
     }
 
-
-    public String getPurchaseListContent(PurchasesCategory category) {
-        setPurchaseList(category);
-        return helpList.getPurchaseContent();
-    }
-
-    public String getPurchaseTotalContent() {
-        final StringBuilder sb = new StringBuilder();
-        for (PurchasesCategory category : PurchasesCategory.values()) {
-            setPurchaseList(category);
-            sb.append(helpList.getPurchaseContent());
+    /**
+     * Streams the report to the console through a buffer that is flushed when the report is complete
+     */
+    private void printReport(Report report) {
+        final long start = metrics.start();
+        try {
+            report.writeTo(console);
+            console.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            metrics.record(Metrics.Operation.PRINT, start);
         }
-        return sb.toString();
     }
 
-    public String getPurchaseListContentPriceSorted(PurchasesCategory category) {
-        setPurchaseList(category);
-        return helpList.getPurchaseContent(priceSorterReveserd);
+    public void showStats(Metrics metrics) {
+        printReport(metrics::writeTo);
     }
 
-    public String getPurchasesTypesSumSorted() {
-        Map<String, BigDecimal> typesSummaryMap = new HashMap<>();
-        BigDecimal sum;
-        BigDecimal total = BigDecimal.ZERO;
-
-        final StringBuilder sb = new StringBuilder();
-        for (PurchasesCategory category : PurchasesCategory.values()) {
-            sum = getPurchaseListSum(category).setScale(2, RoundingMode.UP);
-            typesSummaryMap.put(category.name(), sum);
-            total = total.add(sum);
-        }
-        typesSummaryMap.entrySet()
-                .stream()
-                .sorted(priceSorterReveserd)
-                .forEach(entry -> sb.append(entry.getKey()).append(" - $").append(entry.getValue().toPlainString()).append("\n"));
-        sb.append("Total sum: $").append(total.toPlainString());
-        return sb.toString();
-    }
-
-    private Map<String, BigDecimal> getAllPurchases() {
-        Map<String, BigDecimal> totalMap = new HashMap<>();
-        for (PurchasesCategory category : PurchasesCategory.values()) {
-            setPurchaseList(category);
-            totalMap.putAll(helpList.specializedPurchaseMap);
-        }
-        return totalMap;
-    }
-
-    public String getPurchaseTotalContentPriceSorted() {
-        StringBuilder sb = new StringBuilder();
-        getAllPurchases().entrySet()
-                .stream()
-                .sorted(priceSorterReveserd)
-                .forEach(entry -> sb.append(entry.getKey()).append(" $").append(entry.getValue().toPlainString()).append("\n"));
-        return sb.toString();
-    }
-
-    public void saveData() throws IOException {
-        //Files.createFile(this.dataSourceFile);
-        Files.writeString(this.dataSourceFile, "[Income]\n", StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-        Files.writeString(this.dataSourceFile, getIncome().toPlainString() + "\n", StandardOpenOption.APPEND);
-        for (PurchasesCategory category : PurchasesCategory.values()) {
-            setPurchaseList(category);
-            String data = String.format(this.sectionName, category.name()) + "\n";
-            data += helpList.getPurchaseContent();
-            Files.writeString(this.dataSourceFile, data, StandardOpenOption.APPEND);
-        }
+    public void showUserPurchase(String title, Report purchases, String totalSum) {
+        printReport(out -> {
+            out.append(title).append('\n');
+            long count = purchases.writeTo(out);
+            if (count == 0) {
+                out.append('\n');
+            }
+            out.append(totalSum).append('\n');
+            return count;
+        });
     }
 
-    public void loadData() throws IOException {
-        String data = Files.readString(this.dataSourceFile);
-        // Resolve income
-        String sectionName = "[Income]\n";
-        int start = data.indexOf(sectionName);
-        int end = data.indexOf("\n", sectionName.length());
-        if (start != -1 && end != -1) {
-            String incomeString = data.substring(start +sectionName.length(), end);
-            setIncome(BigDecimal.valueOf(Double.parseDouble(incomeString)));
-        }
-
-        // Resolve the purchases for each category separately
-        for (PurchasesCategory category : PurchasesCategory.values()) {
-            setPurchaseList(category);
-            helpList.clearData();        // Always clear the table when loading data from a source
-            sectionName = String.format(this.sectionName, category.name()) + "\n";
-            if ((start = data.indexOf(sectionName)) != -1) {
-                start += sectionName.length();
-                end = data.indexOf("[", start);
-                if (end == -1) {
-                    end = data.length();
-                }
-                helpList.LoadData(data.substring(start, end));
+    public void showUserSearchResults(String title, Report results) {
+        printReport(out -> {
+            out.append(title).append('\n');
+            long count = results.writeTo(out);
+            if (count == 0) {
+                out.append("No purchase was found!\n");
             }
-        }
+            return count;
+        });
     }
 
-    public BigDecimal getBalance() {
-        BigDecimal purchases = getPurchasesTotalSum();
-        return this.income.subtract(purchases);
+    public void showUserBalance(String balance) {
+        System.out.println(balance);
     }
 
-}
-
-abstract class Purchases {
-    protected Map<String, BigDecimal> specializedPurchaseMap;
-
-    public Purchases() {
-        this.specializedPurchaseMap = new HashMap<>();
+    public void showMainMenu() {
+        MainMenu.showMainMenu();
     }
 
-    public void addNewPurchase(String name, BigDecimal price) {
-        this.specializedPurchaseMap.merge(name, price, BigDecimal::add);
+    public void showCategoryMenu(CategoryMenu menu) {
+        menu.show();
     }
 
-    public String getPurchaseContent() {
-        final StringBuilder purchaseContent = new StringBuilder();
-        specializedPurchaseMap.forEach((key, value) ->
-                purchaseContent.append(key).append(" $").append(value.toPlainString()).append("\n"));
-        return purchaseContent.toString();
+    public void showPurchasesSortMenu() {
+        PurchasesSortMenu.showPurchasesSortMenu();
     }
 
-    public String getPurchaseContent(Comparator<Map.Entry<String, BigDecimal>> sorter) {
-        StringBuilder sb = new StringBuilder();
-        specializedPurchaseMap.entrySet()
-                .stream()
-                .sorted(sorter)
-                .forEach(entry -> sb.append(entry.getKey()).append(" $").append(entry.getValue().toPlainString()).append("\n"));
-        return sb.toString();
+    public void showPurchasesSaved() {
+        System.out.println("Purchases were saved!");
     }
 
-    public BigDecimal getPurchasesSum() {
-        return specializedPurchaseMap.values()
-                .stream()
-                .reduce(BigDecimal.valueOf(0.00), BigDecimal::add, BigDecimal::add);
+    public void showPurchasesLoaded() {
+        System.out.println("Purchases were loaded!");
     }
 
-    public void LoadData(String data) {
-        Scanner scanner = new Scanner(data);
-
-        while (scanner.hasNextLine()) {
-            String lineText = scanner.nextLine();
-            int currencyPos = lineText.lastIndexOf("$");
-            if (currencyPos != -1) {
-                String purchaseName = lineText.substring(0, currencyPos).trim();
-                String purchasePrice = lineText.substring(currencyPos+1).trim();
-                try {
-                    addNewPurchase(purchaseName, BigDecimal.valueOf(Double.parseDouble(purchasePrice)).setScale(2, RoundingMode.UP));
-                } catch (NumberFormatException e) {
-                    System.out.println(e.getMessage());
-                    System.out.println("LineText:" + lineText);
-                }
-            }
+    public void printSortedListData(String title, long count, Report sortedList) {
+        if (count == 0) {
+            System.out.println("The purchase list is empty!");
+        } else {
+            printReport(out -> {
+                out.append(title);
+                long written = sortedList.writeTo(out);
+                out.append('\n');
+                return written;
+            });
         }
     }
-
-    public void clearData() {
-        specializedPurchaseMap.clear();
-    }
-}
-
-class Food extends Purchases {
-    public Food() {
-        super();
-    }
-}
-
-class Clothes extends Purchases {
-    public Clothes() {
-        super();
-    }
-}
-
-class Entertainment extends Purchases {
-    public Entertainment() {
-        super();
-    }
-}
-
-class Other extends Purchases {
-    public Other() {
-        super();
-    }
-}
-
-/****************************************************************************/
-
-/* The program should have the following categories:
-   Food, Clothes, Entertainment, Other
- */
-enum PurchasesCategory {
-    Food, Clothes, Entertainment, Other
 }
 
 /* *************************** Menu enums ********************************* */
@@ -606,6 +496,8 @@ enum PurchasesCategory {
  * a list of all expenses and incomes in the order they were made.
  * 4. Balance. Show the balance.
  * 5. Exit. Exit the program. Make this item under number 0, not number 5.
+ * 8. Statistics. Counts and latencies of the actions, see Metrics.
+ * 9. Search purchases. The purchases of all categories whose name starts with the entered text.
  */
 enum MainMenu {
     AddIncome("Add Income", 1),
@@ -615,6 +507,8 @@ enum MainMenu {
     Save("Save", 5),
     Load("Load", 6),
     Analyze("Analyze (Sort)", 7),
+    Stats("Statistics", 8),
+    Search("Search purchases", 9),
     Exit("Exit", 0);
 
     String menuText;
@@ -642,76 +536,12 @@ enum MainMenu {
     }
 }
 
-enum PurchaseTypesMenuToAddPurchase {
-    Food("Food", 1),
-    Clothes("Clothes", 2),
-    Entertainment("Entertainment", 3),
-    Other("Other", 4),
-    Back("Back", 5);
-
-    String menuText;
-    int menuInputKey;
-
-    PurchaseTypesMenuToAddPurchase(String menuText, int menuKeyNumber) {
-        this.menuText = menuText;
-        this.menuInputKey = menuKeyNumber;
-    }
-
-    public static Optional<PurchaseTypesMenuToAddPurchase> getMenuItem(int inputKey) {
-        for (PurchaseTypesMenuToAddPurchase item : PurchaseTypesMenuToAddPurchase.values()) {
-            if (item.menuInputKey == inputKey) {
-                return Optional.of(item);
-            }
-        }
-        return Optional.empty();
-    }
-
-    public static void showPurchaseTypesMenuToAddPurchase() {
-        System.out.println("Choose the type of purchases");
-        for (PurchaseTypesMenuToAddPurchase item : PurchaseTypesMenuToAddPurchase.values()) {
-            System.out.format("%d) %s\n", item.menuInputKey, item.menuText);
-        }
-    }
-}
-
-enum PurchaseTypesMenuToShowPurchase {
-    Food("Food", 1),
-    Clothes("Clothes", 2),
-    Entertainment("Entertainment", 3),
-    Other("Other", 4),
-    All("All", 5),
-    Back("Back", 6);
-
-    String menuText;
-    int menuInputKey;
-
-    PurchaseTypesMenuToShowPurchase(String menuText, int menuKeyNumber) {
-        this.menuText = menuText;
-        this.menuInputKey = menuKeyNumber;
-    }
-
-    public static Optional<PurchaseTypesMenuToShowPurchase> getMenuItem(int inputKey) {
-        for (PurchaseTypesMenuToShowPurchase item : PurchaseTypesMenuToShowPurchase.values()) {
-            if (item.menuInputKey == inputKey) {
-                return Optional.of(item);
-            }
-        }
-        return Optional.empty();
-    }
-
-    public static void showPurchaseTypesMenuToShowPurchase() {
-        System.out.println("Choose your action");
-        for (PurchaseTypesMenuToShowPurchase item : PurchaseTypesMenuToShowPurchase.values()) {
-            System.out.format("%d) %s\n", item.menuInputKey, item.menuText);
-        }
-    }
-}
-
 enum PurchasesSortMenu{
     SortALL("Sort all purchases", 1),
     SortByType("Sort by Type", 2),
     SortCertainType("Sort certain type", 3),
-    Back("Back", 4);
+    Back("Back", 4),
+    DateRange("Spending by date range", 5);
 
     String menuText;
     int menuInputKey;
@@ -738,34 +568,45 @@ enum PurchasesSortMenu{
     }
 }
 
-enum PurchaseTypesMenuToSort {
-    Food("Food", 1),
-    Clothes("Clothes", 2),
-    Entertainment("Entertainment", 3),
-    Other("Other", 4);
+/**
+ * Menu of all categories, generated from the CategoryRegistry: the categories are numbered
+ * from 1 in id order and the extra items (All, Back) follow them.
+ */
+class CategoryMenu {
+    private final String title;
+    private final String[] categories;
+    private final String[] extraItems;
 
-    String menuText;
-    int menuInputKey;
+    CategoryMenu(String title, String[] categories, String... extraItems) {
+        this.title = title;
+        this.categories = categories;
+        this.extraItems = extraItems;
+    }
 
-    PurchaseTypesMenuToSort(String menuText, int menuKeyNumber) {
-        this.menuText = menuText;
-        this.menuInputKey = menuKeyNumber;
+    /**
+     * @return the category id of the key, -1 if it is not a category
+     */
+    public int getCategory(int inputKey) {
+        return inputKey >= 1 && inputKey <= categories.length ? inputKey - 1 : -1;
     }
 
-    public static Optional<PurchaseTypesMenuToSort> getMenuItem(int inputKey) {
-        for (PurchaseTypesMenuToSort item : PurchaseTypesMenuToSort.values()) {
-            if (item.menuInputKey == inputKey) {
-                return Optional.of(item);
-            }
-        }
-        return Optional.empty();
+    /**
+     * @return the extra item of the key, null if it is not an extra item
+     */
+    public String getExtraItem(int inputKey) {
+        int item = inputKey - categories.length - 1;
+        return item >= 0 && item < extraItems.length ? extraItems[item] : null;
     }
 
-    public static void showPurchaseTypesMenuToSort() {
-        System.out.println("Choose the type of purchases");
-        for (PurchaseTypesMenuToSort item : PurchaseTypesMenuToSort.values()) {
-            System.out.format("%d) %s\n", item.menuInputKey, item.menuText);
+    public void show() {
+        final StringBuilder sb = new StringBuilder(title).append('\n');
+        for (int i = 0; i < categories.length; i++) {
+            sb.append(i + 1).append(") ").append(categories[i]).append('\n');
+        }
+        for (int i = 0; i < extraItems.length; i++) {
+            sb.append(categories.length + i + 1).append(") ").append(extraItems[i]).append('\n');
         }
+        System.out.print(sb);
     }
 }
 
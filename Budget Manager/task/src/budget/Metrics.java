@@ -0,0 +1,224 @@
+package budget;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Counts and latency histograms of the DataManager operations. The histograms have one
+ * bucket per power of two nanoseconds, so the percentiles are upper bounds within a factor
+ * of two. Recording is a few LongAdder increments; a disabled instance does not even read
+ * the clock. The system property "budget.metrics" set to false disables them.
+ */
+class Metrics implements MetricsMXBean {
+    static final Metrics DISABLED = new Metrics(false);
+    static final String OBJECT_NAME = "budget:type=Metrics";
+
+    enum Operation {
+        ADD, INCOME, BALANCE, SHOW, ANALYZE, SEARCH, SAVE, LOAD, IMPORT, PRINT;
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final boolean enabled;
+    private final OperationStats[] stats = new OperationStats[Operation.values().length];
+
+    Metrics(boolean enabled) {
+        this.enabled = enabled;
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new OperationStats();
+        }
+    }
+
+    static Metrics fromSystemProperties() {
+        return Boolean.parseBoolean(System.getProperty("budget.metrics", "true")) ? new Metrics(true) : DISABLED;
+    }
+
+    /**
+     * @return the start time to pass to record
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    public void record(Operation operation, long start) {
+        if (enabled) {
+            stats[operation.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Publishes the metrics on the platform MBean server under OBJECT_NAME
+     */
+    public void register() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void unregister() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public Map<String, Long> getCounts() {
+        final Map<String, Long> counts = new LinkedHashMap<>();
+        for (Operation operation : Operation.values()) {
+            counts.put(operation.label(), stats[operation.ordinal()].count.sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Double> getMeanMillis() {
+        return millis(OperationStats::meanNanos);
+    }
+
+    @Override
+    public Map<String, Double> getP50Millis() {
+        return millis(stats -> stats.percentileNanos(0.50));
+    }
+
+    @Override
+    public Map<String, Double> getP99Millis() {
+        return millis(stats -> stats.percentileNanos(0.99));
+    }
+
+    @Override
+    public Map<String, Double> getMaxMillis() {
+        return millis(stats -> stats.max.get());
+    }
+
+    private Map<String, Double> millis(ToDoubleFunction<OperationStats> nanos) {
+        final Map<String, Double> millis = new LinkedHashMap<>();
+        for (Operation operation : Operation.values()) {
+            millis.put(operation.label(), nanos.applyAsDouble(stats[operation.ordinal()]) / 1e6);
+        }
+        return millis;
+    }
+
+    @Override
+    public void reset() {
+        for (OperationStats operationStats : stats) {
+            operationStats.reset();
+        }
+    }
+
+    /**
+     * Writes one line per operation that was recorded at least once
+     * @return the number of lines
+     */
+    public long writeTo(Appendable out) throws IOException {
+        if (!enabled) {
+            out.append("Statistics are disabled\n");
+            return 0;
+        }
+        out.append(String.format("%-8s %10s %10s %10s %10s %10s%n", "Action", "Count", "Mean ms", "P50 ms", "P99 ms", "Max ms"));
+        long lines = 0;
+        for (Operation operation : Operation.values()) {
+            OperationStats operationStats = stats[operation.ordinal()];
+            long count = operationStats.count.sum();
+            if (count == 0) {
+                continue;
+            }
+            out.append(String.format("%-8s %10d %10.3f %10.3f %10.3f %10.3f%n", operation.label(), count,
+                    operationStats.meanNanos() / 1e6, operationStats.percentileNanos(0.50) / 1e6,
+                    operationStats.percentileNanos(0.99) / 1e6, operationStats.max.get() / 1e6));
+            lines++;
+        }
+        if (lines == 0) {
+            out.append("No actions yet\n");
+        }
+        return lines;
+    }
+
+    private static class OperationStats {
+        private static final int BUCKETS = 64;
+
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAccumulator max = new LongAccumulator(Math::max, 0);
+        final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+        OperationStats() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Bucket i holds the latencies below 2^i nanoseconds (and at least 2^(i-1))
+         */
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            max.accumulate(nanos);
+            buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos))].increment();
+        }
+
+        double meanNanos() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) totalNanos.sum() / n;
+        }
+
+        /**
+         * @return the upper bound of the bucket holding the percentile
+         */
+        double percentileNanos(double percentile) {
+            long n = count.sum();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile * n);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i].sum();
+                if (seen >= rank) {
+                    return Math.min(Math.pow(2, i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        void reset() {
+            count.reset();
+            totalNanos.reset();
+            max.reset();
+            for (LongAdder bucket : buckets) {
+                bucket.reset();
+            }
+        }
+    }
+}
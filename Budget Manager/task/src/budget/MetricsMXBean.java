@@ -0,0 +1,22 @@
+package budget;
+
+import java.util.Map;
+
+/**
+ * JMX view of the Metrics of a DataManager; every map is keyed by the operation name
+ */
+public interface MetricsMXBean {
+    boolean isEnabled();
+
+    Map<String, Long> getCounts();
+
+    Map<String, Double> getMeanMillis();
+
+    Map<String, Double> getP50Millis();
+
+    Map<String, Double> getP99Millis();
+
+    Map<String, Double> getMaxMillis();
+
+    void reset();
+}
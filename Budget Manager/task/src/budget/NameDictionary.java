@@ -0,0 +1,349 @@
+package budget;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Every distinct purchase name stored once, under a dense int id. DataManager shares one
+ * dictionary between all its category stores and its TransactionLog, so "Milk" bought a
+ * million times in four categories is one dictionary entry and a million ints.
+ *
+ * The names are not kept as String objects but as bytes in one growing arena: names whose
+ * characters all fit in Latin-1 (nearly all of them) take one byte per character, the others
+ * two (UTF-16). With the start of every name in an int column and the open addressing table
+ * (like the one of PurchaseMap) a name costs its characters plus about 12 bytes, where a
+ * String costs about 56 bytes plus its characters. The columns are of the ColumnStorage
+ * of the dictionary, which the maps and logs using it follow.
+ *
+ * Only interning a new name locks. A name is written to the arena and the table before the
+ * volatile size counts it, so lookups read the size first and trust the ids below it; an id
+ * at or above it ends the lock-free probe and the lookup is repeated under the lock. The
+ * arena and the table only grow into new columns (off the heap sharing the full chunks, whose
+ * written bytes never change again), so nameOf and compare can resolve any id published to
+ * them (through a lock or a volatile write) without locking. Names are never removed.
+ */
+class NameDictionary {
+    private static final int MIN_CAPACITY = 64;
+    /** set in the start of names stored as UTF-16 */
+    private static final int UTF16 = 1 << 31;
+    private static final int MAX_ARENA_SIZE = Integer.MAX_VALUE - 8;
+
+    /**
+     * The bytes and the starts of the names, replaced as a whole when they grow.
+     * A name ends where the next one starts, starts[size] is the end of the last name.
+     */
+    private static final class Arena {
+        final ByteColumn bytes;
+        final IntColumn starts;
+
+        Arena(ByteColumn bytes, IntColumn starts) {
+            this.bytes = bytes;
+            this.starts = starts;
+        }
+
+        int start(int id) {
+            return starts.get(id) & ~UTF16;
+        }
+
+        boolean isUtf16(int id) {
+            return (starts.get(id) & UTF16) != 0;
+        }
+
+        int length(int id) {
+            final int bytes = (starts.get(id + 1) & ~UTF16) - start(id);
+            return isUtf16(id) ? bytes / 2 : bytes;
+        }
+
+        char charAt(int id, int index) {
+            final int start = start(id);
+            return isUtf16(id) ? utf16At(start, index) : (char) (bytes.get(start + index) & 0xFF);
+        }
+
+        char utf16At(int start, int index) {
+            final int at = start + index * 2;
+            return (char) ((bytes.get(at) & 0xFF) << 8 | (bytes.get(at + 1) & 0xFF));
+        }
+    }
+
+    private final ColumnStorage columnStorage;
+    /** returned by lookup for a name that may be interned right now */
+    private static final int UNPUBLISHED = -2;
+
+    private volatile Arena arena;
+    private volatile int size;
+    private int arenaSize;
+    /** id + 1 per slot, 0 marks a free slot */
+    private volatile IntColumn table;
+
+    NameDictionary() {
+        this(ColumnStorage.HEAP);
+    }
+
+    NameDictionary(ColumnStorage columnStorage) {
+        this.columnStorage = columnStorage;
+        this.arena = new Arena(columnStorage.bytes(MIN_CAPACITY * 16), columnStorage.ints(MIN_CAPACITY + 1));
+        this.table = columnStorage.ints(MIN_CAPACITY * 2);
+    }
+
+    public ColumnStorage columnStorage() {
+        return columnStorage;
+    }
+
+    private static int spread(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int slot(String name) {
+        final Arena arena = this.arena;
+        final IntColumn table = this.table;
+        final int mask = table.capacity() - 1;
+        int index = spread(name.hashCode()) & mask;
+        int entry;
+        while ((entry = table.get(index)) != 0 && !matches(arena, entry - 1, name)) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    /**
+     * The lock-free probe: only ids below the size read first are compared
+     * @return the id, -1 if the name was not interned, UNPUBLISHED if a name being interned is in the way
+     */
+    private int lookup(String name) {
+        final int published = size;
+        final Arena arena = this.arena;
+        final IntColumn table = this.table;
+        final int mask = table.capacity() - 1;
+        int index = spread(name.hashCode()) & mask;
+        int entry;
+        while ((entry = table.get(index)) != 0) {
+            if (entry > published) {
+                return UNPUBLISHED;
+            }
+            if (matches(arena, entry - 1, name)) {
+                return entry - 1;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static boolean matches(Arena arena, int id, String name) {
+        if (arena.length(id) != name.length()) {
+            return false;
+        }
+        final int start = arena.start(id);
+        if (!arena.isUtf16(id)) {
+            final ByteColumn bytes = arena.bytes;
+            for (int i = 0; i < name.length(); i++) {
+                if ((bytes.get(start + i) & 0xFF) != name.charAt(i)) {
+                    return false;
+                }
+            }
+        } else {
+            for (int i = 0; i < name.length(); i++) {
+                if (arena.utf16At(start, i) != name.charAt(i)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the same hash as String.hashCode of the name
+     */
+    private static int hashOf(Arena arena, int id) {
+        int hash = 0;
+        for (int i = 0, length = arena.length(id); i < length; i++) {
+            hash = 31 * hash + arena.charAt(id, i);
+        }
+        return hash;
+    }
+
+    private static boolean isLatin1(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) > 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the id of the name, a new one if it was not interned yet
+     */
+    public int intern(String name) {
+        final int id = lookup(name);
+        return id >= 0 ? id : internLocked(name);
+    }
+
+    private synchronized int internLocked(String name) {
+        final int index = slot(name);
+        final int entry = table.get(index);
+        if (entry != 0) {
+            return entry - 1;
+        }
+        final boolean latin1 = isLatin1(name);
+        final int byteLength = latin1 ? name.length() : name.length() * 2;
+        Arena arena = this.arena;
+        if (size + 1 == arena.starts.capacity() || byteLength > arena.bytes.capacity() - arenaSize) {
+            arena = grow(arena, byteLength);
+        }
+        final int id = size;
+        final ByteColumn bytes = arena.bytes;
+        if (latin1) {
+            for (int i = 0; i < name.length(); i++) {
+                bytes.set(arenaSize + i, (byte) name.charAt(i));
+            }
+        } else {
+            for (int i = 0; i < name.length(); i++) {     // char by char, a charset would replace lone surrogates
+                char c = name.charAt(i);
+                bytes.set(arenaSize + i * 2, (byte) (c >>> 8));
+                bytes.set(arenaSize + i * 2 + 1, (byte) c);
+            }
+        }
+        arena.starts.set(id, latin1 ? arenaSize : arenaSize | UTF16);
+        arenaSize += byteLength;
+        arena.starts.set(id + 1, arenaSize);
+        table.set(index, id + 1);
+        size = id + 1;                      // publishes the name to lookup
+        if (size > table.capacity() / 4 * 3) {
+            rehash(table.capacity() * 2);
+        }
+        return id;
+    }
+
+    private Arena grow(Arena arena, int byteLength) {
+        if (arenaSize + (long) byteLength > MAX_ARENA_SIZE) {
+            throw new IllegalStateException("Name dictionary is full");
+        }
+        long bytes = arena.bytes.capacity();
+        while (bytes - arenaSize < byteLength) {
+            bytes += bytes >> 1;
+        }
+        final int capacity = arena.starts.capacity() - 1;
+        final Arena grown = new Arena(
+                bytes > arena.bytes.capacity() ? arena.bytes.grow((int) Math.min(bytes, MAX_ARENA_SIZE)) : arena.bytes,
+                size == capacity ? arena.starts.grow(capacity + (capacity >> 1) + 1) : arena.starts);
+        this.arena = grown;
+        return grown;
+    }
+
+    private void rehash(int capacity) {
+        final Arena arena = this.arena;
+        final IntColumn table = columnStorage.ints(capacity);
+        final int mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int index = spread(hashOf(arena, id)) & mask;
+            while (table.get(index) != 0) {
+                index = (index + 1) & mask;
+            }
+            table.set(index, id + 1);
+        }
+        this.table = table;
+    }
+
+    /**
+     * @return the id of the name, -1 if it was never interned
+     */
+    public int find(String name) {
+        final int id = lookup(name);
+        if (id != UNPUBLISHED) {
+            return id;
+        }
+        synchronized (this) {
+            return table.get(slot(name)) - 1;
+        }
+    }
+
+    /**
+     * @return a new String of the name
+     */
+    public String nameOf(int id) {
+        final Arena arena = this.arena;
+        final int start = arena.start(id);
+        final int length = arena.length(id);
+        if (!arena.isUtf16(id)) {
+            final byte[] bytes = new byte[length];
+            arena.bytes.get(start, bytes, 0, length);
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = arena.utf16At(start, i);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Compares two names like String.compareTo without creating the Strings
+     */
+    public int compare(int a, int b) {
+        if (a == b) {
+            return 0;
+        }
+        final Arena arena = this.arena;
+        final int lengthA = arena.length(a);
+        final int lengthB = arena.length(b);
+        final int common = Math.min(lengthA, lengthB);
+        if (!arena.isUtf16(a) && !arena.isUtf16(b)) {
+            final ByteColumn bytes = arena.bytes;
+            final int startA = arena.start(a);
+            final int startB = arena.start(b);
+            for (int i = 0; i < common; i++) {
+                int byteA = bytes.get(startA + i) & 0xFF;
+                int byteB = bytes.get(startB + i) & 0xFF;
+                if (byteA != byteB) {
+                    return byteA - byteB;
+                }
+            }
+        } else {
+            for (int i = 0; i < common; i++) {
+                char charA = arena.charAt(a, i);
+                char charB = arena.charAt(b, i);
+                if (charA != charB) {
+                    return charA - charB;
+                }
+            }
+        }
+        return lengthA - lengthB;
+    }
+
+    /**
+     * Compares the name with the prefix like String.compareTo, but only up to the length of
+     * the prefix: 0 if the name starts with it. The names starting with a prefix are
+     * therefore one run in the String order of the names.
+     */
+    public int comparePrefix(int id, String prefix) {
+        final Arena arena = this.arena;
+        final int length = arena.length(id);
+        final int common = Math.min(length, prefix.length());
+        for (int i = 0; i < common; i++) {
+            char c = arena.charAt(id, i);
+            if (c != prefix.charAt(i)) {
+                return c - prefix.charAt(i);
+            }
+        }
+        return length >= prefix.length() ? 0 : length - prefix.length();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the bytes held by the arena, the starts and the table (allocated, not used)
+     */
+    public synchronized long footprintBytes() {
+        final Arena arena = this.arena;
+        return arena.bytes.capacity() + 4L * arena.starts.capacity() + 4L * table.capacity();
+    }
+
+    /**
+     * @return the bytes of the names in the arena
+     */
+    public synchronized long nameBytes() {
+        return arenaSize;
+    }
+}
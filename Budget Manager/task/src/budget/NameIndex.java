@@ -0,0 +1,230 @@
+package budget;
+
+import java.util.Arrays;
+
+/**
+ * Entries of a PurchaseMap ordered by name, for the search by name prefix. Like PriceIndex
+ * it is a treap over the entry ids held in int columns (without the subtree sizes); an entry
+ * is inserted once when it is added, merging a purchase into it does not change its name.
+ * The names starting with a prefix are one run of the order, so a search costs O(log n) to
+ * find the first one plus O(1) per match, however many names the map holds.
+ */
+class NameIndex {
+    private static final int NIL = -1;
+
+    private final PurchaseMap purchases;
+    private final ColumnStorage columnStorage;
+    private IntColumn left;
+    private IntColumn right;
+    private IntColumn priority;
+    private int root = NIL;
+    private int random = 0x6C078965;
+
+    NameIndex(PurchaseMap purchases) {
+        this.purchases = purchases;
+        this.columnStorage = purchases.dictionary().columnStorage();
+        left = columnStorage.ints(16);
+        right = columnStorage.ints(16);
+        priority = columnStorage.ints(16);
+    }
+
+    private int nextPriority() {
+        random ^= random << 13;
+        random ^= random >>> 17;
+        random ^= random << 5;
+        return random;
+    }
+
+    private void ensureCapacity(int id) {
+        if (id >= left.capacity()) {
+            int capacity = Math.max(id + 1, left.capacity() * 2);
+            left = left.grow(capacity);
+            right = right.grow(capacity);
+            priority = priority.grow(capacity);
+        }
+    }
+
+    /**
+     * Adds a new entry of the map
+     */
+    public void insert(int id) {
+        ensureCapacity(id);
+        left.set(id, NIL);
+        right.set(id, NIL);
+        priority.set(id, nextPriority());
+        root = insert(root, id);
+    }
+
+    private int insert(int node, int id) {
+        if (node == NIL) {
+            return id;
+        }
+        if (purchases.compareKeys(id, node) < 0) {
+            left.set(node, insert(left.get(node), id));
+            if (priority.get(left.get(node)) > priority.get(node)) {
+                int top = left.get(node);
+                left.set(node, right.get(top));
+                right.set(top, node);
+                return top;
+            }
+        } else {
+            right.set(node, insert(right.get(node), id));
+            if (priority.get(right.get(node)) > priority.get(node)) {
+                int top = right.get(node);
+                right.set(node, left.get(top));
+                left.set(top, node);
+                return top;
+            }
+        }
+        return node;
+    }
+
+    public void clear() {
+        root = NIL;
+    }
+
+    /**
+     * Rebuilds the index from all entries of the map after a bulk load
+     */
+    public void rebuild() {
+        rebuild(null);
+    }
+
+    /**
+     * Rebuilds from the ids in name order that order() returned before. The sort only checks
+     * the runs of an order that is still right, so that takes linear time; a wrong one is sorted.
+     * @param order the ids in name order, sorted in place; null or not a permutation of the ids if not known
+     */
+    public void rebuild(int[] order) {
+        final int count = purchases.size();
+        ensureCapacity(count - 1);
+        int[] ids = isPermutation(order, count) ? order : new int[count];
+        if (ids != order) {
+            for (int id = 0; id < count; id++) {
+                ids[id] = id;
+            }
+        }
+        sort(ids, new int[count], 0, count);
+        root = build(ids, 0, count, 0);
+    }
+
+    private static boolean isPermutation(int[] order, int count) {
+        if (order == null || order.length != count) {
+            return false;
+        }
+        boolean[] seen = new boolean[count];
+        for (int id : order) {
+            if (id < 0 || id >= count || seen[id]) {
+                return false;
+            }
+            seen[id] = true;
+        }
+        return true;
+    }
+
+    /**
+     * @return the ids in name order, see rebuild(int[])
+     */
+    public int[] order() {
+        int[] ids = new int[purchases.size()];
+        int count = 0;
+        for (Cursor cursor = cursor(""); cursor.hasNext(); ) {
+            ids[count++] = cursor.next();
+        }
+        return ids;
+    }
+
+    private void sort(int[] ids, int[] buffer, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        sort(ids, buffer, from, middle);
+        sort(ids, buffer, middle, to);
+        if (purchases.compareKeys(ids[middle - 1], ids[middle]) <= 0) {
+            return;
+        }
+        System.arraycopy(ids, from, buffer, from, to - from);
+        for (int i = from, l = from, r = middle; i < to; i++) {
+            if (r >= to || (l < middle && purchases.compareKeys(buffer[l], buffer[r]) <= 0)) {
+                ids[i] = buffer[l++];
+            } else {
+                ids[i] = buffer[r++];
+            }
+        }
+    }
+
+    /**
+     * The priorities fall with the depth, so the balanced tree is a valid treap
+     */
+    private int build(int[] ids, int from, int to, int depth) {
+        if (from >= to) {
+            return NIL;
+        }
+        int middle = (from + to) >>> 1;
+        int node = ids[middle];
+        priority.set(node, Integer.MAX_VALUE - (depth << 24) - (nextPriority() & 0xFFFFFF));
+        left.set(node, build(ids, from, middle, depth + 1));
+        right.set(node, build(ids, middle + 1, to, depth + 1));
+        return node;
+    }
+
+    public void copyFrom(NameIndex other) {
+        left = other.left.copy();
+        right = other.right.copy();
+        priority = other.priority.copy();
+        root = other.root;
+    }
+
+    /**
+     * @return a cursor over the ids of the entries whose name starts with the prefix, in name order
+     */
+    public Cursor cursor(String prefix) {
+        return new Cursor(prefix);
+    }
+
+    /**
+     * In-order walk from the first name not below the prefix, with an explicit stack of the
+     * pending ancestors; it ends at the first name that does not start with the prefix
+     */
+    class Cursor {
+        private final String prefix;
+        private int[] stack = new int[64];
+        private int depth;
+
+        private Cursor(String prefix) {
+            this.prefix = prefix;
+            int node = root;
+            while (node != NIL) {
+                if (purchases.compareKeyPrefix(node, prefix) >= 0) {
+                    push(node);
+                    node = left.get(node);
+                } else {
+                    node = right.get(node);
+                }
+            }
+        }
+
+        private void push(int node) {
+            if (depth == stack.length) {
+                stack = Arrays.copyOf(stack, depth * 2);
+            }
+            stack[depth++] = node;
+        }
+
+        public boolean hasNext() {
+            return depth > 0 && purchases.compareKeyPrefix(stack[depth - 1], prefix) == 0;
+        }
+
+        /**
+         * @return the entry id of the next purchase
+         */
+        public int next() {
+            int node = stack[--depth];
+            for (int child = right.get(node); child != NIL; child = left.get(child)) {
+                push(child);
+            }
+            return node;
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package budget;
+
+import java.util.Arrays;
+
+/**
+ * Entries of a PurchaseMap ordered by price descending, equal prices by name descending
+ * (the order of the Analyze menu). It is a treap over the entry ids held in int columns,
+ * kept up to date on every add in O(log n). The subtree sizes make every rank reachable in
+ * O(log n), so the top N or a page of N entries costs O(N + log n) instead of a full sort.
+ */
+class PriceIndex {
+    private static final int NIL = -1;
+
+    private final PurchaseMap purchases;
+    private final ColumnStorage columnStorage;
+    private IntColumn left;
+    private IntColumn right;
+    private IntColumn priority;
+    private IntColumn size;
+    private int root = NIL;
+    private int random = 0x2545F491;
+
+    /**
+     * The tree is kept in columns of the ColumnStorage of the map
+     */
+    PriceIndex(PurchaseMap purchases) {
+        this.purchases = purchases;
+        this.columnStorage = purchases.dictionary().columnStorage();
+        allocate(16);
+    }
+
+    /**
+     * A frozen copy of the tree for cursors; it is never inserted into (the prices of the map
+     * may change meanwhile)
+     */
+    PriceIndex(PriceIndex other) {
+        this.purchases = other.purchases;
+        this.columnStorage = other.columnStorage;
+        copyFrom(other);
+    }
+
+    private void allocate(int capacity) {
+        left = columnStorage.ints(capacity);
+        right = columnStorage.ints(capacity);
+        priority = columnStorage.ints(capacity);
+        size = columnStorage.ints(capacity);
+    }
+
+    /**
+     * @return true if entry a comes before entry b
+     */
+    private boolean before(int a, int b) {
+        long centsA = purchases.valueAt(a);
+        long centsB = purchases.valueAt(b);
+        if (centsA != centsB) {
+            return centsA > centsB;
+        }
+        return purchases.compareKeys(a, b) > 0;
+    }
+
+    private int nextPriority() {
+        random ^= random << 13;
+        random ^= random >>> 17;
+        random ^= random << 5;
+        return random;
+    }
+
+    private void ensureCapacity(int id) {
+        if (id >= left.capacity()) {
+            int capacity = Math.max(id + 1, left.capacity() * 2);
+            left = left.grow(capacity);
+            right = right.grow(capacity);
+            priority = priority.grow(capacity);
+            size = size.grow(capacity);
+        }
+    }
+
+    private int sizeOf(int node) {
+        return node == NIL ? 0 : size.get(node);
+    }
+
+    private void update(int node) {
+        size.set(node, 1 + sizeOf(left.get(node)) + sizeOf(right.get(node)));
+    }
+
+    public int size() {
+        return sizeOf(root);
+    }
+
+    /**
+     * Adds the entry with its current price
+     */
+    public void insert(int id) {
+        ensureCapacity(id);
+        left.set(id, NIL);
+        right.set(id, NIL);
+        size.set(id, 1);
+        priority.set(id, nextPriority());
+        root = insert(root, id);
+    }
+
+    private int insert(int node, int id) {
+        if (node == NIL) {
+            return id;
+        }
+        if (before(id, node)) {
+            left.set(node, insert(left.get(node), id));
+            if (priority.get(left.get(node)) > priority.get(node)) {
+                return rotateRight(node);
+            }
+        } else {
+            right.set(node, insert(right.get(node), id));
+            if (priority.get(right.get(node)) > priority.get(node)) {
+                return rotateLeft(node);
+            }
+        }
+        update(node);
+        return node;
+    }
+
+    /**
+     * Adds to the price of the entry in the map and moves the entry to its new rank
+     */
+    public void addToPrice(int id, long priceCents) {
+        remove(id);
+        purchases.addTo(id, priceCents);
+        insert(id);
+    }
+
+    /**
+     * Removes the entry; it has to be called before the price of the entry changes (addToPrice
+     * does both), the tree is searched by the price
+     * @throws IllegalStateException if the entry is not found, e.g. its price changed
+     */
+    public void remove(int id) {
+        root = remove(root, id);
+    }
+
+    private int remove(int node, int id) {
+        if (node == NIL) {
+            throw new IllegalStateException("Entry " + id + " is not in the price index");
+        }
+        if (node == id) {
+            if (left.get(node) == NIL) {
+                return right.get(node);
+            }
+            if (right.get(node) == NIL) {
+                return left.get(node);
+            }
+            int top;
+            if (priority.get(left.get(node)) > priority.get(right.get(node))) {
+                top = rotateRight(node);
+                right.set(top, remove(right.get(top), id));
+            } else {
+                top = rotateLeft(node);
+                left.set(top, remove(left.get(top), id));
+            }
+            update(top);
+            return top;
+        }
+        if (before(id, node)) {
+            left.set(node, remove(left.get(node), id));
+        } else {
+            right.set(node, remove(right.get(node), id));
+        }
+        update(node);
+        return node;
+    }
+
+    private int rotateRight(int node) {
+        int top = left.get(node);
+        left.set(node, right.get(top));
+        right.set(top, node);
+        update(node);
+        update(top);
+        return top;
+    }
+
+    private int rotateLeft(int node) {
+        int top = right.get(node);
+        right.set(node, left.get(top));
+        left.set(top, node);
+        update(node);
+        update(top);
+        return top;
+    }
+
+    public void clear() {
+        root = NIL;
+    }
+
+    /**
+     * Rebuilds the index from all entries of the map after a bulk load:
+     * one sort of the ids and a balanced tree built from the sorted ids in O(n)
+     */
+    public void rebuild() {
+        rebuild(null);
+    }
+
+    /**
+     * Rebuilds from the ids in price order that order() returned before. The sort only checks
+     * the runs of an order that is still right, so that takes linear time; a wrong one is sorted.
+     * @param order the ids in price order, sorted in place; null or not a permutation of the ids if not known
+     */
+    public void rebuild(int[] order) {
+        final int count = purchases.size();
+        ensureCapacity(count - 1);
+        int[] ids = isPermutation(order, count) ? order : new int[count];
+        if (ids != order) {
+            for (int id = 0; id < count; id++) {
+                ids[id] = id;
+            }
+        }
+        sort(ids, new int[count], 0, count);
+        root = build(ids, 0, count, 0);
+    }
+
+    private static boolean isPermutation(int[] order, int count) {
+        if (order == null || order.length != count) {
+            return false;
+        }
+        boolean[] seen = new boolean[count];
+        for (int id : order) {
+            if (id < 0 || id >= count || seen[id]) {
+                return false;
+            }
+            seen[id] = true;
+        }
+        return true;
+    }
+
+    /**
+     * @return the ids in price order, see rebuild(int[])
+     */
+    public int[] order() {
+        int[] ids = new int[purchases.size()];
+        int count = 0;
+        for (Cursor cursor = cursor(0); cursor.hasNext(); ) {
+            ids[count++] = cursor.next();
+        }
+        return ids;
+    }
+
+    private void sort(int[] ids, int[] buffer, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        sort(ids, buffer, from, middle);
+        sort(ids, buffer, middle, to);
+        if (!before(ids[middle], ids[middle - 1])) {
+            return;
+        }
+        System.arraycopy(ids, from, buffer, from, to - from);
+        for (int i = from, l = from, r = middle; i < to; i++) {
+            if (r >= to || (l < middle && !before(buffer[r], buffer[l]))) {
+                ids[i] = buffer[l++];
+            } else {
+                ids[i] = buffer[r++];
+            }
+        }
+    }
+
+    /**
+     * The priorities fall with the depth, so the balanced tree is a valid treap
+     */
+    private int build(int[] ids, int from, int to, int depth) {
+        if (from >= to) {
+            return NIL;
+        }
+        int middle = (from + to) >>> 1;
+        int node = ids[middle];
+        priority.set(node, Integer.MAX_VALUE - (depth << 24) - (nextPriority() & 0xFFFFFF));
+        left.set(node, build(ids, from, middle, depth + 1));
+        right.set(node, build(ids, middle + 1, to, depth + 1));
+        update(node);
+        return node;
+    }
+
+    public void copyFrom(PriceIndex other) {
+        left = other.left.copy();
+        right = other.right.copy();
+        priority = other.priority.copy();
+        size = other.size.copy();
+        root = other.root;
+    }
+
+    /**
+     * @return a cursor over the entry ids in price order, starting at the given rank
+     */
+    public Cursor cursor(int offset) {
+        return new Cursor(offset);
+    }
+
+    /**
+     * In-order walk with an explicit stack of the pending ancestors
+     */
+    class Cursor {
+        private int[] stack = new int[64];
+        private int depth;
+
+        private Cursor(int offset) {
+            int node = root;
+            while (node != NIL) {
+                int leftSize = sizeOf(left.get(node));
+                if (offset < leftSize) {
+                    push(node);
+                    node = left.get(node);
+                } else if (offset == leftSize) {
+                    push(node);
+                    break;
+                } else {
+                    offset -= leftSize + 1;
+                    node = right.get(node);
+                }
+            }
+        }
+
+        private void push(int node) {
+            if (depth == stack.length) {
+                stack = Arrays.copyOf(stack, depth * 2);
+            }
+            stack[depth++] = node;
+        }
+
+        public boolean hasNext() {
+            return depth > 0;
+        }
+
+        /**
+         * @return the entry id of the next purchase
+         */
+        public int next() {
+            int node = stack[--depth];
+            for (int child = right.get(node); child != NIL; child = left.get(child)) {
+                push(child);
+            }
+            return node;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package budget;
+
+/**
+ * Hash map from purchase name to a price in cents without an object per entry.
+ * The names are ids of a NameDictionary, which may be shared by many maps.
+ * The entries are stored densely in two parallel arrays (name ids and cents) and get a stable
+ * entry id, their position in these arrays; an open addressing table (linear probing,
+ * power of two capacity) maps the name ids to the entry ids. Merging the price of an already
+ * known name does not allocate at all.
+ * The arrays are columns of the ColumnStorage of the dictionary.
+ */
+class PurchaseMap {
+    private static final int MIN_CAPACITY = 16;
+
+    private final NameDictionary dictionary;
+    private final ColumnStorage columnStorage;
+    private IntColumn names;
+    private LongColumn cents;
+    private int size;
+    /** entry id + 1 per slot, 0 marks a free slot */
+    private IntColumn table;
+    private int resizeThreshold;
+
+    /**
+     * A map with a dictionary of its own
+     */
+    PurchaseMap() {
+        this(new NameDictionary());
+    }
+
+    PurchaseMap(NameDictionary dictionary) {
+        this.dictionary = dictionary;
+        this.columnStorage = dictionary.columnStorage();
+        names = columnStorage.ints(MIN_CAPACITY);
+        cents = columnStorage.longs(MIN_CAPACITY);
+        allocateTable(MIN_CAPACITY * 2);
+    }
+
+    private void allocateTable(int capacity) {
+        table = columnStorage.ints(capacity);
+        resizeThreshold = capacity / 4 * 3;
+    }
+
+    private static int hash(int nameId) {
+        int h = nameId * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int slot(int nameId) {
+        final int mask = table.capacity() - 1;
+        int index = hash(nameId) & mask;
+        int entry;
+        while ((entry = table.get(index)) != 0 && names.get(entry - 1) != nameId) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    /**
+     * @return the entry id of the name or -1 when it is unknown
+     */
+    public int find(String name) {
+        final int nameId = dictionary.find(name);
+        return nameId < 0 ? -1 : table.get(slot(nameId)) - 1;
+    }
+
+    /**
+     * @return the entry id of the name id or -1 when it is unknown
+     */
+    public int findName(int nameId) {
+        return table.get(slot(nameId)) - 1;
+    }
+
+    /**
+     * Inserts a name id that is not in the map yet
+     * @return the entry id of the new entry
+     */
+    public int addName(int nameId, long priceCents) {
+        final int index = slot(nameId);
+        if (table.get(index) != 0) {
+            throw new IllegalArgumentException("Duplicate purchase name: " + dictionary.nameOf(nameId));
+        }
+        return insert(index, nameId, priceCents);
+    }
+
+    /**
+     * Inserts a name that is not in the map yet
+     * @return the entry id of the new entry
+     */
+    public int add(String name, long priceCents) {
+        final int nameId = dictionary.intern(name);
+        final int index = slot(nameId);
+        if (table.get(index) != 0) {
+            throw new IllegalArgumentException("Duplicate purchase name: " + name);
+        }
+        return insert(index, nameId, priceCents);
+    }
+
+    private int insert(int index, int nameId, long priceCents) {
+        if (size == names.capacity()) {
+            names = names.grow(size * 2);
+            cents = cents.grow(size * 2);
+        }
+        final int id = size++;
+        names.set(id, nameId);
+        cents.set(id, priceCents);
+        table.set(index, id + 1);
+        if (size > resizeThreshold) {
+            rehash(table.capacity() * 2);
+        }
+        return id;
+    }
+
+    /**
+     * Adds the cents to the price stored for the name (inserting the name when it is new)
+     * @return the new price of the name
+     */
+    public long merge(String name, long priceCents) {
+        return mergeName(dictionary.intern(name), priceCents);
+    }
+
+    public long mergeName(int nameId, long priceCents) {
+        final int index = slot(nameId);
+        final int entry = table.get(index);
+        if (entry == 0) {
+            insert(index, nameId, priceCents);
+            return priceCents;
+        }
+        cents.add(entry - 1, priceCents);
+        return cents.get(entry - 1);
+    }
+
+    public void addTo(int id, long priceCents) {
+        cents.add(id, priceCents);
+    }
+
+    /**
+     * Grows the arrays once so that the given number of names fits without further resizing
+     */
+    public void ensureCapacity(int expectedSize) {
+        if (names.capacity() < expectedSize) {
+            names = names.grow(expectedSize);
+            cents = cents.grow(expectedSize);
+        }
+        int capacity = table.capacity();
+        while (capacity / 4 * 3 < expectedSize) {
+            capacity *= 2;
+        }
+        if (capacity > table.capacity()) {
+            rehash(capacity);
+        }
+    }
+
+    public boolean containsKey(String name) {
+        return find(name) >= 0;
+    }
+
+    /**
+     * @return the price of the name or 0 when it is unknown
+     */
+    public long get(String name) {
+        final int id = find(name);
+        return id < 0 ? 0 : cents.get(id);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        names = columnStorage.ints(MIN_CAPACITY);
+        cents = columnStorage.longs(MIN_CAPACITY);
+        allocateTable(MIN_CAPACITY * 2);
+        size = 0;
+    }
+
+    public void forEach(EntryConsumer consumer) {
+        for (int id = 0; id < size; id++) {
+            consumer.accept(dictionary.nameOf(names.get(id)), cents.get(id));
+        }
+    }
+
+    /**
+     * Cursor style iteration for callers that can not use a lambda (e.g. they throw IOException):
+     * <pre>for (int i = map.nextSlot(0); i >= 0; i = map.nextSlot(i + 1)) { map.keyAt(i); map.valueAt(i); }</pre>
+     * The slots are the entry ids.
+     * @return the first used slot at or after from, or -1 when there is none
+     */
+    public int nextSlot(int from) {
+        return from < size ? from : -1;
+    }
+
+    public String keyAt(int id) {
+        return dictionary.nameOf(names.get(id));
+    }
+
+    /**
+     * @return the id of the name of the entry in the dictionary
+     */
+    public int nameIdAt(int id) {
+        return names.get(id);
+    }
+
+    /**
+     * Compares the names of two entries like String.compareTo
+     */
+    public int compareKeys(int a, int b) {
+        return dictionary.compare(names.get(a), names.get(b));
+    }
+
+    /**
+     * @return the column of the name ids by entry id; the rows below size() are never written
+     * again (growing or clearing starts a new column), so a reader may keep it with the size
+     */
+    IntColumn nameIdColumn() {
+        return names;
+    }
+
+    /**
+     * @return a copy of the prices by entry id, which change when purchases are merged
+     */
+    LongColumn copyValues() {
+        return cents.copy();
+    }
+
+    /**
+     * @see NameDictionary#comparePrefix(int, String)
+     */
+    public int compareKeyPrefix(int id, String prefix) {
+        return dictionary.comparePrefix(names.get(id), prefix);
+    }
+
+    public NameDictionary dictionary() {
+        return dictionary;
+    }
+
+    public long valueAt(int id) {
+        return cents.get(id);
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int id = 0; id < size; id++) {
+            sum += cents.get(id);
+        }
+        return sum;
+    }
+
+    private void rehash(int capacity) {
+        allocateTable(capacity);
+        final int mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int index = hash(names.get(id)) & mask;
+            while (table.get(index) != 0) {
+                index = (index + 1) & mask;
+            }
+            table.set(index, id + 1);
+        }
+    }
+
+    @FunctionalInterface
+    interface EntryConsumer {
+        void accept(String name, long cents);
+    }
+}
@@ -0,0 +1,323 @@
+package budget;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Purchases of one category, merged by name. The prices are kept in cents in a
+ * PurchaseMap, so adding a purchase does not create any BigDecimal or map node.
+ * The PriceIndex keeps them in the Analyze order, so sorted views are a walk.
+ * Every category has its own lock; the sum can be read without it. The reports read
+ * an immutable view of the store, which is kept until the next change.
+ * A store can be loaded lazily: it knows its sum up front and reads its purchases from
+ * its Source on the first access to them.
+ */
+class Purchases {
+    private static final int BULK_REBUILD_SIZE = 1024;
+
+    final ReentrantLock lock = new ReentrantLock();
+    private final String category;
+    protected final PurchaseMap specializedPurchaseMap;
+    protected final PriceIndex priceIndex;
+    protected final NameIndex nameIndex;
+    /** spending per day and month, maintained by DataManager under the lock */
+    final DateRollup rollup = new DateRollup();
+    private volatile long purchasesSum;
+    private boolean bulkLoading;
+    /** the index orders of a bulk load, if the ledger kept them, null otherwise */
+    private int[] bulkNameOrder;
+    private int[] bulkPriceOrder;
+    /** the view of the current version, null after a change until a view is asked for */
+    private LedgerView.Category view;
+    /** where the purchases still have to be read from, null once they are in the store */
+    private Source source;
+
+    /**
+     * The purchases of a store which are not read yet, e.g. a section of the data file
+     */
+    interface Source {
+        /**
+         * Merges the purchases into the map of the store, under its lock
+         */
+        void loadInto(PurchaseMap purchases) throws IOException;
+
+        /**
+         * The purchases added up to another sum than the one the store was given
+         */
+        void sumChanged(long deltaCents);
+    }
+
+    public Purchases(String category) {
+        this(category, new NameDictionary());
+    }
+
+    /**
+     * @param names the dictionary of the purchase names, usually shared by all categories
+     */
+    public Purchases(String category, NameDictionary names) {
+        this.category = category;
+        this.specializedPurchaseMap = new PurchaseMap(names);
+        this.priceIndex = new PriceIndex(specializedPurchaseMap);
+        this.nameIndex = new NameIndex(specializedPurchaseMap);
+    }
+
+    public void addNewPurchase(String name, BigDecimal price) {
+        addNewPurchase(name, Cents.of(price));
+    }
+
+    public void addNewPurchase(String name, long priceCents) {
+        addNewPurchase(specializedPurchaseMap.dictionary().intern(name), priceCents);
+    }
+
+    /**
+     * @param nameId the id of the name in the dictionary of the store
+     */
+    public void addNewPurchase(int nameId, long priceCents) {
+        lock.lock();
+        try {
+            load();
+            if (bulkLoading) {
+                specializedPurchaseMap.mergeName(nameId, priceCents);
+            } else {
+                int id = specializedPurchaseMap.findName(nameId);
+                if (id < 0) {
+                    id = specializedPurchaseMap.addName(nameId, priceCents);
+                    priceIndex.insert(id);
+                    nameIndex.insert(id);
+                } else {
+                    priceIndex.addToPrice(id, priceCents);
+                }
+            }
+            this.purchasesSum += priceCents;
+            view = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return an immutable view of the store, the same one until the store changes
+     */
+    public LedgerView.Category view() {
+        lock.lock();
+        try {
+            load();
+            if (view == null) {
+                view = new LedgerView.Category(category, specializedPurchaseMap, priceIndex, purchasesSum);
+            }
+            return view;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The store is empty and reads its purchases from the source on their first access
+     * @param sumCents the sum of the purchases of the source
+     */
+    public void loadLater(Source source, long sumCents) {
+        lock.lock();
+        try {
+            clearData();
+            this.source = source;
+            this.purchasesSum = sumCents;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the purchases of the source, if they are not read yet
+     * @throws UncheckedIOException if they can not be read, the store stays unloaded
+     */
+    public void ensureLoaded() {
+        lock.lock();
+        try {
+            load();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void load() {
+        final Source source = this.source;
+        if (source == null) {
+            return;
+        }
+        try {
+            source.loadInto(specializedPurchaseMap);
+        } catch (IOException e) {
+            specializedPurchaseMap.clear();
+            throw new UncheckedIOException(e);
+        }
+        this.source = null;
+        priceIndex.rebuild();
+        nameIndex.rebuild();
+        view = null;
+        final long loadedSum = specializedPurchaseMap.sum();
+        if (loadedSum != purchasesSum) {
+            source.sumChanged(loadedSum - purchasesSum);
+            purchasesSum = loadedSum;
+        }
+    }
+
+    /**
+     * Adds without maintaining the indexes until endBulkLoad(), which rebuilds them at once.
+     * The caller holds the lock for the whole bulk load.
+     */
+    public void beginBulkLoad() {
+        bulkLoading = true;
+    }
+
+    /**
+     * The orders of the indexes for endBulkLoad(), as a binary ledger kept them
+     */
+    public void bulkLoadOrders(int[] byName, int[] byPrice) {
+        bulkNameOrder = byName;
+        bulkPriceOrder = byPrice;
+    }
+
+    public void endBulkLoad() {
+        bulkLoading = false;
+        priceIndex.rebuild(bulkPriceOrder);
+        nameIndex.rebuild(bulkNameOrder);
+        bulkNameOrder = null;
+        bulkPriceOrder = null;
+        view = null;
+    }
+
+    /**
+     * @param nameIds the ids of the names in the dictionary of the store, one per purchase
+     */
+    public void addAll(int[] nameIds, long[] cents) {
+        lock.lock();
+        try {
+            load();
+            final boolean bulk = nameIds.length >= BULK_REBUILD_SIZE;
+            if (bulk) {
+                specializedPurchaseMap.ensureCapacity(specializedPurchaseMap.size() + nameIds.length);
+                beginBulkLoad();
+            }
+            for (int i = 0; i < nameIds.length; i++) {
+                addNewPurchase(nameIds[i], cents[i]);
+            }
+            if (bulk) {
+                endBulkLoad();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getPurchaseCount() {
+        lock.lock();
+        try {
+            load();
+            return specializedPurchaseMap.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes "label name $price" lines of the purchases whose name starts with the prefix,
+     * in name order, under the lock of the category
+     * @return the number of purchases written
+     */
+    public long writePurchaseContentNameMatches(String prefix, String label, Appendable out) throws IOException {
+        lock.lock();
+        try {
+            load();
+            long count = 0;
+            for (NameIndex.Cursor cursor = nameIndex.cursor(prefix); cursor.hasNext(); count++) {
+                int id = cursor.next();
+                Cents.appendTo(out.append(label).append(specializedPurchaseMap.keyAt(id)).append(" $"),
+                        specializedPurchaseMap.valueAt(id)).append('\n');
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return up to limit purchases in price order, starting at the given rank
+     */
+    public PurchaseMap getPurchasesPage(int offset, int limit) {
+        final PurchaseMap page = new PurchaseMap();
+        lock.lock();
+        try {
+            load();
+            PriceIndex.Cursor cursor = priceIndex.cursor(offset);
+            for (int i = 0; i < limit && cursor.hasNext(); i++) {
+                int id = cursor.next();
+                page.add(specializedPurchaseMap.keyAt(id), specializedPurchaseMap.valueAt(id));
+            }
+        } finally {
+            lock.unlock();
+        }
+        return page;
+    }
+
+    public List<Map.Entry<String, BigDecimal>> getPurchaseEntries() {
+        lock.lock();
+        try {
+            load();
+            List<Map.Entry<String, BigDecimal>> entries = new ArrayList<>(specializedPurchaseMap.size());
+            specializedPurchaseMap.forEach((key, value) -> entries.add(Map.entry(key, Cents.toBigDecimal(value))));
+            return entries;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public BigDecimal getPurchasesSum() {
+        return Cents.toBigDecimal(purchasesSum);
+    }
+
+    public long getPurchasesSumCents() {
+        return purchasesSum;
+    }
+
+    public BigDecimal recomputePurchasesSum() {
+        lock.lock();
+        try {
+            load();
+            return Cents.toBigDecimal(specializedPurchaseMap.sum());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void verifyPurchasesSum() {
+        lock.lock();
+        try {
+            load();
+            long recomputed = specializedPurchaseMap.sum();
+            if (recomputed != purchasesSum) {
+                throw new IllegalStateException(category + " sum is " + Cents.toPlainString(purchasesSum)
+                        + " but recomputed " + Cents.toPlainString(recomputed));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clearData() {
+        lock.lock();
+        try {
+            source = null;
+            specializedPurchaseMap.clear();
+            priceIndex.clear();
+            nameIndex.clear();
+            rollup.clear();
+            purchasesSum = 0;
+            view = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
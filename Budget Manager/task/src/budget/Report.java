@@ -0,0 +1,15 @@
+package budget;
+
+import java.io.IOException;
+
+/**
+ * A report streamed entry by entry to an Appendable (a StringBuilder or a buffered Writer),
+ * so printing it needs no copy of the whole report
+ */
+@FunctionalInterface
+interface Report {
+    /**
+     * @return the number of entries written
+     */
+    long writeTo(Appendable out) throws IOException;
+}
@@ -0,0 +1,303 @@
+package budget;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * A ledger kept as a directory of shard files, so that DataManager can write and read its
+ * categories in parallel: every category is a text ledger of its own, whose purchase lines
+ * are the transactions of the category in their order in the log, and a small manifest lists
+ * them:
+ * <pre>
+ * [Manifest]
+ * generation 3
+ * income 1000.00
+ * journal 17
+ * shard 3-0.txt 8 9071 Food         file, purchase lines, sum in cents, category
+ * shard 3-1.txt 3 4158 Clothes
+ * </pre>
+ * Ledgers saved before the text ledger format 2 have one more shard with a [Transactions]
+ * section, listed as "transactions 3-transactions.txt"; the categories of its transactions
+ * are the positions of the shards in the manifest. The counts and sums are for the reader of the manifest; a load takes them from the index of
+ * every shard, which is checked against the bytes of the shard (see LedgerIndex).
+ * Every save writes the shards of a new generation next to the old ones and then atomically
+ * replaces the manifest, so a save that does not complete leaves the previous ledger intact;
+ * the files of older generations are deleted afterwards.
+ */
+final class ShardedLedger {
+    static final String MANIFEST = "manifest.txt";
+    private static final String HEADER = "[Manifest]";
+
+    private ShardedLedger() {
+    }
+
+    static final class Shard {
+        final String file;
+        final String category;
+        final int count;
+        final long sumCents;
+
+        Shard(String file, String category, int count, long sumCents) {
+            this.file = file;
+            this.category = category;
+            this.count = count;
+            this.sumCents = sumCents;
+        }
+    }
+
+    static final class Manifest {
+        final long generation;
+        final BigDecimal income;
+        /** -1 without a journal */
+        final long journalSequence;
+        /** the shard with the [Transactions] section of a ledger of format 1, else null */
+        final String transactionsFile;
+        final List<Shard> shards;
+
+        Manifest(long generation, BigDecimal income, long journalSequence, String transactionsFile, List<Shard> shards) {
+            this.generation = generation;
+            this.income = income;
+            this.journalSequence = journalSequence;
+            this.transactionsFile = transactionsFile;
+            this.shards = Collections.unmodifiableList(shards);
+        }
+    }
+
+    /**
+     * Writes every category into a shard file of its own, all at once on the common fork-join
+     * pool, then the manifest which lists them
+     * @param journalSequence the last journal record contained in the snapshot, -1 without a journal
+     */
+    static void write(Path directory, long journalSequence, LedgerSnapshot snapshot) throws IOException {
+        Files.createDirectories(directory);
+        final long generation = nextGeneration(directory);
+        final LedgerView view = snapshot.view;
+        final TransactionLog.View log = snapshot.log;
+        final int[][] rows = log.rowsByCategory(view.getCategoryCount());
+        final Shard[] shards = new Shard[view.getCategoryCount()];
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for (int category = 0; category < view.getCategoryCount(); category++) {
+            final int c = category;
+            tasks.add(() -> {
+                final LedgerView.Category purchases = view.getCategory(c);
+                final String file = shardFile(generation, c);
+                try (LedgerWriter writer = new LedgerWriter(directory.resolve(file))) {
+                    writer.section(purchases.getName());
+                    writer.purchases(log, rows[c]);
+                    writer.commit();
+                    shards[c] = new Shard(file, purchases.getName(), rows[c].length, purchases.getSumCents());
+                }
+                return null;
+            });
+        }
+        try {
+            runInParallel(tasks);
+            writeManifest(directory, new Manifest(generation, view.getIncome(), journalSequence, null,
+                    Arrays.asList(shards)));
+        } catch (IOException | RuntimeException e) {
+            deleteGeneration(directory, generation);
+            throw e;
+        }
+        deleteOtherGenerations(directory, generation);
+    }
+
+    /**
+     * Passes every shard to the sink as the range of its only section, which the sink reads
+     * when it needs it
+     */
+    static void read(Path directory, LedgerReader.LazySink sink) throws IOException {
+        final Manifest manifest = readManifest(directory);
+        sink.income(manifest.income);
+        if (manifest.journalSequence >= 0) {
+            sink.checkpoint(manifest.journalSequence);
+        }
+        final Set<String> categories = new HashSet<>();
+        final List<LedgerReader.Range> sections = new ArrayList<>();
+        for (Shard shard : manifest.shards) {
+            final Path file = directory.resolve(shard.file);
+            final LedgerIndex index = LedgerIndex.lazyIndexOf(file, false);
+            if (!CategoryRegistry.isValidName(shard.category) || !categories.add(shard.category)
+                    || index == null || index.getSections().size() != 1
+                    || !index.getSections().get(0).name.equals(shard.category)) {
+                throw new IOException("Invalid shard of category " + shard.category + " in " + directory);
+            }
+            final LedgerReader.Range range = new LedgerReader.Range(file, index.getSections().get(0),
+                    sections.size(), index.getFormat());
+            sink.section(range);
+            sections.add(range);
+        }
+        if (manifest.transactionsFile == null) {
+            sink.transactions(sections);
+            return;
+        }
+        final Path transactionsFile = directory.resolve(manifest.transactionsFile);
+        final LedgerIndex transactionsIndex = LedgerIndex.lazyIndexOf(transactionsFile, true);
+        if (transactionsIndex == null || !transactionsIndex.hasTransactions()) {
+            throw new IOException("Invalid transactions shard " + manifest.transactionsFile + " in " + directory);
+        }
+        sink.transactions(List.of(LedgerReader.Range.transactionsOf(transactionsFile, transactionsIndex)));
+    }
+
+    /**
+     * Runs the tasks on the common fork-join pool and waits for all of them
+     * @throws IOException the first I/O failure of a task
+     */
+    static void runInParallel(List<Callable<Void>> tasks) throws IOException {
+        IOException failure = null;
+        for (Future<Void> task : ForkJoinPool.commonPool().invokeAll(tasks)) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof UncheckedIOException) {
+                    cause = cause.getCause();
+                }
+                if (cause instanceof IOException) {
+                    if (failure == null) {
+                        failure = (IOException) cause;
+                    }
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else {
+                    throw new IllegalStateException(cause);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    static String shardFile(long generation, int category) {
+        return generation + "-" + category + ".txt";
+    }
+
+    /**
+     * @return the generation after the one of the current manifest, 1 for a new ledger
+     */
+    static long nextGeneration(Path directory) throws IOException {
+        return Files.exists(directory.resolve(MANIFEST)) ? readManifest(directory).generation + 1 : 1;
+    }
+
+    static Manifest readManifest(Path directory) throws IOException {
+        final Path file = directory.resolve(MANIFEST);
+        long generation = -1;
+        BigDecimal income = BigDecimal.ZERO;
+        long journalSequence = -1;
+        String transactionsFile = null;
+        final List<Shard> shards = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) {
+                throw new IOException(file + " is not a ledger manifest");
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                String[] fields = line.split(" ", 5);
+                try {
+                    switch (fields[0]) {
+                        case "generation":
+                            generation = Long.parseLong(fields[1]);
+                            break;
+                        case "income":
+                            income = new BigDecimal(fields[1]);
+                            break;
+                        case "journal":
+                            journalSequence = Long.parseLong(fields[1]);
+                            break;
+                        case "transactions":
+                            transactionsFile = fields[1];
+                            break;
+                        case "shard":
+                            shards.add(new Shard(fields[1], fields[4], Integer.parseInt(fields[2]), Long.parseLong(fields[3])));
+                            break;
+                        default:
+                            throw new IOException("Unknown manifest line: " + line);
+                    }
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    throw new IOException("Broken manifest line: " + line, e);
+                }
+            }
+        }
+        if (generation < 0) {
+            throw new IOException(file + " is incomplete");
+        }
+        return new Manifest(generation, income, journalSequence, transactionsFile, shards);
+    }
+
+    /**
+     * Atomically replaces the manifest, which makes the shards it lists the ledger
+     */
+    static void writeManifest(Path directory, Manifest manifest) throws IOException {
+        final StringBuilder text = new StringBuilder(HEADER).append('\n');
+        text.append("generation ").append(manifest.generation).append('\n');
+        text.append("income ").append(manifest.income.toPlainString()).append('\n');
+        if (manifest.journalSequence >= 0) {
+            text.append("journal ").append(manifest.journalSequence).append('\n');
+        }
+        if (manifest.transactionsFile != null) {
+            text.append("transactions ").append(manifest.transactionsFile).append('\n');
+        }
+        for (Shard shard : manifest.shards) {
+            text.append("shard ").append(shard.file).append(' ').append(shard.count).append(' ')
+                    .append(shard.sumCents).append(' ').append(shard.category).append('\n');
+        }
+        final Path target = directory.resolve(MANIFEST);
+        final Path tempFile = directory.resolve(MANIFEST + ".tmp");
+        Files.write(tempFile, text.toString().getBytes(StandardCharsets.UTF_8));
+        try {
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Deletes the shard files of every generation but the given one
+     */
+    static void deleteOtherGenerations(Path directory, long generation) throws IOException {
+        deleteShards(directory, generation, false);
+    }
+
+    /**
+     * Deletes the shard files of the generation, e.g. of a save that failed
+     */
+    static void deleteGeneration(Path directory, long generation) throws IOException {
+        deleteShards(directory, generation, true);
+    }
+
+    private static void deleteShards(Path directory, long generation, boolean matching) throws IOException {
+        final String prefix = generation + "-";
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "[0-9]*-*.txt*")) {
+            for (Path file : files) {
+                if (file.getFileName().toString().startsWith(prefix) == matching) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+}
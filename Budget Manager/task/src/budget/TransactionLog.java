@@ -0,0 +1,426 @@
+package budget;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Every purchase in the order it was made, unlike the category stores which merge purchases
+ * of the same name. A transaction is a row of four parallel primitive columns: the time in
+ * epoch milliseconds, the category id, the id of the name in a NameDictionary and the price
+ * in cents, so millions of transactions are four columns and not millions of objects.
+ * The columns are of the ColumnStorage of the dictionary, in segments that double in size,
+ * so rows are never moved once written.
+ *
+ * Appending does not lock, so writers of different categories do not wait for each other:
+ * a writer reserves its row with an atomic increment, writes it and sets its bit in the
+ * commit bitmap of the segment. The published size then moves over every committed row in
+ * order; any writer moves it, including over the rows of others, so none waits for a slow
+ * one. The log only grows (clear() starts new segments), so a View taken at any time is a
+ * stable prefix of the transactions, which stays valid while appends go on.
+ *
+ * Purchases read from ledgers written before the log was kept have no time, they are UNTIMED
+ * and left out of the date range totals.
+ */
+class TransactionLog {
+    /** the time of a transaction whose time is not known */
+    static final long UNTIMED = Long.MIN_VALUE;
+    private static final int FIRST_SEGMENT_SHIFT = 10;
+    /** segment k holds FIRST_SEGMENT_ROWS << k rows */
+    private static final int FIRST_SEGMENT_ROWS = 1 << FIRST_SEGMENT_SHIFT;
+    private static final int SEGMENTS = 21;
+    private static final int MAX_ROWS = FIRST_SEGMENT_ROWS * ((1 << SEGMENTS) - 1);
+
+    interface TransactionConsumer {
+        void accept(long timestamp, int category, String name, long priceCents);
+    }
+
+    /**
+     * The columns of FIRST_SEGMENT_ROWS << k rows, starting at the row first
+     */
+    private static final class Segment {
+        final int first;
+        final LongColumn timestamps;
+        final IntColumn categories;
+        final IntColumn names;
+        final LongColumn cents;
+        /** one bit per row, set once the row is written */
+        final AtomicLongArray committed;
+
+        Segment(ColumnStorage storage, int index) {
+            final int capacity = FIRST_SEGMENT_ROWS << index;
+            first = FIRST_SEGMENT_ROWS * ((1 << index) - 1);
+            timestamps = storage.longs(capacity);
+            categories = storage.ints(capacity);
+            names = storage.ints(capacity);
+            cents = storage.longs(capacity);
+            committed = new AtomicLongArray(capacity >>> 6);
+        }
+
+        void commit(int offset) {
+            final long bit = 1L << offset;
+            committed.accumulateAndGet(offset >>> 6, bit, (bits, added) -> bits | added);
+        }
+
+        boolean isCommitted(int offset) {
+            return (committed.get(offset >>> 6) & 1L << offset) != 0;
+        }
+    }
+
+    /**
+     * The segments of the appended rows and the transactions put before them by prepend;
+     * replaced as a whole by clear()
+     */
+    private static final class Rows {
+        final AtomicReferenceArray<Segment> segments = new AtomicReferenceArray<>(SEGMENTS);
+        final AtomicInteger reserved = new AtomicInteger();
+        /** the rows below are written */
+        final AtomicInteger published = new AtomicInteger();
+        volatile View older;
+
+        static int segmentIndex(int row) {
+            return 31 - Integer.numberOfLeadingZeros((row >>> FIRST_SEGMENT_SHIFT) + 1);
+        }
+
+        /**
+         * @return the segment of the row, null if it is not allocated yet
+         */
+        Segment segmentOf(int row) {
+            return segments.get(segmentIndex(row));
+        }
+
+        Segment allocate(ColumnStorage storage, int row) {
+            final int index = segmentIndex(row);
+            final Segment segment = segments.get(index);
+            if (segment != null) {
+                return segment;
+            }
+            segments.compareAndSet(index, null, new Segment(storage, index));
+            return segments.get(index);
+        }
+
+        /**
+         * Moves the published size over the committed rows
+         */
+        void publish() {
+            int row;
+            while ((row = published.get()) < reserved.get()) {
+                final Segment segment = segmentOf(row);
+                if (segment == null || !segment.isCommitted(row - segment.first)) {
+                    return;             // its writer publishes it
+                }
+                published.compareAndSet(row, row + 1);
+            }
+        }
+    }
+
+    private final NameDictionary dictionary;
+    private volatile Rows rows = new Rows();
+
+    TransactionLog() {
+        this(new NameDictionary());
+    }
+
+    /**
+     * @param dictionary the dictionary of the names, it may be shared with the category stores
+     */
+    TransactionLog(NameDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * @return true for UNTIMED and the times the rollups keep, see DateRollup.isSupported
+     */
+    static boolean isValidTime(long timestamp) {
+        return timestamp == UNTIMED || DateRollup.isSupported(timestamp);
+    }
+
+    public void append(long timestamp, int category, String name, long priceCents) {
+        appendName(timestamp, category, dictionary.intern(name), priceCents);
+    }
+
+    /**
+     * @param nameId the id of the name in the dictionary of the log
+     */
+    public void appendName(long timestamp, int category, int nameId, long priceCents) {
+        final Rows rows = this.rows;
+        final int row = reserve(rows, 1);
+        write(rows, row, timestamp, category, nameId, priceCents);
+        rows.publish();
+    }
+
+    /**
+     * Appends the transactions, all with the same time, in their order as one block of rows
+     * @param nameIds the ids of the names in the dictionary of the log
+     */
+    public void appendAll(long timestamp, int category, int[] nameIds, long[] cents) {
+        final Rows rows = this.rows;
+        final int first = reserve(rows, nameIds.length);
+        for (int i = 0; i < nameIds.length; i++) {
+            write(rows, first + i, timestamp, category, nameIds[i], cents[i]);
+        }
+        rows.publish();
+    }
+
+    /**
+     * @return the first of count new rows
+     */
+    private static int reserve(Rows rows, int count) {
+        int row;
+        do {
+            row = rows.reserved.get();
+            if (row > MAX_ROWS - count) {
+                throw new IllegalStateException("Transaction log is full");
+            }
+        } while (!rows.reserved.compareAndSet(row, row + count));
+        return row;
+    }
+
+    private void write(Rows rows, int row, long timestamp, int category, int nameId, long priceCents) {
+        final Segment segment = rows.allocate(dictionary.columnStorage(), row);
+        final int offset = row - segment.first;
+        segment.timestamps.set(offset, timestamp);
+        segment.categories.set(offset, category);
+        segment.names.set(offset, nameId);
+        segment.cents.set(offset, priceCents);
+        segment.commit(offset);
+    }
+
+    /**
+     * Puts the transactions of the view before all transactions of this log, for older
+     * transactions read after newer ones were appended; views taken before keep their
+     * transactions. Appends may go on meanwhile, only the transactions prepended before
+     * are copied.
+     * @throws IllegalArgumentException if the view has another dictionary
+     */
+    public synchronized void prepend(View older) {
+        if (older.dictionary != dictionary) {
+            throw new IllegalArgumentException("The logs do not share their dictionary");
+        }
+        final Rows rows = this.rows;
+        final View before = rows.older;
+        if ((long) older.size + (before == null ? 0 : before.size) + rows.reserved.get() > MAX_ROWS) {
+            throw new IllegalStateException("Transaction log is full");
+        }
+        if (before == null) {
+            rows.older = older;
+            return;
+        }
+        final TransactionLog joined = new TransactionLog(dictionary);
+        for (View view : new View[]{older, before}) {
+            for (int row = 0; row < view.size; row++) {
+                joined.appendName(view.timestampAt(row), view.categoryAt(row), view.nameIdAt(row), view.centsAt(row));
+            }
+        }
+        rows.older = joined.view();
+    }
+
+    /**
+     * Drops every transaction; views taken before keep their transactions
+     */
+    public synchronized void clear() {
+        rows = new Rows();
+    }
+
+    public int size() {
+        final Rows rows = this.rows;
+        final View older = rows.older;
+        return (older == null ? 0 : older.size) + rows.published.get();
+    }
+
+    /**
+     * @return the transactions appended so far
+     */
+    public View view() {
+        final Rows rows = this.rows;
+        final View older = rows.older;
+        return new View(older, rows, rows.published.get(), dictionary);
+    }
+
+    /**
+     * A fixed prefix of the log, rows are addressed 0 (the oldest) to size() - 1
+     */
+    static final class View {
+        private final View older;
+        private final int olderSize;
+        private final Rows rows;
+        private final int size;
+        private final NameDictionary dictionary;
+
+        private View(View older, Rows rows, int appended, NameDictionary dictionary) {
+            this.older = older;
+            this.olderSize = older == null ? 0 : older.size;
+            this.rows = rows;
+            this.size = olderSize + appended;
+            this.dictionary = dictionary;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        private Segment segmentOf(int row) {
+            Objects.checkIndex(row, size);
+            return rows.segmentOf(row - olderSize);
+        }
+
+        public long timestampAt(int row) {
+            if (row < olderSize) {
+                return older.timestampAt(row);
+            }
+            final Segment segment = segmentOf(row);
+            return segment.timestamps.get(row - olderSize - segment.first);
+        }
+
+        public int categoryAt(int row) {
+            if (row < olderSize) {
+                return older.categoryAt(row);
+            }
+            final Segment segment = segmentOf(row);
+            return segment.categories.get(row - olderSize - segment.first);
+        }
+
+        public int nameIdAt(int row) {
+            if (row < olderSize) {
+                return older.nameIdAt(row);
+            }
+            final Segment segment = segmentOf(row);
+            return segment.names.get(row - olderSize - segment.first);
+        }
+
+        public String nameAt(int row) {
+            return dictionary.nameOf(nameIdAt(row));
+        }
+
+        public long centsAt(int row) {
+            if (row < olderSize) {
+                return older.centsAt(row);
+            }
+            final Segment segment = segmentOf(row);
+            return segment.cents.get(row - olderSize - segment.first);
+        }
+
+        public NameDictionary dictionary() {
+            return dictionary;
+        }
+
+        /**
+         * @return the rows of every category, in the order of the log
+         */
+        public int[][] rowsByCategory(int categoryCount) {
+            final int[] counts = new int[categoryCount];
+            for (int row = 0; row < size; row++) {
+                counts[categoryAt(row)]++;
+            }
+            final int[][] rows = new int[categoryCount][];
+            for (int category = 0; category < categoryCount; category++) {
+                rows[category] = new int[counts[category]];
+                counts[category] = 0;
+            }
+            for (int row = 0; row < size; row++) {
+                final int category = categoryAt(row);
+                rows[category][counts[category]++] = row;
+            }
+            return rows;
+        }
+
+        public void forEach(TransactionConsumer consumer) {
+            if (older != null) {
+                older.forEach(consumer);
+            }
+            for (int row = 0, appended = size - olderSize; row < appended; ) {
+                final Segment segment = rows.segmentOf(row);
+                final int end = Math.min(appended, segment.first + segment.cents.capacity());
+                for (; row < end; row++) {
+                    final int offset = row - segment.first;
+                    consumer.accept(segment.timestamps.get(offset), segment.categories.get(offset),
+                            dictionary.nameOf(segment.names.get(offset)), segment.cents.get(offset));
+                }
+            }
+        }
+    }
+
+    /**
+     * Transactions read out of their order, e.g. category by category from the sections of a
+     * text ledger, which know the position of every transaction in the log they were saved from
+     */
+    static final class Unordered {
+        private long[] orders = new long[64];
+        private long[] timestamps = new long[64];
+        private int[] categories = new int[64];
+        private int[] names = new int[64];
+        private long[] cents = new long[64];
+        private int size;
+
+        /**
+         * @param order the position of the transaction in the log, the rows are sorted by it
+         */
+        void add(long order, long timestamp, int category, int nameId, long priceCents) {
+            if (size == orders.length) {
+                final int capacity = size * 2;
+                orders = Arrays.copyOf(orders, capacity);
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                categories = Arrays.copyOf(categories, capacity);
+                names = Arrays.copyOf(names, capacity);
+                cents = Arrays.copyOf(cents, capacity);
+            }
+            orders[size] = order;
+            timestamps[size] = timestamp;
+            categories[size] = category;
+            names[size] = nameId;
+            cents[size] = priceCents;
+            size++;
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * Appends the transactions in their order, the ones of the same order in the order they
+         * were added. The orders of a saved log are its rows 0 to size - 1, which are put in
+         * place without sorting; others (e.g. of a ledger edited by hand) are sorted.
+         * @param log a log of the dictionary of the name ids
+         */
+        void appendTo(TransactionLog log) {
+            final int[] sorted = new int[size];
+            Arrays.fill(sorted, -1);
+            boolean placed = true;
+            for (int i = 0; i < size && placed; i++) {
+                final long order = orders[i];
+                placed = order >= 0 && order < size && sorted[(int) order] < 0;
+                if (placed) {
+                    sorted[(int) order] = i;
+                }
+            }
+            if (!placed) {
+                for (int i = 0; i < size; i++) {
+                    sorted[i] = i;
+                }
+                sort(sorted, new int[size], 0, size);
+            }
+            for (int i : sorted) {
+                log.appendName(timestamps[i], categories[i], names[i], cents[i]);
+            }
+        }
+
+        /**
+         * Stable merge sort of the rows by their order
+         */
+        private void sort(int[] rows, int[] buffer, int from, int to) {
+            if (to - from < 2) {
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            sort(rows, buffer, from, middle);
+            sort(rows, buffer, middle, to);
+            System.arraycopy(rows, from, buffer, from, to - from);
+            for (int i = from, left = from, right = middle; i < to; i++) {
+                rows[i] = right >= to || left < middle && orders[buffer[left]] <= orders[buffer[right]]
+                        ? buffer[left++] : buffer[right++];
+            }
+        }
+    }
+}
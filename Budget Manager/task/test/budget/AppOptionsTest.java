@@ -0,0 +1,32 @@
+package budget;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AppOptionsTest {
+    private static final List<String> KNOWN = List.of("journal", "ledger", "autosave");
+
+    @Test
+    public void knownOptionsAreParsed() {
+        AppOptions options = new AppOptions(KNOWN, "--journal", "--ledger=a=b.txt");
+
+        assertTrue(options.has("journal"));
+        assertEquals("a=b.txt", options.get("ledger", "purchases.txt"));
+        assertFalse(options.has("autosave"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void aMisspelledOptionIsRejected() {
+        new AppOptions(KNOWN, "--jornal");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void aMisspelledOptionWithAValueIsRejected() {
+        new AppOptions(KNOWN, "--legder=other.txt");
+    }
+}
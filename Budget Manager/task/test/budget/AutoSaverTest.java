@@ -0,0 +1,88 @@
+package budget;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AutoSaverTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void burstOfChangesIsSavedOnce() throws Exception {
+        Path ledger = folder.getRoot().toPath().resolve("purchases.txt");
+        DataManager dataManager = new DataManager(ledger, BigDecimal.ZERO);
+        try (AutoSaver autoSaver = new AutoSaver(dataManager, 200, 10_000)) {
+            dataManager.setIncome(BigDecimal.valueOf(1000));
+            for (int i = 0; i < 10_000; i++) {
+                dataManager.addPurchaseToList(i % dataManager.getCategoryCount(), "Item " + i % 100, 1 + i % 7);
+            }
+            waitFor(() -> autoSaver.getSaveCount() > 0, 10_000);
+            Thread.sleep(500);
+            assertEquals(1, autoSaver.getSaveCount());
+            assertFalse(dataManager.hasUnsavedChanges());
+        }
+        assertSameTotals(dataManager, ledger);
+    }
+
+    @Test
+    public void steadyChangesAreSavedWithinTheMaximumDelay() throws Exception {
+        Path ledger = folder.getRoot().toPath().resolve("purchases.txt");
+        DataManager dataManager = new DataManager(ledger, BigDecimal.ZERO);
+        try (AutoSaver autoSaver = new AutoSaver(dataManager, 200, 500)) {
+            long end = System.nanoTime() + 2_000_000_000L;
+            for (int i = 0; System.nanoTime() < end; i++) {
+                dataManager.addPurchaseToList(0, "Item " + i % 10, 1);
+                Thread.sleep(20);           // never quiet for 200 ms
+            }
+            long saves = autoSaver.getSaveCount();
+            assertTrue("saved during the changes: " + saves, saves >= 2);
+            assertTrue("saved at most once per maximum delay: " + saves, saves <= 5);
+        }
+        assertFalse(dataManager.hasUnsavedChanges());
+        assertSameTotals(dataManager, ledger);
+    }
+
+    @Test
+    public void closeSavesTheRest() throws Exception {
+        Path ledger = folder.getRoot().toPath().resolve("purchases.txt");
+        DataManager dataManager = new DataManager(ledger, BigDecimal.ZERO);
+        AutoSaver autoSaver = new AutoSaver(dataManager, 60_000, 60_000);
+        dataManager.addPurchaseToList(1, "Gildan LT", new BigDecimal("8.61"));
+        assertTrue(dataManager.hasUnsavedChanges());
+        autoSaver.close();
+        assertEquals(0, autoSaver.getSaveCount());
+        assertFalse(dataManager.hasUnsavedChanges());
+        assertSameTotals(dataManager, ledger);
+
+        dataManager.loadData();
+        assertFalse("loaded data is saved data", dataManager.hasUnsavedChanges());
+    }
+
+    private static void assertSameTotals(DataManager saved, Path ledger) throws Exception {
+        DataManager loaded = new DataManager(ledger, BigDecimal.ZERO);
+        loaded.loadData();
+        assertEquals(0, saved.getIncome().compareTo(loaded.getIncome()));
+        assertEquals(0, saved.getPurchasesTotalSum().compareTo(loaded.getPurchasesTotalSum()));
+        assertEquals(saved.getPurchaseCount(), loaded.getPurchaseCount());
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+
+    private static void waitFor(Condition condition, long timeoutMillis) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeoutMillis;
+        while (!condition.holds() && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.holds());
+    }
+}
@@ -0,0 +1,38 @@
+package budget;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BatchRunnerTest {
+    @Test
+    public void failingLinesAreCountedAndTheScriptGoesOn() throws Exception {
+        DataManager dataManager = new DataManager(Path.of("unused.txt"), BigDecimal.ZERO);
+        BatchRunner runner = run(dataManager, "income 1e999999999\n"
+                + "purchase Food 99999999999999999999 Caviar\n"
+                + "purchase Fodo 3.50 Milk\n"
+                + "category add Travel\n"
+                + "purchase Travel 120 Train\n"
+                + "income 100\n");
+
+        assertEquals(6, runner.getCommands());
+        assertEquals(3, runner.getErrors());
+        assertTrue("a typo registers no category", dataManager.categoryOf("Fodo") < 0);
+        assertEquals(0, new BigDecimal("120.00").compareTo(dataManager.getPurchaseListSum(dataManager.categoryOf("Travel"))));
+        assertEquals(0, new BigDecimal("-20.00").compareTo(dataManager.getBalance()));
+    }
+
+    private static BatchRunner run(DataManager dataManager, String script) throws Exception {
+        BatchRunner runner = new BatchRunner(dataManager, new PrintWriter(new StringWriter()));
+        runner.run(new BufferedReader(new StringReader(script)));
+        return runner;
+    }
+}
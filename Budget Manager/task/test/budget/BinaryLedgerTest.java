@@ -0,0 +1,140 @@
+package budget;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class BinaryLedgerTest {
+    private static final long DAY = 86_400_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void binaryLedgerKeepsTheTransactions() throws Exception {
+        Path ledger = folder.getRoot().toPath().resolve("purchases.bin");
+        DataManager saved = new DataManager(ledger, BigDecimal.ZERO);
+        saved.setIncome(new BigDecimal("100000"));
+        addPurchases(saved, 20_000, 13);
+        saved.addPurchaseToList(3, "Caf\u00e9 cr\u00e8me \u2615", -125, 0L);
+        saved.saveData();
+
+        DataManager loaded = new DataManager(ledger, BigDecimal.ZERO);
+        loaded.loadData();
+        assertSameLedger(saved, loaded);
+    }
+
+    @Test
+    public void journalCompactionIntoABinaryLedgerKeepsTheTransactions() throws Exception {
+        Path ledger = folder.getRoot().toPath().resolve("purchases.bin");
+        DataManager journaled = new DataManager(ledger, BigDecimal.ZERO);
+        journaled.openJournal(new Journal(ledger, Journal.SyncPolicy.NONE, 1));     // compacts after every purchase
+        addPurchases(journaled, 2_000, 5);
+        journaled.close();
+        assertFalse(Files.exists(ledger.resolveSibling("purchases.bin.journal.old")));
+
+        DataManager loaded = new DataManager(ledger, BigDecimal.ZERO);
+        loaded.openJournal(new Journal(ledger, Journal.SyncPolicy.NONE, Long.MAX_VALUE));
+        try {
+            assertSameLedger(journaled, loaded);
+        } finally {
+            loaded.close();
+        }
+    }
+
+    /**
+     * Transactions of another dictionary, or with names no purchase has, keep their own names
+     */
+    @Test
+    public void transactionNamesWithoutAPurchaseAreKept() throws Exception {
+        Path ledger = folder.getRoot().toPath().resolve("purchases.bin");
+        PurchaseMap food = new PurchaseMap();
+        food.add("Milk", 350);
+        food.add("Eggs", 399);
+        PriceIndex foodPrices = new PriceIndex(food);
+        foodPrices.rebuild();
+        PurchaseMap other = new PurchaseMap();
+        TransactionLog log = new TransactionLog();
+        log.append(1_000, 0, "Milk", 350);
+        log.append(2_000, 1, "Gone", 100);
+        log.append(3_000, 0, "Eggs", 399);
+        log.append(4_000, 1, "Gone", 200);
+        try (BinaryLedger.Writer writer = new BinaryLedger.Writer(ledger, BigDecimal.TEN, -1)) {
+            writer.categories(new String[]{"Food", "Other"}, new int[]{2, 0}, new long[]{749, 0});
+            writer.purchases(new LedgerView.Category("Food", food, foodPrices, 749), null);
+            writer.purchases(new LedgerView.Category("Other", other, new PriceIndex(other), 0), null);
+            writer.transactions(log.view());
+            writer.commit();
+        }
+
+        List<String> read = new ArrayList<>();
+        BinaryLedger.read(ledger, new LedgerReader.Sink() {
+            @Override
+            public void income(BigDecimal income) {
+            }
+
+            @Override
+            public void section(String name) {
+                read.add("[" + name + "]");
+            }
+
+            @Override
+            public void purchase(String name, long priceCents) {
+                read.add(name + " " + priceCents);
+            }
+
+            @Override
+            public void rejected(String lineText, String reason) {
+                read.add("rejected " + lineText);
+            }
+
+            @Override
+            public void transaction(long timestamp, int categorySection, String name, long priceCents) {
+                read.add(timestamp + " " + categorySection + " " + name + " " + priceCents);
+            }
+        });
+        assertEquals(List.of("[Food]", "Milk 350", "Eggs 399", "[Other]",
+                "1000 0 Milk 350", "2000 1 Gone 100", "3000 0 Eggs 399", "4000 1 Gone 200"), read);
+    }
+
+    private static void addPurchases(DataManager dataManager, int count, long seed) {
+        Random random = new Random(seed);
+        long start = LocalDate.of(2026, 1, 1).toEpochDay() * DAY;
+        for (int i = 0; i < count; i++) {
+            dataManager.addPurchaseToList(random.nextInt(dataManager.getCategoryCount()),
+                    "Item " + random.nextInt(800), 1 + random.nextInt(10_000), start + random.nextInt(60) * DAY);
+        }
+    }
+
+    private static void assertSameLedger(DataManager expected, DataManager actual) {
+        assertEquals(0, expected.getIncome().compareTo(actual.getIncome()));
+        for (int category = 0; category < expected.getCategoryCount(); category++) {
+            assertEquals(expected.getPurchaseListContent(category), actual.getPurchaseListContent(category));
+            assertEquals(expected.getPurchaseListContentPriceSorted(category),
+                    actual.getPurchaseListContentPriceSorted(category));
+        }
+        assertEquals(expected.getSearchResults(""), actual.getSearchResults(""));
+        assertEquals(expected.getSearchResults("Item 1"), actual.getSearchResults("Item 1"));
+        TransactionLog.View expectedLog = expected.getTransactions();
+        TransactionLog.View actualLog = actual.getTransactions();
+        assertEquals(expectedLog.size(), actualLog.size());
+        for (int row = 0; row < expectedLog.size(); row++) {
+            assertEquals(expectedLog.timestampAt(row), actualLog.timestampAt(row));
+            assertEquals(expectedLog.categoryAt(row), actualLog.categoryAt(row));
+            assertEquals(expectedLog.nameAt(row), actualLog.nameAt(row));
+            assertEquals(expectedLog.centsAt(row), actualLog.centsAt(row));
+        }
+        actual.verifyPurchasesTotalSum();
+    }
+}
@@ -0,0 +1,172 @@
+package budget;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+public class BulkImporterTest {
+    private static final String DEFAULT_NAME = "(default)";
+    private static final int[] CHUNK_SIZES = {13, 64, 1000, BulkImporter.CHUNK_SIZE};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void chunkBoundariesDoNotChangeTheImport() throws Exception {
+        Random random = new Random(3);
+        Map<String, Map<String, Long>> expected = new LinkedHashMap<>();
+        StringBuilder text = new StringBuilder("[Income]\n1000.00\n\n");
+        String section = null;
+        for (int i = 0; i < 2_000; i++) {
+            if (section == null || random.nextInt(50) == 0) {
+                section = "Section " + random.nextInt(6);
+                text.append('[').append(section).append("]\n");
+            }
+            String name = "Caf\u00e9 " + random.nextInt(300) + (random.nextBoolean() ? " \u2615" : "");
+            long cents = 1 + random.nextInt(100_000);
+            text.append(name).append(" $").append(Cents.toPlainString(cents)).append(random.nextBoolean() ? "\r\n" : "\n");
+            expected.computeIfAbsent(section, key -> new TreeMap<>()).merge(name, cents, Long::sum);
+        }
+        Path file = write("purchases.txt", text.toString());
+
+        for (int chunkSize : CHUNK_SIZES) {
+            Imported imported = importFiles(chunkSize, file);
+            assertEquals("chunks of " + chunkSize, sorted(expected), sorted(imported.categories));
+            assertEquals(2_000, imported.report.getRows());
+            assertEquals(0, imported.report.getRejectedLines());
+        }
+    }
+
+    @Test
+    public void savedLedgersImportOneRowPerTransactionInEveryChunk() throws Exception {
+        Path ledger = folder.getRoot().toPath().resolve("saved.txt");
+        DataManager saved = new DataManager(ledger, BigDecimal.ZERO);
+        Map<String, Map<String, Long>> expected = new LinkedHashMap<>();
+        Random random = new Random(11);
+        long day = LocalDate.of(2026, 3, 1).toEpochDay() * 86_400_000L;
+        for (int i = 0; i < 3_000; i++) {
+            int category = random.nextInt(saved.getCategoryCount());
+            String name = "Item " + random.nextInt(400);
+            long cents = 1 + random.nextInt(5_000);
+            saved.addPurchaseToList(category, name, cents, day + random.nextInt(86_400_000));
+            expected.computeIfAbsent(saved.getCategoryName(category), key -> new TreeMap<>()).merge(name, cents, Long::sum);
+        }
+        saved.saveData();
+
+        for (int chunkSize : CHUNK_SIZES) {
+            Imported imported = importFiles(chunkSize, ledger);
+            assertEquals("chunks of " + chunkSize, sorted(expected), sorted(imported.categories));
+            assertEquals(saved.getTransactions().size(), imported.report.getRows());
+            assertEquals(0, imported.report.getRejectedLines());
+        }
+    }
+
+    @Test
+    public void csvRowsAreSplitOnQuotesAcrossChunks() throws Exception {
+        StringBuilder text = new StringBuilder("category,name,price\n");
+        Map<String, Map<String, Long>> expected = new LinkedHashMap<>();
+        Random random = new Random(17);
+        for (int i = 0; i < 1_000; i++) {
+            long cents = 1 + random.nextInt(10_000);
+            String name = "Tea, " + random.nextInt(100);
+            if (random.nextInt(4) == 0) {
+                text.append('"').append(name).append("\",$").append(Cents.toPlainString(cents)).append('\n');
+                expected.computeIfAbsent(DEFAULT_NAME, key -> new TreeMap<>()).merge(name, cents, Long::sum);
+            } else {
+                String category = "Kind " + random.nextInt(3);
+                text.append(category).append(",\"").append(name).append("\",").append(Cents.toPlainString(cents)).append('\n');
+                expected.computeIfAbsent(category, key -> new TreeMap<>()).merge(name, cents, Long::sum);
+            }
+        }
+        text.append("just one field\n");
+        text.append("Kind 1,Cheese,cheap\n");
+        Path file = write("purchases.csv", text.toString());
+
+        for (int chunkSize : CHUNK_SIZES) {
+            Imported imported = importFiles(chunkSize, file);
+            assertEquals("chunks of " + chunkSize, sorted(expected), sorted(imported.categories));
+            assertEquals(1_000, imported.report.getRows());
+            assertEquals(2, imported.report.getRejectedLines());
+        }
+    }
+
+    @Test
+    public void importAddsOneTransactionPerLineInOrder() throws Exception {
+        Path file = write("purchases.txt", "[Food]\nMilk $1.00\nBread $2.00\n[Clothes]\nHat $5.00\n[Food]\nMilk $3.00\n");
+        DataManager dataManager = new DataManager(folder.getRoot().toPath().resolve("ledger.txt"), BigDecimal.ZERO);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            dataManager.importPurchases(List.of(file), 0, pool);
+        } finally {
+            pool.shutdown();
+        }
+        TransactionLog.View log = dataManager.getTransactions();
+        assertEquals(4, log.size());
+        assertEquals("Milk", log.nameAt(0));
+        assertEquals(200, log.centsAt(1));
+        assertEquals("Hat", log.nameAt(2));
+        assertEquals(300, log.centsAt(3));
+        assertEquals(log.categoryAt(0), log.categoryAt(3));
+        assertEquals("one purchase per name", 3, dataManager.getPurchaseCount());
+    }
+
+    private static final class Imported {
+        final Map<String, Map<String, Long>> categories = new LinkedHashMap<>();
+        BulkImporter.ImportReport report;
+    }
+
+    private static Imported importFiles(int chunkSize, Path... files) throws Exception {
+        Imported imported = new Imported();
+        List<String> names = new ArrayList<>(List.of(DEFAULT_NAME));
+        BulkImporter.Target target = new BulkImporter.Target() {
+            @Override
+            public int categoryOf(String name) {
+                if (!names.contains(name)) {
+                    names.add(name);
+                }
+                return names.indexOf(name);
+            }
+
+            @Override
+            public void addAll(int category, BulkImporter.Rows purchases) {
+                Map<String, Long> into = imported.categories.computeIfAbsent(names.get(category), key -> new TreeMap<>());
+                for (int row = 0; row < purchases.size(); row++) {
+                    into.merge(purchases.nameAt(row), purchases.centsAt(row), Long::sum);
+                }
+            }
+        };
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            imported.report = new BulkImporter(pool, 0, chunkSize).importFiles(Arrays.asList(files), target);
+        } finally {
+            pool.shutdown();
+        }
+        return imported;
+    }
+
+    private static Map<String, Map<String, Long>> sorted(Map<String, Map<String, Long>> categories) {
+        return new TreeMap<>(categories);
+    }
+
+    private Path write(String name, String text) throws Exception {
+        Path file = folder.getRoot().toPath().resolve(name);
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
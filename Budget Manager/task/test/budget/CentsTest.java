@@ -0,0 +1,89 @@
+package budget;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class CentsTest {
+
+    @Test
+    public void parsesPrices() {
+        assertEquals(350, Cents.parse("3.5"));
+        assertEquals(3543, Cents.parse(" 35.43 "));
+        assertEquals(1, Cents.parse("0.001"));          // rounded up
+        assertEquals(-101, Cents.parse("-1.001"));      // away from zero
+        assertEquals(10_000, Cents.parse("1e2"));
+        assertEquals(700, Cents.parse("+7"));
+    }
+
+    @Test
+    public void parsesTheLargestAmounts() {
+        assertEquals(Long.MAX_VALUE, Cents.parse("92233720368547758.07"));
+        assertEquals(Long.MAX_VALUE, Cents.parse("92233720368547758.061"));
+        assertEquals(9_223_372_036_854_775_800L, Cents.parse("92233720368547758"));
+        assertEquals(-Long.MAX_VALUE, Cents.parse("-92233720368547758.07"));
+        assertEquals(Long.MIN_VALUE, Cents.parse("-92233720368547758.08"));
+    }
+
+    @Test
+    public void rejectsAmountsOutOfRange() {
+        assertOutOfRange("92233720368547758.08");
+        assertOutOfRange("92233720368547758.071");     // the rounding overflows
+        assertOutOfRange("922337203685477580");        // the scaling to cents overflows
+        assertOutOfRange("92233720368547759");
+        assertOutOfRange("-922337203685477580");
+    }
+
+    @Test
+    public void rejectsText() {
+        assertOutOfRange("abc");
+        assertOutOfRange("");
+        assertOutOfRange("1.2.3");
+    }
+
+    /**
+     * The exponents are checked before the amounts are scaled, which would take hours
+     */
+    @Test(timeout = 10_000)
+    public void rejectsHugeExponentsWithoutScaling() {
+        assertOutOfRange("1e999999999");
+        assertOutOfRange("-1E+999999999");
+        assertEquals(1, Cents.parse("1e-999999999"));         // rounded up
+        assertEquals(0, Cents.parse("0e999999999"));
+        assertEquals(0, Cents.of(new BigDecimal("1e-999999999")));
+        try {
+            Cents.parseAmount("1e999999999");
+            fail("the amount is out of range");
+        } catch (NumberFormatException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void parsesAmountsHalfUp() {
+        assertEquals("1000.01", Cents.parseAmount("1000.005").toPlainString());
+        assertEquals("1000.00", Cents.parseAmount(" 1000.004 ").toPlainString());
+        assertEquals("2000.00", Cents.parseAmount("2e3").toPlainString());
+        assertEquals("0.00", Cents.parseAmount("1e-999999999").toPlainString());
+    }
+
+    @Test
+    public void formatsCents() {
+        assertEquals("0.05", Cents.toPlainString(5));
+        assertEquals("-10.50", Cents.toPlainString(-1050));
+        assertEquals("92233720368547758.07", Cents.toPlainString(Long.MAX_VALUE));
+        assertEquals("-92233720368547758.08", Cents.toPlainString(Long.MIN_VALUE));
+    }
+
+    private static void assertOutOfRange(String text) {
+        try {
+            long cents = Cents.parse(text);
+            fail(text + " parsed as " + cents);
+        } catch (NumberFormatException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package budget;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompressedLedgerTest {
+    private static final long DAY = 86_400_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void compressedLedgerReadsTheSameLedger() throws Exception {
+        Path ledger = folder.getRoot().toPath().resolve("purchases.ledz");
+        DataManager saved = ledgerOf(ledger);
+        saved.addPurchaseToList(3, "Caf\u00e9 cr\u00e8me \u2615", -125, 0L);         // not ASCII, negative, at time 0
+        saved.saveData();
+
+        DataManager loaded = new DataManager(ledger, BigDecimal.ZERO);
+        loaded.loadData();
+        assertSameReports(saved, loaded);
+    }
+
+    @Test
+    public void compressedLedgerIsSmallerThanText() throws Exception {
+        Path ledger = folder.getRoot().toPath().resolve("purchases.ledz");
+        DataManager saved = ledgerOf(ledger);
+        saved.saveData();
+        Path text = folder.getRoot().toPath().resolve("purchases.txt");
+        saved.exportData(text);
+        assertTrue(Files.size(ledger) * 3 < Files.size(text));
+    }
+
+    @Test
+    public void truncatedLedgerIsNotRead() throws Exception {
+        Path ledger = folder.getRoot().toPath().resolve("purchases.ledz");
+        ledgerOf(ledger).saveData();
+        byte[] bytes = Files.readAllBytes(ledger);
+        Files.write(ledger, Arrays.copyOf(bytes, bytes.length / 2));
+
+        DataManager loaded = new DataManager(ledger, BigDecimal.ZERO);
+        try {
+            loaded.loadData();
+            fail("half a ledger is no ledger");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void blockLengthBeyondTheBlockSizeIsBroken() throws Exception {
+        Path ledger = folder.getRoot().toPath().resolve("purchases.ledz");
+        ledgerOf(ledger).saveData();
+        try (RandomAccessFile file = new RandomAccessFile(ledger.toFile(), "rw")) {
+            file.seek(3 * Integer.BYTES);         // the compressed length of the first block
+            file.writeInt(Integer.MAX_VALUE);
+        }
+
+        DataManager loaded = new DataManager(ledger, BigDecimal.ZERO);
+        try {
+            loaded.loadData();
+            fail("the length of the block is broken");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("broken block"));
+        }
+    }
+
+    private static DataManager ledgerOf(Path ledger) {
+        DataManager dataManager = new DataManager(ledger, BigDecimal.ZERO);
+        dataManager.setIncome(new BigDecimal("100000"));
+        Random random = new Random(13);
+        long start = LocalDate.of(2026, 1, 1).toEpochDay() * DAY;
+        for (int i = 0; i < 50_000; i++) {          // more than one block
+            dataManager.addPurchaseToList(random.nextInt(dataManager.getCategoryCount()),
+                    "Item " + random.nextInt(800), 1 + random.nextInt(10_000), start + random.nextInt(60) * DAY);
+        }
+        return dataManager;
+    }
+
+    private static void assertSameReports(DataManager expected, DataManager actual) {
+        assertEquals(0, expected.getIncome().compareTo(actual.getIncome()));
+        assertEquals(0, expected.getBalance().compareTo(actual.getBalance()));
+        for (int category = 0; category < expected.getCategoryCount(); category++) {
+            assertEquals(0, expected.getPurchaseListSum(category).compareTo(actual.getPurchaseListSum(category)));
+            assertEquals(expected.getPurchaseListContent(category), actual.getPurchaseListContent(category));
+        }
+        LocalDate first = LocalDate.of(2026, 1, 10);
+        LocalDate last = LocalDate.of(2026, 2, 10);
+        for (int category = 0; category < expected.getCategoryCount(); category++) {
+            assertEquals(expected.getPurchaseListSumCents(category, first, last),
+                    actual.getPurchaseListSumCents(category, first, last));
+        }
+        TransactionLog.View expectedLog = expected.getTransactions();
+        TransactionLog.View actualLog = actual.getTransactions();
+        assertEquals(expectedLog.size(), actualLog.size());
+        for (int row = 0; row < expectedLog.size(); row++) {
+            assertEquals(expectedLog.timestampAt(row), actualLog.timestampAt(row));
+            assertEquals(expectedLog.categoryAt(row), actualLog.categoryAt(row));
+            assertEquals(expectedLog.nameAt(row), actualLog.nameAt(row));
+            assertEquals(expectedLog.centsAt(row), actualLog.centsAt(row));
+        }
+        actual.verifyPurchasesTotalSum();
+    }
+}
@@ -0,0 +1,86 @@
+package budget;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DataManagerStressTest {
+    private static final int WRITERS = 8;
+    private static final int READERS = 4;
+    private static final int PURCHASES_PER_WRITER = 20_000;
+    private static final int NAMES = 500;
+
+    @Test
+    public void concurrentWritersAndReadersKeepTotalsConsistent() throws Exception {
+        DataManager dataManager = new DataManager(Path.of("unused.txt"), BigDecimal.valueOf(1_000_000));
+        int categories = dataManager.getCategoryCount();
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS + READERS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+
+        List<Future<?>> writers = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            final int writer = w;
+            writers.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < PURCHASES_PER_WRITER; i++) {
+                    int category = (writer + i) % categories;
+                    dataManager.addPurchaseToList(category, "Item " + (i % NAMES), new BigDecimal("0.01"));
+                }
+                return null;
+            }));
+        }
+        List<Future<?>> readers = new ArrayList<>();
+        for (int r = 0; r < READERS; r++) {
+            readers.add(executor.submit(() -> {
+                start.await();
+                BigDecimal previous = BigDecimal.ZERO;
+                while (writing.get()) {
+                    BigDecimal total = dataManager.getPurchasesTotalSum();
+                    assertTrue("the total never goes back", total.compareTo(previous) >= 0);
+                    previous = total;
+                    dataManager.getBalance();
+                    dataManager.getPurchaseTotalContent();
+                    dataManager.getPurchaseTotalContentPriceSorted();
+                    dataManager.getPurchasesTypesSumSorted();
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> future : writers) {
+            future.get(2, TimeUnit.MINUTES);
+        }
+        writing.set(false);
+        for (Future<?> future : readers) {
+            future.get(1, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+
+        BigDecimal expectedTotal = new BigDecimal("0.01").multiply(BigDecimal.valueOf((long) WRITERS * PURCHASES_PER_WRITER));
+        assertEquals(0, expectedTotal.compareTo(dataManager.getPurchasesTotalSum()));
+        assertEquals(0, BigDecimal.valueOf(1_000_000).subtract(expectedTotal).compareTo(dataManager.getBalance()));
+        dataManager.verifyPurchasesTotalSum();
+
+        BigDecimal categoriesTotal = BigDecimal.ZERO;
+        for (int category = 0; category < categories; category++) {
+            categoriesTotal = categoriesTotal.add(dataManager.getPurchaseListSum(category));
+            String content = dataManager.getPurchaseListContent(category);
+            assertEquals("every name is merged into one line", NAMES, content.split("\n").length);
+        }
+        assertEquals(0, expectedTotal.compareTo(categoriesTotal));
+    }
+}
@@ -0,0 +1,134 @@
+package budget;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DateRollupTest {
+
+    @Test
+    public void rangesIncludeTheirFirstAndLastDay() {
+        DateRollup rollup = new DateRollup();
+        add(rollup, LocalDate.of(2026, 1, 31), 100);
+        add(rollup, LocalDate.of(2026, 2, 1), 20);
+        add(rollup, LocalDate.of(2026, 2, 28), 3);
+        add(rollup, LocalDate.of(2026, 3, 1), 4000);
+
+        assertEquals(100, rollup.sum(LocalDate.of(2026, 1, 31), LocalDate.of(2026, 1, 31)));
+        assertEquals(120, rollup.sum(LocalDate.of(2026, 1, 31), LocalDate.of(2026, 2, 1)));
+        assertEquals(23, rollup.sum(LocalDate.of(2026, 2, 1), LocalDate.of(2026, 2, 28)));     // one whole month
+        assertEquals(4123, rollup.sum(LocalDate.of(2026, 1, 31), LocalDate.of(2026, 3, 1)));
+        assertEquals(0, rollup.sum(LocalDate.of(2026, 2, 2), LocalDate.of(2026, 2, 27)));
+        assertEquals(0, rollup.sum(LocalDate.of(2026, 3, 1), LocalDate.of(2026, 1, 31)));     // reversed
+    }
+
+    @Test
+    public void monthsRollOverAtTheYearAndLeapDays() {
+        DateRollup rollup = new DateRollup();
+        add(rollup, LocalDate.of(2027, 12, 31), 1);
+        add(rollup, LocalDate.of(2028, 1, 1), 10);
+        add(rollup, LocalDate.of(2028, 2, 29), 100);
+        add(rollup, LocalDate.of(2028, 3, 1), 1000);
+
+        assertEquals(1, rollup.sum(LocalDate.of(2027, 12, 1), LocalDate.of(2027, 12, 31)));
+        assertEquals(11, rollup.sum(LocalDate.of(2027, 12, 31), LocalDate.of(2028, 1, 31)));
+        assertEquals(100, rollup.sum(LocalDate.of(2028, 2, 1), LocalDate.of(2028, 2, 29)));
+        assertEquals(100, rollup.sum(LocalDate.of(2028, 2, 29), LocalDate.of(2028, 2, 29)));
+        assertEquals(1111, rollup.sum(LocalDate.of(2027, 1, 1), LocalDate.of(2028, 12, 31)));
+    }
+
+    @Test
+    public void rangeSumsMatchTheDays() {
+        Random random = new Random(5);
+        LocalDate start = LocalDate.of(2024, 11, 15);
+        long[] days = new long[900];
+        DateRollup rollup = new DateRollup();
+        for (int i = 0; i < 20_000; i++) {
+            int day = random.nextInt(days.length);
+            long cents = random.nextInt(10_000) - 1_000;
+            days[day] += cents;
+            add(rollup, start.plusDays(day), cents);
+        }
+        for (int i = 0; i < 2_000; i++) {
+            int first = random.nextInt(days.length + 40) - 20;
+            int last = first + random.nextInt(400);
+            long expected = 0;
+            for (int day = Math.max(first, 0); day <= Math.min(last, days.length - 1); day++) {
+                expected += days[day];
+            }
+            assertEquals(start.plusDays(first) + ".." + start.plusDays(last), expected,
+                    rollup.sum(start.plusDays(first), start.plusDays(last)));
+        }
+    }
+
+    @Test
+    public void extremeDatesAreCutToTheSupportedDays() {
+        DateRollup rollup = new DateRollup();
+        add(rollup, DateRollup.FIRST_DAY, 1);
+        add(rollup, LocalDate.of(1970, 1, 1), 10);
+        add(rollup, DateRollup.LAST_DAY, 100);
+        assertEquals(111, rollup.sum(LocalDate.MIN, LocalDate.MAX));
+        assertEquals(0, rollup.sum(LocalDate.MIN, DateRollup.FIRST_DAY.minusDays(1)));
+        try {
+            rollup.add(DateRollup.LAST_DAY.toEpochDay() + 1, 1);
+            fail("a day after the last one");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void extremeTimestampsAreRejected() {
+        assertTrue(DateRollup.isSupported(0));
+        assertTrue(DateRollup.isSupported(System.currentTimeMillis()));
+        assertFalse(DateRollup.isSupported(Long.MAX_VALUE));
+        assertFalse(DateRollup.isSupported(Long.MIN_VALUE));
+
+        DataManager dataManager = new DataManager(Path.of("unused.txt"), BigDecimal.ZERO);
+        try {
+            dataManager.addPurchaseToList(0, "Time machine", 100, Long.MAX_VALUE);
+            fail("a purchase in the year 292 million");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(0, dataManager.getPurchaseCount());
+
+        String[] rejected = new String[1];
+        LedgerReader.parseTransaction(Long.MIN_VALUE + " 0 Time machine $1.00", new LedgerReader.Sink() {
+            @Override
+            public void income(BigDecimal income) {
+            }
+
+            @Override
+            public void section(String name) {
+            }
+
+            @Override
+            public void purchase(String name, long priceCents) {
+            }
+
+            @Override
+            public void rejected(String lineText, String reason) {
+                rejected[0] = reason;
+            }
+
+            @Override
+            public void transaction(long timestamp, int categorySection, String name, long priceCents) {
+                fail("the transaction is out of range");
+            }
+        });
+        assertEquals("Transaction time out of range", rejected[0]);
+    }
+
+    private static void add(DateRollup rollup, LocalDate day, long cents) {
+        rollup.add(day.toEpochDay(), cents);
+    }
+}
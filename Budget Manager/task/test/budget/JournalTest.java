@@ -0,0 +1,255 @@
+package budget;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysTheRecordsAfterTheSnapshot() throws Exception {
+        Path ledger = ledger();
+        try (Journal journal = open(ledger, 0, new Recorder())) {
+            journal.appendIncome(100_000);
+            journal.appendPurchase("Food", "Milk", 350, 1_000);
+            journal.appendPurchase("Other", "Caf\u00e9", 125, 2_000);
+        }
+
+        Recorder all = new Recorder();
+        open(ledger, 0, all).close();
+        assertEquals(List.of("income 100000", "Food/Milk 350 @1000", "Other/Caf\u00e9 125 @2000"), all.records);
+
+        Recorder afterSnapshot = new Recorder();
+        try (Journal journal = open(ledger, 2, afterSnapshot)) {
+            assertEquals(3, journal.getSequence());
+        }
+        assertEquals(List.of("Other/Caf\u00e9 125 @2000"), afterSnapshot.records);
+    }
+
+    @Test
+    public void tornTailRecordIsDropped() throws Exception {
+        Path ledger = ledger();
+        try (Journal journal = open(ledger, 0, new Recorder())) {
+            journal.appendPurchase("Food", "Milk", 350, 1_000);
+            journal.appendPurchase("Food", "Eggs", 399, 2_000);
+        }
+        Path file = journalFile(ledger);
+        truncate(file, Files.size(file) - 3);
+
+        Recorder replayed = new Recorder();
+        try (Journal journal = open(ledger, 0, replayed)) {
+            assertEquals(List.of("Food/Milk 350 @1000"), replayed.records);
+            journal.appendPurchase("Food", "Bread", 250, 3_000);     // written after the valid part
+        }
+        Recorder reopened = new Recorder();
+        open(ledger, 0, reopened).close();
+        assertEquals(List.of("Food/Milk 350 @1000", "Food/Bread 250 @3000"), reopened.records);
+    }
+
+    @Test
+    public void recordWithABadChecksumEndsTheReplay() throws Exception {
+        Path ledger = ledger();
+        try (Journal journal = open(ledger, 0, new Recorder())) {
+            journal.appendPurchase("Food", "Milk", 350, 1_000);
+            journal.appendPurchase("Food", "Eggs", 399, 2_000);
+            journal.appendPurchase("Food", "Bread", 250, 3_000);
+        }
+        Path file = journalFile(ledger);
+        long secondRecordPayload = Integer.BYTES + recordLength("Food", "Milk") + Integer.BYTES + 1;
+        try (RandomAccessFile journal = new RandomAccessFile(file.toFile(), "rw")) {
+            journal.seek(secondRecordPayload);
+            journal.write(journal.read() ^ 0x40);
+        }
+
+        Recorder replayed = new Recorder();
+        open(ledger, 0, replayed).close();
+        assertEquals(List.of("Food/Milk 350 @1000"), replayed.records);
+    }
+
+    @Test
+    public void lengthBeyondTheEndOfTheFileEndsTheReplay() throws Exception {
+        Path ledger = ledger();
+        try (Journal journal = open(ledger, 0, new Recorder())) {
+            journal.appendPurchase("Food", "Milk", 350, 1_000);
+            journal.appendPurchase("Food", "Eggs", 399, 2_000);
+        }
+        Path file = journalFile(ledger);
+        try (RandomAccessFile journal = new RandomAccessFile(file.toFile(), "rw")) {
+            journal.seek(Integer.BYTES + recordLength("Food", "Milk"));
+            journal.writeInt(Integer.MAX_VALUE - 8);      // the length of the second record
+        }
+
+        Recorder replayed = new Recorder();
+        open(ledger, 0, replayed).close();
+        assertEquals(List.of("Food/Milk 350 @1000"), replayed.records);
+        assertEquals(Integer.BYTES + recordLength("Food", "Milk"), Files.size(file));
+    }
+
+    @Test
+    public void namesLongerThan64KbAreReplayed() throws Exception {
+        Path ledger = ledger();
+        String name = "\u00e9".repeat(40_000);
+        try (Journal journal = open(ledger, 0, new Recorder())) {
+            journal.appendPurchase("Food", name, 350, 1_000);
+        }
+        Recorder replayed = new Recorder();
+        open(ledger, 0, replayed).close();
+        assertEquals(List.of("Food/" + name + " 350 @1000"), replayed.records);
+    }
+
+    @Test
+    public void compactionSnapshotsAndDeletesTheRotatedJournal() throws Exception {
+        Path ledger = ledger();
+        Checkpoints checkpoints = new Checkpoints(0);
+        Journal journal = new Journal(ledger, Journal.SyncPolicy.NONE, 64);
+        journal.open(0, new Recorder(), checkpoints);
+        while (!journal.needsCompaction()) {
+            journal.appendPurchase("Food", "Milk", 350, 1_000);
+        }
+        long sequence = journal.getSequence();
+        journal.compact();
+        journal.appendPurchase("Food", "Eggs", 399, 2_000);
+        journal.close();                    // waits for the compaction
+
+        assertEquals(sequence, checkpoints.written.get());
+        assertFalse(Files.exists(rotatedFile(ledger)));
+        Recorder replayed = new Recorder();
+        open(ledger, checkpoints.written.get(), replayed).close();
+        assertEquals(List.of("Food/Eggs 399 @2000"), replayed.records);
+    }
+
+    @Test
+    public void failedCompactionIsRetriedWithTheRotatedJournal() throws Exception {
+        Path ledger = ledger();
+        Checkpoints checkpoints = new Checkpoints(1);
+        Journal journal = new Journal(ledger, Journal.SyncPolicy.NONE, 1);
+        journal.open(0, new Recorder(), checkpoints);
+        journal.appendPurchase("Food", "Milk", 350, 1_000);
+        journal.compact();                  // the snapshot fails
+        awaitCompaction(journal);
+        assertTrue(Files.exists(rotatedFile(ledger)));
+
+        Recorder beforeRetry = new Recorder();
+        open(copyJournals(ledger), 0, beforeRetry).close();
+        assertEquals(List.of("Food/Milk 350 @1000"), beforeRetry.records);
+
+        journal.appendPurchase("Food", "Eggs", 399, 2_000);
+        journal.compact();                  // appends to the rotated journal, then succeeds
+        journal.appendPurchase("Food", "Bread", 250, 3_000);
+        journal.close();
+
+        assertEquals(2, checkpoints.written.get());
+        assertFalse(Files.exists(rotatedFile(ledger)));
+        Recorder replayed = new Recorder();
+        open(ledger, checkpoints.written.get(), replayed).close();
+        assertEquals(List.of("Food/Bread 250 @3000"), replayed.records);
+    }
+
+    private static final class Recorder implements Journal.Listener {
+        final List<String> records = new ArrayList<>();
+
+        @Override
+        public void income(long incomeCents) {
+            records.add("income " + incomeCents);
+        }
+
+        @Override
+        public void purchase(String category, String name, long priceCents, long timestamp) {
+            records.add(category + "/" + name + " " + priceCents + " @" + timestamp);
+        }
+    }
+
+    /**
+     * Remembers the sequence of the last written snapshot; the first snapshots fail
+     */
+    private static final class Checkpoints implements Journal.Checkpointer {
+        final AtomicLong written = new AtomicLong(-1);
+        final AtomicInteger failures;
+
+        Checkpoints(int failures) {
+            this.failures = new AtomicInteger(failures);
+        }
+
+        @Override
+        public Journal.IoTask capture(long sequence) {
+            return () -> {
+                if (failures.getAndDecrement() > 0) {
+                    throw new IOException("disk full");
+                }
+                written.set(sequence);
+            };
+        }
+    }
+
+    private Path ledger() {
+        return folder.getRoot().toPath().resolve("purchases.txt");
+    }
+
+    /**
+     * @return the journal of the ledger, opened without compaction
+     */
+    private static Journal open(Path ledger, long snapshotSequence, Journal.Listener listener) throws IOException {
+        Journal journal = new Journal(ledger, Journal.SyncPolicy.NONE, Long.MAX_VALUE);
+        journal.open(snapshotSequence, listener, new Checkpoints(0));
+        return journal;
+    }
+
+    /**
+     * Copies the journal files of the ledger, as they are now, to the ledger "copy.txt"
+     */
+    private static Path copyJournals(Path ledger) throws IOException {
+        Path copy = ledger.resolveSibling("copy.txt");
+        Files.copy(journalFile(ledger), journalFile(copy));
+        Files.copy(rotatedFile(ledger), rotatedFile(copy));
+        return copy;
+    }
+
+    /**
+     * Waits until the background compaction is over: with a threshold below the size of an
+     * empty journal only a running compaction stops needsCompaction
+     */
+    private static void awaitCompaction(Journal journal) throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (!journal.needsCompaction() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue("the compaction did not finish", journal.needsCompaction());
+    }
+
+    private static Path journalFile(Path ledger) {
+        return ledger.resolveSibling(ledger.getFileName() + ".journal");
+    }
+
+    private static Path rotatedFile(Path ledger) {
+        return ledger.resolveSibling(ledger.getFileName() + ".journal.old");
+    }
+
+    /**
+     * @return the bytes of a purchase record: length, type, sequence, the two strings, price, time, CRC
+     */
+    private static int recordLength(String category, String name) {
+        return Integer.BYTES + 1 + Long.BYTES + Integer.BYTES + category.length() + Integer.BYTES + name.length()
+                + Long.BYTES * 2 + Integer.BYTES;
+    }
+
+    private static void truncate(Path file, long length) throws IOException {
+        try (RandomAccessFile journal = new RandomAccessFile(file.toFile(), "rw")) {
+            journal.setLength(length);
+        }
+    }
+}
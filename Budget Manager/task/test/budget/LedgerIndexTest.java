@@ -0,0 +1,229 @@
+package budget;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LedgerIndexTest {
+    private static final long DAY = 86_400_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void lazyLoadReadsTheSameLedger() throws Exception {
+        Path ledger = folder.getRoot().toPath().resolve("purchases.txt");
+        DataManager saved = ledgerOf(ledger);
+        saved.saveData();
+        assertTrue(new String(Files.readAllBytes(ledger), StandardCharsets.UTF_8).contains("\n[Index]\n"));
+
+        DataManager loaded = new DataManager(ledger, BigDecimal.ZERO);
+        loaded.loadData();
+        assertSameReports(saved, loaded);
+    }
+
+    @Test
+    public void ledgerWithoutIndexIsScanned() throws Exception {
+        Path ledger = folder.getRoot().toPath().resolve("purchases.txt");
+        DataManager saved = ledgerOf(ledger);
+        saved.saveData();
+        String text = new String(Files.readAllBytes(ledger), StandardCharsets.UTF_8);
+        Files.write(ledger, text.substring(0, text.indexOf("[Index]\n")).getBytes(StandardCharsets.UTF_8));
+
+        DataManager loaded = new DataManager(ledger, BigDecimal.ZERO);
+        loaded.loadData();
+        assertSameReports(saved, loaded);
+    }
+
+    /**
+     * A ledger of format 1 has no times: its purchase lines are loaded as untimed transactions,
+     * which no date range has, and saved as such
+     */
+    @Test
+    public void legacyLedgerLoadsUntimedTransactions() throws Exception {
+        Path ledger = folder.getRoot().toPath().resolve("purchases.txt");
+        Files.write(ledger, "[Income]\n100.00\n[Food]\nMilk $3.50\nMilk $1.00\n[Clothes]\nHat $10.00\n"
+                .getBytes(StandardCharsets.UTF_8));
+        for (int load = 0; load < 2; load++) {
+            DataManager loaded = new DataManager(ledger, BigDecimal.ZERO);
+            loaded.loadData();
+            TransactionLog.View log = loaded.getTransactions();
+            assertEquals(3, log.size());
+            for (int row = 0; row < log.size(); row++) {
+                assertEquals(TransactionLog.UNTIMED, log.timestampAt(row));
+            }
+            assertEquals("Hat", log.nameAt(2));
+            assertEquals(0, new BigDecimal("85.50").compareTo(loaded.getBalance()));
+            assertEquals(0, loaded.getPurchaseListSumCents(0, LocalDate.of(1970, 1, 1), LocalDate.of(2100, 1, 1)));
+            loaded.saveData();
+        }
+        String saved = new String(Files.readAllBytes(ledger), StandardCharsets.UTF_8);
+        assertTrue(saved, saved.contains("[Food]\n0 - Milk $3.50\n1 - Milk $1.00\n[Clothes]\n2 - Hat $10.00\n"));
+    }
+
+    @Test
+    public void outdatedIndexIsNotUsed() throws Exception {
+        Path ledger = folder.getRoot().toPath().resolve("purchases.txt");
+        DataManager saved = ledgerOf(ledger);
+        saved.saveData();
+        String text = new String(Files.readAllBytes(ledger), StandardCharsets.UTF_8);
+        int line = text.indexOf("[Food]\n") + 7;
+        Files.write(ledger, (text.substring(0, line) + "5000 - Paper clips $100.00\n" + text.substring(line))
+                .getBytes(StandardCharsets.UTF_8));      // one purchase more, written by hand
+
+        DataManager loaded = new DataManager(ledger, BigDecimal.ZERO);
+        loaded.loadData();
+        assertEquals(0, saved.getPurchasesTotalSum().add(new BigDecimal("100.00"))
+                .compareTo(loaded.getPurchasesTotalSum()));
+        loaded.verifyPurchasesTotalSum();
+    }
+
+    /**
+     * The edit keeps every offset of the index, only the checksum of the section tells
+     */
+    @Test
+    public void priceEditedInPlaceIsNotTakenFromTheIndex() throws Exception {
+        Path ledger = folder.getRoot().toPath().resolve("purchases.txt");
+        DataManager saved = ledgerOf(ledger);
+        saved.saveData();
+        long delta = editPriceInPlace(ledger, "Clothes");
+
+        DataManager loaded = new DataManager(ledger, BigDecimal.ZERO);
+        loaded.loadData();
+        BigDecimal balance = saved.getBalance().subtract(Cents.toBigDecimal(delta));
+        assertEquals(0, balance.compareTo(loaded.getBalance()));
+        assertEquals(0, saved.getPurchaseListSum(1).add(Cents.toBigDecimal(delta))
+                .compareTo(loaded.getPurchaseListSum(1)));
+        loaded.getPurchaseListContent(1);
+        assertEquals(0, balance.compareTo(loaded.getBalance()));
+        loaded.verifyPurchasesTotalSum();
+    }
+
+    @Test
+    public void sectionEditedAfterTheLoadIsNotRead() throws Exception {
+        Path ledger = folder.getRoot().toPath().resolve("purchases.txt");
+        DataManager saved = ledgerOf(ledger);
+        saved.saveData();
+
+        DataManager loaded = new DataManager(ledger, BigDecimal.ZERO);
+        loaded.loadData();
+        editPriceInPlace(ledger, "Clothes");
+        try {
+            loaded.getPurchaseListContent(1);
+            fail("the section does not match the sum it was loaded with");
+        } catch (UncheckedIOException e) {
+            // the section changed
+        }
+        assertEquals(0, saved.getBalance().compareTo(loaded.getBalance()));
+    }
+
+    @Test
+    public void categoriesAreReadOnTheirFirstAccess() throws Exception {
+        Path ledger = folder.getRoot().toPath().resolve("purchases.txt");
+        DataManager saved = ledgerOf(ledger);
+        saved.saveData();
+
+        DataManager loaded = new DataManager(ledger, BigDecimal.ZERO);
+        loaded.loadData();
+        String food = loaded.getPurchaseListContent(0);
+        Files.delete(ledger);
+        assertEquals(0, saved.getBalance().compareTo(loaded.getBalance()));
+        assertEquals(0, saved.getPurchaseListSum(1).compareTo(loaded.getPurchaseListSum(1)));
+        assertEquals(food, loaded.getPurchaseListContent(0));
+        try {
+            loaded.getPurchaseListContent(1);
+            fail("the section of a category is read on its first access");
+        } catch (UncheckedIOException e) {
+            // the file is gone
+        }
+    }
+
+    @Test
+    public void transactionsAddedBeforeTheLoadedOnesAreReadComeAfterThem() throws Exception {
+        Path ledger = folder.getRoot().toPath().resolve("purchases.txt");
+        DataManager saved = ledgerOf(ledger);
+        saved.saveData();
+
+        DataManager loaded = new DataManager(ledger, BigDecimal.ZERO);
+        loaded.loadData();
+        long now = System.currentTimeMillis();
+        saved.addPurchaseToList(2, "Cinema", 873, now);
+        loaded.addPurchaseToList(2, "Cinema", 873, now);
+        assertSameReports(saved, loaded);
+        assertEquals(now, loaded.getTransactions().timestampAt(loaded.getTransactions().size() - 1));
+
+        loaded.saveData();
+        DataManager reloaded = new DataManager(ledger, BigDecimal.ZERO);
+        reloaded.loadData();
+        assertSameReports(saved, reloaded);
+    }
+
+    /**
+     * Changes the last digit of the first price of the section, so the file keeps its length
+     * @return the change of the price in cents
+     */
+    static long editPriceInPlace(Path ledger, String section) throws Exception {
+        byte[] bytes = Files.readAllBytes(ledger);
+        String text = new String(bytes, StandardCharsets.ISO_8859_1);
+        int lineEnd = text.indexOf('\n', text.indexOf("[" + section + "]\n") + section.length() + 3);
+        int digit = lineEnd - 1;
+        int old = bytes[digit] - '0';
+        int edited = (old + 1) % 10;
+        bytes[digit] = (byte) ('0' + edited);
+        Files.write(ledger, bytes);
+        return edited - old;
+    }
+
+    private static DataManager ledgerOf(Path ledger) {
+        DataManager dataManager = new DataManager(ledger, BigDecimal.ZERO);
+        dataManager.setIncome(new BigDecimal("100000"));
+        Random random = new Random(7);
+        long start = LocalDate.of(2026, 1, 1).toEpochDay() * DAY;
+        for (int i = 0; i < 5_000; i++) {
+            dataManager.addPurchaseToList(random.nextInt(dataManager.getCategoryCount()),
+                    "Item " + random.nextInt(800), 1 + random.nextInt(10_000), start + random.nextInt(60) * DAY);
+        }
+        return dataManager;
+    }
+
+    private static void assertSameReports(DataManager expected, DataManager actual) {
+        assertEquals(0, expected.getIncome().compareTo(actual.getIncome()));
+        assertEquals(0, expected.getBalance().compareTo(actual.getBalance()));
+        for (int category = 0; category < expected.getCategoryCount(); category++) {
+            assertEquals(0, expected.getPurchaseListSum(category).compareTo(actual.getPurchaseListSum(category)));
+            assertEquals(expected.getPurchaseListContent(category), actual.getPurchaseListContent(category));
+            assertEquals(expected.getPurchaseListContentPriceSorted(category),
+                    actual.getPurchaseListContentPriceSorted(category));
+        }
+        assertEquals(expected.getPurchasesTypesSumSorted(), actual.getPurchasesTypesSumSorted());
+        assertEquals(expected.getTopPurchases(20), actual.getTopPurchases(20));
+        LocalDate first = LocalDate.of(2026, 1, 10);
+        LocalDate last = LocalDate.of(2026, 2, 10);
+        for (int category = 0; category < expected.getCategoryCount(); category++) {
+            assertEquals(expected.getPurchaseListSumCents(category, first, last),
+                    actual.getPurchaseListSumCents(category, first, last));
+        }
+        TransactionLog.View expectedLog = expected.getTransactions();
+        TransactionLog.View actualLog = actual.getTransactions();
+        assertEquals(expectedLog.size(), actualLog.size());
+        for (int row = 0; row < expectedLog.size(); row++) {
+            assertEquals(expectedLog.timestampAt(row), actualLog.timestampAt(row));
+            assertEquals(expectedLog.categoryAt(row), actualLog.categoryAt(row));
+            assertEquals(expectedLog.nameAt(row), actualLog.nameAt(row));
+            assertEquals(expectedLog.centsAt(row), actualLog.centsAt(row));
+        }
+        actual.verifyPurchasesTotalSum();
+    }
+}
@@ -0,0 +1,254 @@
+package budget;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LedgerViewTest {
+    private static final int NAMES = 2_000;
+
+    /**
+     * A search writing into a stuck Appendable holds the lock of the last category; the view
+     * waits for that category only, the writers of the other categories go on meanwhile
+     */
+    @Test
+    public void viewWaitingForOneCategoryDoesNotHoldUpTheOthers() throws Exception {
+        DataManager dataManager = new DataManager(Path.of("unused.txt"), BigDecimal.ZERO);
+        int last = dataManager.getCategoryCount() - 1;
+        dataManager.addPurchaseToList(last, "Held", 100);
+        CountDownLatch held = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread search = new Thread(() -> {
+            try {
+                dataManager.writeSearchResults("Held", new StuckAppendable(held, release));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        search.start();
+        assertTrue(held.await(10, TimeUnit.SECONDS));
+
+        CompletableFuture<LedgerView> view = CompletableFuture.supplyAsync(dataManager::getView);
+        try {
+            CompletableFuture<Void> writers = CompletableFuture.runAsync(() -> {
+                for (int i = 0; i < 1_000; i++) {
+                    dataManager.addPurchaseToList(i % last, "Item " + i, 1 + i);
+                }
+            });
+            writers.get(10, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+        }
+        search.join();
+        LedgerView taken = view.get(10, TimeUnit.SECONDS);
+        assertEquals(0, taken.getPurchasesTotalSum().compareTo(sumOfCategories(taken)));
+        assertEquals(1, taken.getCategory(last).size());
+    }
+
+    /**
+     * A view copies the changed categories only: with one large category left alone, the views
+     * taken while a writer adds to a small one cost a fraction of a view that copies the large one
+     */
+    @Test
+    public void viewCostGrowsWithTheChangedCategoriesOnly() throws Exception {
+        DataManager dataManager = new DataManager(Path.of("unused.txt"), BigDecimal.ZERO);
+        for (int i = 0; i < 300_000; i++) {
+            dataManager.addPurchaseToList(0, "Large " + i, 1 + i % 1_000);
+        }
+        dataManager.getView();
+
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicLong added = new AtomicLong();
+        Thread writer = new Thread(() -> {
+            while (writing.get()) {
+                dataManager.addPurchaseToList(1, "Small " + added.get() % NAMES, 100);
+                added.incrementAndGet();
+            }
+        });
+        writer.start();
+        long changedLarge = 0;
+        long unchangedLarge = 0;
+        int rounds = 20;
+        try {
+            for (int round = 0; round < rounds; round++) {
+                dataManager.addPurchaseToList(0, "Large " + round, 1);
+                long start = System.nanoTime();
+                dataManager.getView();
+                changedLarge += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                dataManager.getView();
+                unchangedLarge += System.nanoTime() - start;
+            }
+        } finally {
+            writing.set(false);
+            writer.join();
+        }
+        assertTrue("the writer went on", added.get() > 0);
+        assertTrue("views copying 300k purchases took " + changedLarge / rounds / 1_000 + " us, the others "
+                + unchangedLarge / rounds / 1_000 + " us", unchangedLarge * 4 < changedLarge);
+        dataManager.verifyPurchasesTotalSum();
+    }
+
+    /**
+     * Every view a reader takes while a writer adds is consistent in itself and never changes
+     */
+    @Test
+    public void viewsStayConsistentWhileAWriterAdds() throws Exception {
+        DataManager dataManager = new DataManager(Path.of("unused.txt"), BigDecimal.valueOf(1_000_000));
+        int categories = dataManager.getCategoryCount();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicLong added = new AtomicLong();
+        Thread writer = new Thread(() -> {
+            while (writing.get()) {
+                long i = added.get();
+                dataManager.addPurchaseToList((int) (i % categories), "Item " + (i % NAMES), 1 + i % 500);
+                added.incrementAndGet();
+            }
+        });
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        writer.setUncaughtExceptionHandler((thread, e) -> failure.set(e));
+        writer.start();
+        try {
+            BigDecimal previous = BigDecimal.ZERO;
+            for (int i = 0; i < 100; i++) {
+                LedgerView view = dataManager.getView();
+                BigDecimal total = view.getPurchasesTotalSum();
+                assertTrue("a later view never has less", total.compareTo(previous) >= 0);
+                previous = total;
+                assertEquals(0, total.compareTo(sumOfCategories(view)));
+
+                StringBuilder sorted = new StringBuilder();
+                assertEquals(view.getPurchaseCount(), view.writePurchaseTotalContentPriceSorted(sorted));
+                assertEquals("the lines add up to the total", 0, total.compareTo(sumOf(sorted, true)));
+                StringBuilder content = new StringBuilder();
+                view.writePurchaseTotalContent(content);
+                assertEquals(0, total.compareTo(sumOf(content, false)));
+                StringBuilder again = new StringBuilder();
+                view.writePurchaseTotalContent(again);
+                assertEquals("a view never changes", content.toString(), again.toString());
+            }
+        } finally {
+            writing.set(false);
+            writer.join();
+        }
+        assertNull(failure.get());
+        assertEquals(0, dataManager.getPurchasesTotalSum().compareTo(dataManager.getView().getPurchasesTotalSum()));
+        assertEquals(added.get(), dataManager.getTransactions().size());
+        dataManager.verifyPurchasesTotalSum();
+    }
+
+    /**
+     * Every save taken while a writer adds to all categories has the transactions of exactly
+     * the purchases in its category sections
+     */
+    @Test
+    public void savesMatchTheirTransactionsWhileAWriterAdds() throws Exception {
+        Path directory = Files.createTempDirectory("ledger-view");
+        DataManager dataManager = new DataManager(directory.resolve("unused.txt"), BigDecimal.ZERO);
+        int categories = dataManager.getCategoryCount();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicLong added = new AtomicLong();
+        Thread writer = new Thread(() -> {
+            while (writing.get() && added.get() < 100_000) {
+                long i = added.getAndIncrement();
+                dataManager.addPurchaseToList((int) (i % categories), "Item " + i, 1 + i % 500);
+            }
+        });
+        writer.start();
+        try {
+            for (int i = 0; i < 10; i++) {
+                for (String extension : new String[]{".txt", ".bin"}) {
+                    Path saved = directory.resolve("saved" + i + extension);
+                    dataManager.exportData(saved);
+                    DataManager loaded = new DataManager(saved, BigDecimal.ZERO);
+                    loaded.loadData();
+                    TransactionLog.View log = loaded.getTransactions();
+                    long logCents = 0;
+                    for (int row = 0; row < log.size(); row++) {
+                        logCents += log.centsAt(row);
+                    }
+                    assertEquals(saved + " has the purchases of its log", loaded.getPurchaseCount(), log.size());
+                    assertEquals(saved + " has the sum of its log",
+                            0, loaded.getPurchasesTotalSum().compareTo(Cents.toBigDecimal(logCents)));
+                }
+            }
+        } finally {
+            writing.set(false);
+            writer.join();
+        }
+        assertTrue("the writer went on", added.get() > 0);
+    }
+
+    private static BigDecimal sumOfCategories(LedgerView view) {
+        BigDecimal sum = BigDecimal.ZERO;
+        for (int category = 0; category < view.getCategoryCount(); category++) {
+            sum = sum.add(view.getPurchaseListSum(category));
+        }
+        return sum;
+    }
+
+    private static BigDecimal sumOf(CharSequence report, boolean descending) {
+        BigDecimal sum = BigDecimal.ZERO;
+        BigDecimal previous = null;
+        for (String line : report.toString().split("\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            BigDecimal price = new BigDecimal(line.substring(line.lastIndexOf('$') + 1));
+            if (descending && previous != null) {
+                assertTrue("the purchases are sorted by price", price.compareTo(previous) <= 0);
+            }
+            previous = price;
+            sum = sum.add(price);
+        }
+        return sum;
+    }
+
+    /**
+     * Blocks the first write until released
+     */
+    private static final class StuckAppendable implements Appendable {
+        private final CountDownLatch held;
+        private final CountDownLatch release;
+
+        StuckAppendable(CountDownLatch held, CountDownLatch release) {
+            this.held = held;
+            this.release = release;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            held.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return this;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            return append(csq.subSequence(start, end));
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            return append(String.valueOf(c));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package budget;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class NameDictionaryTest {
+    private static final int NAMES = 40_000;
+    private static final int WRITERS = 4;
+    private static final int READERS = 2;
+
+    @Test
+    public void internsAndReadsConcurrentlyOnTheHeap() throws Exception {
+        internAndReadConcurrently(ColumnStorage.HEAP);
+    }
+
+    @Test
+    public void internsAndReadsConcurrentlyOffTheHeap() throws Exception {
+        internAndReadConcurrently(ColumnStorage.OFF_HEAP);
+    }
+
+    /**
+     * Writers intern overlapping names (so the same name races for its id) while the arena
+     * and the table grow; readers resolve and compare every id as soon as it is published
+     */
+    private static void internAndReadConcurrently(ColumnStorage storage) throws Exception {
+        final NameDictionary dictionary = new NameDictionary(storage);
+        final Map<String, Integer> published = new ConcurrentHashMap<>();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch writersDone = new CountDownLatch(WRITERS);
+        final List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            final int writer = w;
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < NAMES; i++) {
+                        String name = nameOf((i * 7 + writer * NAMES / WRITERS) % NAMES);
+                        int id = dictionary.intern(name);
+                        Integer earlier = published.putIfAbsent(name, id);
+                        if (earlier != null && earlier != id) {
+                            throw new AssertionError(name + " interned as " + earlier + " and " + id);
+                        }
+                        if (dictionary.find(name) != id) {
+                            throw new AssertionError(name + " not found as " + id);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    writersDone.countDown();
+                }
+            }));
+        }
+        for (int r = 0; r < READERS; r++) {
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                    do {
+                        String previousName = null;
+                        int previousId = -1;
+                        for (Map.Entry<String, Integer> entry : published.entrySet()) {
+                            String name = dictionary.nameOf(entry.getValue());
+                            if (!name.equals(entry.getKey())) {
+                                throw new AssertionError(entry.getValue() + " resolved to " + name + ", not " + entry.getKey());
+                            }
+                            if (previousName != null && Integer.signum(dictionary.compare(previousId, entry.getValue()))
+                                    != Integer.signum(previousName.compareTo(name))) {
+                                throw new AssertionError(previousName + " and " + name + " compare wrong");
+                            }
+                            previousName = name;
+                            previousId = entry.getValue();
+                        }
+                    } while (writersDone.getCount() > 0);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+
+        assertEquals(NAMES, dictionary.size());
+        Set<Integer> ids = new HashSet<>(published.values());
+        assertEquals(NAMES, ids.size());
+        for (int i = 0; i < NAMES; i++) {
+            String name = nameOf(i);
+            assertEquals(name, dictionary.nameOf(dictionary.find(name)));
+        }
+    }
+
+    /**
+     * Long enough to grow the arena past one off-heap chunk; every fifth name is UTF-16
+     */
+    private static String nameOf(int i) {
+        return (i % 5 == 0 ? "\u20ac\u00e9 " : "Purchase number ") + i + " of the concurrency test";
+    }
+}
@@ -0,0 +1,136 @@
+package budget;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class NameIndexTest {
+    /** Latin-1 letters are stored as bytes, the others make the name UTF-16 */
+    private static final String[] LETTERS = {"a", "b", "B", "\u00e9", "\u00ff", "\u0101", "\u20ac", "\ud83d\ude00"};
+
+    @Test
+    public void insertedNamesAreFoundByEveryPrefix() {
+        for (ColumnStorage storage : ColumnStorage.values()) {
+            Random random = new Random(12);
+            PurchaseMap purchases = new PurchaseMap(new NameDictionary(storage));
+            NameIndex index = new NameIndex(purchases);
+            for (int i = 0; i < 3_000; i++) {
+                String name = randomName(random, 1 + random.nextInt(5));
+                if (!purchases.containsKey(name)) {
+                    index.insert(purchases.add(name, i));
+                }
+            }
+            assertSearches(storage.toString(), purchases, index, random);
+        }
+    }
+
+    @Test
+    public void rebuiltIndexMatchesTheInsertedOne() {
+        for (ColumnStorage storage : ColumnStorage.values()) {
+            Random random = new Random(19);
+            PurchaseMap purchases = new PurchaseMap(new NameDictionary(storage));
+            for (int i = 0; i < 3_000; i++) {
+                purchases.merge(randomName(random, 1 + random.nextInt(5)), i);
+            }
+            NameIndex index = new NameIndex(purchases);
+            index.rebuild();
+            assertSearches(storage + " rebuilt", purchases, index, random);
+
+            for (int i = 0; i < 1_000; i++) {
+                String name = randomName(random, 1 + random.nextInt(6));
+                if (!purchases.containsKey(name)) {
+                    index.insert(purchases.add(name, i));
+                }
+            }
+            assertSearches(storage + " inserted after the rebuild", purchases, index, random);
+        }
+    }
+
+    @Test
+    public void rebuildFromAnOrderChecksIt() {
+        Random random = new Random(23);
+        PurchaseMap purchases = new PurchaseMap();
+        for (int i = 0; i < 2_000; i++) {
+            purchases.merge(randomName(random, 1 + random.nextInt(6)), i);
+        }
+        NameIndex index = new NameIndex(purchases);
+        index.rebuild();
+        int[] order = index.order();
+        index.rebuild(order);
+        assertSearches("kept order", purchases, index, random);
+
+        for (int i = 0; i < order.length / 2; i++) {
+            int swap = order[i];
+            order[i] = order[order.length - 1 - i];
+            order[order.length - 1 - i] = swap;
+        }
+        index.rebuild(order);
+        assertSearches("wrong order", purchases, index, random);
+        order[0] = -1;
+        index.rebuild(order);
+        assertSearches("no permutation", purchases, index, random);
+    }
+
+    @Test
+    public void copiesAreFrozen() {
+        PurchaseMap purchases = new PurchaseMap();
+        NameIndex index = new NameIndex(purchases);
+        for (int i = 0; i < 100; i++) {
+            index.insert(purchases.add("Item " + i, i));
+        }
+        NameIndex copy = new NameIndex(purchases);
+        copy.copyFrom(index);
+        List<String> before = search(purchases, copy, "Item 1");
+        for (int i = 100; i < 200; i++) {
+            index.insert(purchases.add("Item " + i, i));
+        }
+        assertEquals(before, search(purchases, copy, "Item 1"));
+        assertEquals(expected(purchases, "Item 1"), search(purchases, index, "Item 1"));
+    }
+
+    private static void assertSearches(String message, PurchaseMap purchases, NameIndex index, Random random) {
+        assertEquals(message, expected(purchases, ""), search(purchases, index, ""));
+        for (int i = 0; i < 500; i++) {
+            String prefix = randomName(random, random.nextInt(4));
+            assertEquals(message + " prefix " + prefix, expected(purchases, prefix), search(purchases, index, prefix));
+        }
+        assertEquals(message, List.of(), search(purchases, index, "zzz"));
+        String highSurrogate = "\ud83d";           // half a character matches by char, like String
+        assertEquals(message, expected(purchases, highSurrogate), search(purchases, index, highSurrogate));
+    }
+
+    /**
+     * The names starting with the prefix in String order
+     */
+    private static List<String> expected(PurchaseMap purchases, String prefix) {
+        List<String> names = new ArrayList<>();
+        for (int id = 0; id < purchases.size(); id++) {
+            if (purchases.keyAt(id).startsWith(prefix)) {
+                names.add(purchases.keyAt(id));
+            }
+        }
+        names.sort(null);
+        return names;
+    }
+
+    private static List<String> search(PurchaseMap purchases, NameIndex index, String prefix) {
+        List<String> names = new ArrayList<>();
+        for (NameIndex.Cursor cursor = index.cursor(prefix); cursor.hasNext(); ) {
+            names.add(purchases.keyAt(cursor.next()));
+        }
+        return names;
+    }
+
+    private static String randomName(Random random, int letters) {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < letters; i++) {
+            // mostly Latin-1, so both kinds of names share prefixes
+            name.append(LETTERS[random.nextInt(4) == 0 ? random.nextInt(LETTERS.length) : random.nextInt(3)]);
+        }
+        return name.toString();
+    }
+}
@@ -0,0 +1,199 @@
+package budget;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class PriceIndexTest {
+
+    @Test
+    public void insertsAndPriceChangesKeepThePriceOrder() {
+        for (ColumnStorage storage : ColumnStorage.values()) {
+            Random random = new Random(21);
+            PurchaseMap purchases = new PurchaseMap(new NameDictionary(storage));
+            PriceIndex index = new PriceIndex(purchases);
+            for (int step = 0; step < 5_000; step++) {
+                String name = "Item " + random.nextInt(1_500);
+                long cents = random.nextInt(200) - 20;          // many equal prices
+                int id = purchases.find(name);
+                if (id < 0) {
+                    index.insert(purchases.add(name, cents));
+                } else {
+                    index.addToPrice(id, cents);
+                }
+                if (step % 500 == 0) {
+                    assertOrder(storage + " step " + step, purchases, index);
+                }
+            }
+            assertOrder(storage.toString(), purchases, index);
+        }
+    }
+
+    @Test
+    public void removedEntriesLeaveTheOrder() {
+        Random random = new Random(8);
+        PurchaseMap purchases = new PurchaseMap();
+        PriceIndex index = new PriceIndex(purchases);
+        for (int i = 0; i < 2_000; i++) {
+            index.insert(purchases.add("Item " + i, random.nextInt(100)));
+        }
+        List<Integer> removed = new ArrayList<>();
+        for (int i = 0; i < 700; i++) {
+            int id = random.nextInt(purchases.size());
+            if (!removed.contains(id)) {
+                index.remove(id);
+                removed.add(id);
+            }
+        }
+        List<Integer> expected = sortedIds(purchases);
+        expected.removeAll(removed);
+        assertEquals(expected, walk(index, 0));
+
+        for (int id : removed) {
+            index.insert(id);
+        }
+        assertOrder("reinserted", purchases, index);
+        int cheapest = expected.get(expected.size() - 1);
+        purchases.addTo(cheapest, 1_000);                   // changed without addToPrice
+        try {
+            index.remove(cheapest);
+            fail("the entry is searched at its new price");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void cursorsStartAtEveryRank() {
+        Random random = new Random(4);
+        PurchaseMap purchases = new PurchaseMap();
+        PriceIndex index = new PriceIndex(purchases);
+        for (int i = 0; i < 600; i++) {
+            index.insert(purchases.add("Item " + i, random.nextInt(50)));
+        }
+        List<Integer> expected = sortedIds(purchases);
+        for (int offset = 0; offset <= expected.size(); offset++) {
+            assertEquals("offset " + offset, expected.subList(offset, expected.size()), walk(index, offset));
+        }
+        assertFalse(index.cursor(expected.size() + 10).hasNext());
+
+        int pageSize = 25;
+        for (int offset = 0; offset < expected.size(); offset += pageSize) {
+            PriceIndex.Cursor cursor = index.cursor(offset);
+            List<Integer> page = new ArrayList<>();
+            while (cursor.hasNext() && page.size() < pageSize) {
+                page.add(cursor.next());
+            }
+            assertEquals(expected.subList(offset, Math.min(offset + pageSize, expected.size())), page);
+        }
+    }
+
+    @Test
+    public void rebuiltIndexAcceptsFurtherChanges() {
+        for (ColumnStorage storage : ColumnStorage.values()) {
+            Random random = new Random(30);
+            PurchaseMap purchases = new PurchaseMap(new NameDictionary(storage));
+            for (int i = 0; i < 10_000; i++) {      // a bulk load merges without the index
+                purchases.merge("Item " + random.nextInt(3_000), random.nextInt(1_000));
+            }
+            PriceIndex index = new PriceIndex(purchases);
+            index.rebuild();
+            assertOrder(storage + " rebuilt", purchases, index);
+
+            for (int i = 0; i < 3_000; i++) {
+                String name = "Item " + random.nextInt(4_000);
+                int id = purchases.find(name);
+                if (id < 0) {
+                    index.insert(purchases.add(name, random.nextInt(1_000)));
+                } else {
+                    index.addToPrice(id, random.nextInt(1_000) - 500);
+                }
+            }
+            assertOrder(storage + " changed", purchases, index);
+        }
+    }
+
+    @Test
+    public void rebuildFromAnOrderChecksIt() {
+        Random random = new Random(17);
+        PurchaseMap purchases = new PurchaseMap();
+        PriceIndex index = new PriceIndex(purchases);
+        for (int i = 0; i < 1_000; i++) {
+            index.insert(purchases.add("Item " + i, random.nextInt(100)));
+        }
+        int[] order = index.order();
+        assertEquals(sortedIds(purchases), toList(order));
+        index.rebuild(order);
+        assertOrder("kept order", purchases, index);
+
+        int[] reversed = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            reversed[i] = order[order.length - 1 - i];
+        }
+        index.rebuild(reversed);
+        assertOrder("wrong order", purchases, index);
+        order[1] = order[0];
+        index.rebuild(order);
+        assertOrder("no permutation", purchases, index);
+        index.rebuild(new int[10]);
+        assertOrder("too short", purchases, index);
+    }
+
+    @Test
+    public void copiesAreFrozen() {
+        PurchaseMap purchases = new PurchaseMap();
+        PriceIndex index = new PriceIndex(purchases);
+        for (int i = 0; i < 100; i++) {
+            index.insert(purchases.add("Item " + i, i));
+        }
+        PriceIndex copy = new PriceIndex(index);
+        List<Integer> before = walk(copy, 0);
+        for (int i = 100; i < 200; i++) {
+            index.insert(purchases.add("Item " + i, i));
+        }
+        assertEquals(before, walk(copy, 0));
+        assertEquals(200, index.size());
+        assertEquals(100, copy.size());
+    }
+
+    /**
+     * The order of the Analyze menu: price descending, equal prices by name descending
+     */
+    private static List<Integer> sortedIds(PurchaseMap purchases) {
+        List<Integer> ids = new ArrayList<>();
+        for (int id = 0; id < purchases.size(); id++) {
+            ids.add(id);
+        }
+        ids.sort(Comparator.comparingLong((Integer id) -> purchases.valueAt(id)).reversed()
+                .thenComparing((Integer id) -> purchases.keyAt(id), Comparator.reverseOrder()));
+        return ids;
+    }
+
+    private static List<Integer> toList(int[] ids) {
+        List<Integer> list = new ArrayList<>();
+        for (int id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+
+    private static List<Integer> walk(PriceIndex index, int offset) {
+        List<Integer> ids = new ArrayList<>();
+        for (PriceIndex.Cursor cursor = index.cursor(offset); cursor.hasNext(); ) {
+            ids.add(cursor.next());
+        }
+        return ids;
+    }
+
+    private static void assertOrder(String message, PurchaseMap purchases, PriceIndex index) {
+        assertEquals(message, purchases.size(), index.size());
+        assertEquals(message, sortedIds(purchases), walk(index, 0));
+    }
+}
@@ -0,0 +1,139 @@
+package budget;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+
+public class ShardedLedgerTest {
+    private static final long DAY = 86_400_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shardedLedgerReadsTheSameLedger() throws Exception {
+        Path ledger = folder.getRoot().toPath().resolve("purchases.ledger");
+        DataManager saved = ledgerOf(ledger);
+        saved.registerCategory("Travel");
+        saved.addPurchaseToList(saved.getCategoryCount() - 1, "Train", 4_250, 1_000L);
+        saved.saveData();
+        assertEquals(saved.getCategoryCount(), ShardedLedger.readManifest(ledger).shards.size());
+
+        DataManager loaded = new DataManager(ledger, BigDecimal.ZERO);
+        loaded.loadData();
+        assertSameReports(saved, loaded);
+    }
+
+    @Test
+    public void saveReplacesTheShardsOfTheLastSave() throws Exception {
+        Path ledger = folder.getRoot().toPath().resolve("purchases.ledger");
+        DataManager saved = ledgerOf(ledger);
+        saved.saveData();
+        saved.addPurchaseToList(0, "Milk", 350, 2_000L);
+        saved.saveData();
+
+        ShardedLedger.Manifest manifest = ShardedLedger.readManifest(ledger);
+        assertEquals(2, manifest.generation);
+        Set<String> expected = new TreeSet<>();
+        expected.add(ShardedLedger.MANIFEST);
+        for (ShardedLedger.Shard shard : manifest.shards) {
+            expected.add(shard.file);
+        }
+        assertEquals(expected, filesOf(ledger));
+    }
+
+    @Test
+    public void unfinishedSaveLeavesTheLastLedger() throws Exception {
+        Path ledger = folder.getRoot().toPath().resolve("purchases.ledger");
+        DataManager saved = ledgerOf(ledger);
+        saved.saveData();
+        // shards of a save which stopped before its manifest
+        Files.write(ledger.resolve(ShardedLedger.shardFile(2, 0)), "[Food]\nPaper clips $100.00\n".getBytes());
+        Files.write(ledger.resolve(ShardedLedger.shardFile(2, 1) + ".tmp"), "[Clothes]\n".getBytes());
+
+        DataManager loaded = new DataManager(ledger, BigDecimal.ZERO);
+        loaded.loadData();
+        assertSameReports(saved, loaded);
+
+        loaded.saveData();          // the next save writes over them
+        ShardedLedger.Manifest manifest = ShardedLedger.readManifest(ledger);
+        assertEquals(2, manifest.generation);
+        assertEquals(manifest.shards.size() + 1, filesOf(ledger).size());
+        DataManager reloaded = new DataManager(ledger, BigDecimal.ZERO);
+        reloaded.loadData();
+        assertSameReports(saved, reloaded);
+    }
+
+    @Test
+    public void shardEditedInPlaceIsNotTakenFromItsIndex() throws Exception {
+        Path ledger = folder.getRoot().toPath().resolve("purchases.ledger");
+        DataManager saved = ledgerOf(ledger);
+        saved.saveData();
+        ShardedLedger.Shard shard = ShardedLedger.readManifest(ledger).shards.get(2);
+        long delta = LedgerIndexTest.editPriceInPlace(ledger.resolve(shard.file), shard.category);
+
+        DataManager loaded = new DataManager(ledger, BigDecimal.ZERO);
+        loaded.loadData();
+        assertEquals(0, saved.getPurchaseListSum(2).add(Cents.toBigDecimal(delta))
+                .compareTo(loaded.getPurchaseListSum(2)));
+        assertEquals(0, saved.getBalance().subtract(Cents.toBigDecimal(delta)).compareTo(loaded.getBalance()));
+        loaded.verifyPurchasesTotalSum();
+    }
+
+    private static Set<String> filesOf(Path directory) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).collect(Collectors.toCollection(TreeSet::new));
+        }
+    }
+
+    private static DataManager ledgerOf(Path ledger) {
+        DataManager dataManager = new DataManager(ledger, BigDecimal.ZERO);
+        dataManager.setIncome(new BigDecimal("100000"));
+        Random random = new Random(11);
+        long start = LocalDate.of(2026, 1, 1).toEpochDay() * DAY;
+        for (int i = 0; i < 5_000; i++) {
+            dataManager.addPurchaseToList(random.nextInt(dataManager.getCategoryCount()),
+                    "Item " + random.nextInt(800), 1 + random.nextInt(10_000), start + random.nextInt(60) * DAY);
+        }
+        return dataManager;
+    }
+
+    private static void assertSameReports(DataManager expected, DataManager actual) {
+        assertEquals(0, expected.getIncome().compareTo(actual.getIncome()));
+        assertEquals(0, expected.getBalance().compareTo(actual.getBalance()));
+        assertEquals(expected.getCategoryCount(), actual.getCategoryCount());
+        for (int category = 0; category < expected.getCategoryCount(); category++) {
+            assertEquals(0, expected.getPurchaseListSum(category).compareTo(actual.getPurchaseListSum(category)));
+            assertEquals(expected.getPurchaseListContent(category), actual.getPurchaseListContent(category));
+        }
+        assertEquals(expected.getPurchasesTypesSumSorted(), actual.getPurchasesTypesSumSorted());
+        LocalDate first = LocalDate.of(2026, 1, 10);
+        LocalDate last = LocalDate.of(2026, 2, 10);
+        for (int category = 0; category < expected.getCategoryCount(); category++) {
+            assertEquals(expected.getPurchaseListSumCents(category, first, last),
+                    actual.getPurchaseListSumCents(category, first, last));
+        }
+        TransactionLog.View expectedLog = expected.getTransactions();
+        TransactionLog.View actualLog = actual.getTransactions();
+        assertEquals(expectedLog.size(), actualLog.size());
+        for (int row = 0; row < expectedLog.size(); row++) {
+            assertEquals(expectedLog.timestampAt(row), actualLog.timestampAt(row));
+            assertEquals(expectedLog.categoryAt(row), actualLog.categoryAt(row));
+            assertEquals(expectedLog.nameAt(row), actualLog.nameAt(row));
+            assertEquals(expectedLog.centsAt(row), actualLog.centsAt(row));
+        }
+        actual.verifyPurchasesTotalSum();
+    }
+}
@@ -0,0 +1,197 @@
+package budget;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TransactionLogTest {
+    private static final int CATEGORIES = 4;
+
+    /**
+     * Appends used to synchronize on the log and interning on the dictionary, so adds to
+     * different categories queued up behind each other. With both monitors held here, adds of
+     * known names to every category still finish.
+     */
+    @Test
+    public void writersOfDifferentCategoriesDoNotShareALock() throws Exception {
+        NameDictionary dictionary = new NameDictionary();
+        TransactionLog log = new TransactionLog(dictionary);
+        for (int category = 0; category < CATEGORIES; category++) {
+            dictionary.intern("Item " + category);
+        }
+        ExecutorService writers = Executors.newFixedThreadPool(CATEGORIES);
+        try {
+            synchronized (log) {
+                synchronized (dictionary) {
+                    List<Future<?>> appends = new ArrayList<>();
+                    for (int category = 0; category < CATEGORIES; category++) {
+                        final int c = category;
+                        appends.add(writers.submit(() -> {
+                            for (int i = 0; i < 10_000; i++) {
+                                log.append(i, c, "Item " + c, 100);
+                            }
+                        }));
+                    }
+                    for (Future<?> append : appends) {
+                        append.get(30, TimeUnit.SECONDS);
+                    }
+                }
+            }
+        } finally {
+            writers.shutdownNow();
+        }
+        assertEquals(CATEGORIES * 10_000, log.size());
+    }
+
+    @Test
+    public void purchasesOfDifferentCategoriesDoNotShareALock() throws Exception {
+        DataManager dataManager = new DataManager(Path.of("unused.txt"), BigDecimal.ZERO);
+        for (int category = 0; category < CATEGORIES; category++) {
+            dataManager.addPurchaseToList(category, "Item " + category, 100, 0L);
+        }
+        NameDictionary dictionary = dataManager.getTransactions().dictionary();
+        ExecutorService writers = Executors.newFixedThreadPool(CATEGORIES);
+        try {
+            synchronized (dictionary) {
+                List<Future<?>> adds = new ArrayList<>();
+                for (int category = 0; category < CATEGORIES; category++) {
+                    final int c = category;
+                    adds.add(writers.submit(() -> {
+                        for (int i = 0; i < 5_000; i++) {
+                            dataManager.addPurchaseToList(c, "Item " + c, 100, 0L);
+                        }
+                    }));
+                }
+                for (Future<?> add : adds) {
+                    add.get(30, TimeUnit.SECONDS);
+                }
+            }
+        } finally {
+            writers.shutdownNow();
+        }
+        assertEquals(CATEGORIES * 5_001, dataManager.getTransactions().size());
+        dataManager.verifyPurchasesTotalSum();
+    }
+
+    /**
+     * Every writer appends its category with the prices 0, 1, 2...; every view a reader takes
+     * meanwhile has to hold each writer's rows in order without gaps
+     */
+    @Test
+    public void viewsAreWrittenPrefixesOfConcurrentAppends() throws Exception {
+        for (ColumnStorage storage : ColumnStorage.values()) {
+            TransactionLog log = new TransactionLog(new NameDictionary(storage));
+            int name = log.view().dictionary().intern("Milk");
+            int rowsPerWriter = 30_000;         // several segments
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            List<Thread> writers = new ArrayList<>();
+            for (int category = 0; category < CATEGORIES; category++) {
+                final int c = category;
+                writers.add(new Thread(() -> {
+                    for (int i = 0; i < rowsPerWriter; i++) {
+                        log.appendName(i, c, name, i);
+                    }
+                }));
+            }
+            Thread reader = new Thread(() -> {
+                try {
+                    boolean writing = true;
+                    while (writing) {
+                        writing = writers.stream().anyMatch(Thread::isAlive);
+                        assertOrdered(log.view());
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            });
+            writers.forEach(Thread::start);
+            reader.start();
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            reader.join();
+            assertNull(failure.get());
+            TransactionLog.View view = log.view();
+            assertEquals(CATEGORIES * rowsPerWriter, view.size());
+            assertEquals(CATEGORIES * rowsPerWriter, (long) count(view));
+            assertOrdered(view);
+        }
+    }
+
+    @Test
+    public void prependedTransactionsGoBeforeTheAppendedOnes() throws Exception {
+        NameDictionary dictionary = new NameDictionary();
+        TransactionLog log = new TransactionLog(dictionary);
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 20_000; i++) {
+                log.append(1_000 + i, 1, "New", i);
+            }
+        });
+        writer.start();
+        TransactionLog oldest = new TransactionLog(dictionary);
+        TransactionLog older = new TransactionLog(dictionary);
+        for (int i = 0; i < 500; i++) {
+            oldest.append(i, 0, "Oldest", i);
+            older.append(500 + i, 0, "Older", i);
+        }
+        log.prepend(older.view());
+        log.prepend(oldest.view());
+        writer.join();
+
+        TransactionLog.View view = log.view();
+        assertEquals(21_000, view.size());
+        for (int row = 0; row < view.size(); row++) {
+            assertEquals(row, view.timestampAt(row));
+        }
+        assertEquals("Oldest", view.nameAt(0));
+        assertEquals("Older", view.nameAt(500));
+        assertEquals("New", view.nameAt(1_000));
+        List<Long> times = new ArrayList<>();
+        view.forEach((timestamp, category, name, priceCents) -> times.add(timestamp));
+        assertEquals(21_000, times.size());
+        assertEquals(20_999L, (long) times.get(20_999));
+    }
+
+    @Test
+    public void clearedLogKeepsEarlierViews() {
+        NameDictionary names = new NameDictionary();
+        TransactionLog log = new TransactionLog(names);
+        log.appendAll(42, 2, new int[]{names.intern("Milk"), names.intern("Eggs")}, new long[]{350, 399});
+        TransactionLog.View before = log.view();
+        log.clear();
+        log.append(43, 0, "Bread", 250);
+
+        assertEquals(2, before.size());
+        assertEquals("Milk", before.nameAt(0));
+        assertEquals(399, before.centsAt(1));
+        assertEquals(2, before.categoryAt(1));
+        assertEquals(1, log.size());
+        assertEquals("Bread", log.view().nameAt(0));
+    }
+
+    private static void assertOrdered(TransactionLog.View view) {
+        long[] next = new long[CATEGORIES];
+        for (int row = 0; row < view.size(); row++) {
+            int category = view.categoryAt(row);
+            assertEquals("row " + row, next[category]++, view.centsAt(row));
+            assertEquals("row " + row, view.centsAt(row), view.timestampAt(row));
+        }
+    }
+
+    private static int count(TransactionLog.View view) {
+        int[] rows = new int[1];
+        view.forEach((timestamp, category, name, priceCents) -> rows[0]++);
+        return rows[0];
+    }
+}
@@ -0,0 +1,61 @@
+package budget;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures DataManager.importPurchases on generated ledgers and CSV exports.
+ * Usage: BulkImportBenchmark [rows per file] [files]
+ */
+public class BulkImportBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int fileCount = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+        Path directory = Files.createTempDirectory("import");
+        List<Path> files = new ArrayList<>();
+        try {
+            for (int f = 0; f < fileCount; f++) {
+                files.add(f % 2 == 0
+                        ? SyntheticLedger.write(directory.resolve("ledger" + f + ".txt"), rows, f)
+                        : writeCsv(directory.resolve("export" + f + ".csv"), rows, f));
+            }
+            for (int round = 1; round <= 3; round++) {
+                DataManager dataManager = new DataManager(directory.resolve("purchases.txt"), BigDecimal.ZERO);
+                BulkImporter.ImportReport report = dataManager.importPurchases(files, dataManager.categoryOf("Other"));
+                System.out.println("Round " + round + ": " + report);
+            }
+        } finally {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static Path writeCsv(Path file, int rows, long seed) throws IOException {
+        Random random = new Random(seed);
+        String[] categories = CategoryRegistry.DEFAULT_CATEGORIES;
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("category,name,price\n");
+            for (int i = 0; i < rows; i++) {
+                writer.write(categories[random.nextInt(categories.length)]);
+                writer.write(",\"");
+                writer.write(SyntheticLedger.purchaseName(random, i));
+                writer.write("\",");
+                writer.write(Cents.toPlainString(SyntheticLedger.priceCents(random)));
+                writer.write('\n');
+            }
+            writer.write("Food,broken line\n");
+        }
+        return file;
+    }
+}
@@ -0,0 +1,80 @@
+package budget;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Compares the compressed ledger (see CompressedLedger) with the text one: the file sizes and
+ * the save and load throughput, in MB of text per second. One ledger has distinct names like
+ * SyntheticLedger writes them, the other a purchase history of repetitive names, one purchase
+ * a minute.
+ * Usage: CompressedLedgerReport [entries] [rounds]
+ */
+public class CompressedLedgerReport {
+
+    public static void main(String[] args) throws IOException {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        Path directory = Files.createTempDirectory("ledgers");
+        Path synthetic = directory.resolve("synthetic.txt");
+        try {
+            SyntheticLedger.write(synthetic, entries, 42);
+            DataManager distinct = new DataManager(synthetic, BigDecimal.ZERO);
+            distinct.loadData();
+            Files.delete(synthetic);
+            report("distinct names", distinct, directory, rounds);
+
+            DataManager history = new DataManager(synthetic, BigDecimal.ZERO);
+            Random random = new Random(7);
+            long time = 1_767_225_600_000L;
+            for (int i = 0; i < entries; i++) {
+                time += 60_000;
+                history.addPurchaseToList(random.nextInt(history.getCategoryCount()),
+                        SyntheticLedger.purchaseName(random, i % 50), SyntheticLedger.priceCents(random), time);
+            }
+            report("history", history, directory, rounds);
+        } finally {
+            try (var files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    private static void report(String title, DataManager dataManager, Path directory, int rounds) throws IOException {
+        Path text = directory.resolve("purchases.txt");
+        Path compressed = directory.resolve("purchases" + LedgerFormat.COMPRESSED_EXTENSION);
+        dataManager.exportData(text);
+        dataManager.exportData(compressed);
+        double megabytes = Files.size(text) / (1024.0 * 1024.0);
+        System.out.printf("%s: %,d purchases, %,d transactions%n", title, dataManager.getPurchaseCount(),
+                dataManager.getTransactions().size());
+        System.out.printf("  text %.1f MB, compressed %.1f MB, ratio %.1f%n", megabytes,
+                Files.size(compressed) / (1024.0 * 1024.0), (double) Files.size(text) / Files.size(compressed));
+        for (Path file : new Path[]{text, compressed}) {
+            DataManager loaded = new DataManager(file, BigDecimal.ZERO);
+            for (int round = 1; round <= rounds; round++) {
+                long start = System.nanoTime();
+                loaded.loadData();
+                loaded.getTransactions();           // the lazily loaded text ledger reads everything
+                loaded.getPurchaseCount();
+                double loadSeconds = (System.nanoTime() - start) / 1e9;
+
+                start = System.nanoTime();
+                loaded.saveData();
+                double saveSeconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("  %-16s round %d: load %.3f s (%.1f MB/s), save %.3f s (%.1f MB/s)%n",
+                        file.getFileName(), round, loadSeconds, megabytes / loadSeconds,
+                        saveSeconds, megabytes / saveSeconds);
+            }
+        }
+        Files.delete(text);
+        Files.delete(compressed);
+    }
+}
@@ -0,0 +1,99 @@
+package budget;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DataManager reads on a loaded synthetic ledger: the balance and the sorted list of all purchases,
+ * rendered into a String and streamed to a sink that only counts the characters
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DataManagerBenchmark {
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    int entries;
+
+    private DataManager dataManager;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        Path file = Files.createTempFile("purchases", ".txt");
+        try {
+            SyntheticLedger.write(file, entries, 42);
+            dataManager = new DataManager(file, BigDecimal.ZERO);
+            dataManager.loadData();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Benchmark
+    public BigDecimal getBalance() {
+        return dataManager.getBalance();
+    }
+
+    @Benchmark
+    public String getPurchaseTotalContentPriceSorted() {
+        return dataManager.getPurchaseTotalContentPriceSorted();
+    }
+
+    @Benchmark
+    public long writePurchaseTotalContentPriceSorted() throws IOException {
+        CountingAppendable out = new CountingAppendable();
+        dataManager.writePurchaseTotalContentPriceSorted(out);
+        return out.length;
+    }
+
+    /**
+     * A prefix matching about one name in 3,000, so the cost should follow the matches
+     * and not the size of the ledger
+     */
+    @Benchmark
+    public long writeSearchResults() throws IOException {
+        CountingAppendable out = new CountingAppendable();
+        dataManager.writeSearchResults("Lamp Milk #1", out);
+        return out.length;
+    }
+
+    static class CountingAppendable implements Appendable {
+        long length;
+
+        @Override
+        public Appendable append(CharSequence csq) {
+            length += csq.length();
+            return this;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) {
+            length += end - start;
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) {
+            length++;
+            return this;
+        }
+    }
+}
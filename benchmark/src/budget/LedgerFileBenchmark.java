@@ -0,0 +1,91 @@
+package budget;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DataManager.saveData and DataManager.loadData of a synthetic ledger in the text, the binary,
+ * the sharded and the compressed format (see CompressedLedgerReport for its size).
+ * Text ledgers load lazily (see LedgerIndex): loadData only reads the index, the other load
+ * benchmarks read one or all categories after it. Sharded ledgers (see ShardedLedger) are
+ * written and read one task per category, their speedup needs as many cores as categories.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class LedgerFileBenchmark {
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    int entries;
+
+    @Param({".txt", ".bin", ".ledger", ".ledz"})
+    String format;
+
+    private Path directory;
+    private DataManager dataManager;
+
+    @Setup(Level.Trial)
+    public void createLedger() throws IOException {
+        directory = Files.createTempDirectory("ledger");
+        Path text = SyntheticLedger.write(directory.resolve("synthetic.txt"), entries, 42);
+        Path ledger = directory.resolve("purchases" + format);
+        DataManager converter = new DataManager(text, BigDecimal.ZERO);
+        converter.importData(text);
+        converter.exportData(ledger);
+        Files.delete(text);
+        dataManager = new DataManager(ledger, BigDecimal.ZERO);
+        dataManager.loadData();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteLedger() throws IOException {
+        try (var files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public void saveData() throws IOException {
+        dataManager.saveData();
+    }
+
+    @Benchmark
+    public BigDecimal loadData() throws IOException {
+        dataManager.loadData();
+        return dataManager.getPurchasesTotalSum();
+    }
+
+    @Benchmark
+    public int loadDataAndReadOneCategory() throws IOException {
+        dataManager.loadData();
+        return dataManager.getPurchaseCount(0);
+    }
+
+    @Benchmark
+    public long loadDataAndReadAll() throws IOException {
+        dataManager.loadData();
+        return dataManager.getView().getPurchaseCount();
+    }
+}
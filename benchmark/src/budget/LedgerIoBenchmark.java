@@ -0,0 +1,58 @@
+package budget;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures DataManager.loadData throughput (MB/s) and DataManager.saveData latency
+ * on a generated ledger, in the text and in the binary format.
+ * Usage: LedgerIoBenchmark [entries] [rounds]
+ */
+public class LedgerIoBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Path file = Files.createTempFile("purchases", ".txt");
+        Path binaryFile = file.resolveSibling(file.getFileName() + LedgerFormat.BINARY_EXTENSION);
+        try {
+            SyntheticLedger.write(file, entries, 42);
+            double megabytes = Files.size(file) / (1024.0 * 1024.0);
+            System.out.printf("Ledger: %,d purchases, %.1f MB%n", entries, megabytes);
+
+            DataManager dataManager = new DataManager(file, BigDecimal.ZERO);
+            for (int round = 1; round <= rounds; round++) {
+                long start = System.nanoTime();
+                dataManager.loadData();
+                double loadSeconds = (System.nanoTime() - start) / 1e9;
+
+                start = System.nanoTime();
+                dataManager.saveData();
+                double saveSeconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("Round %d: load %.3f s (%.1f MB/s), save %.3f s (%.1f MB/s)%n", round,
+                        loadSeconds, megabytes / loadSeconds, saveSeconds, megabytes / saveSeconds);
+            }
+
+            dataManager.exportData(binaryFile);
+            double binaryMegabytes = Files.size(binaryFile) / (1024.0 * 1024.0);
+            System.out.printf("Binary snapshot: %.1f MB%n", binaryMegabytes);
+            DataManager binaryManager = new DataManager(binaryFile, BigDecimal.ZERO);
+            for (int round = 1; round <= rounds; round++) {
+                long start = System.nanoTime();
+                binaryManager.loadData();
+                double loadSeconds = (System.nanoTime() - start) / 1e9;
+
+                start = System.nanoTime();
+                binaryManager.saveData();
+                double saveSeconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("Binary round %d: load %.3f s, save %.3f s%n", round, loadSeconds, saveSeconds);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(binaryFile);
+        }
+    }
+}
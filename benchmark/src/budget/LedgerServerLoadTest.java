@@ -0,0 +1,171 @@
+package budget;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Many concurrent clients against a LedgerServer, each one sending its next request as soon
+ * as the previous one is answered: 70% add purchase, 20% balance, 10% the top 10 purchases of
+ * a category, every client on one of the ledgers. Reports the requests per second and the
+ * latency percentiles. The clients are asynchronous requests of one HttpClient, so thousands
+ * of them need no thread each. Without a URL the server runs in this JVM on a temporary
+ * directory; for a fair number run it in its own JVM (Main --serve) and pass its URL.
+ * Usage: LedgerServerLoadTest [clients] [seconds] [ledgers] [url, e.g. http://localhost:8080]
+ */
+public class LedgerServerLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int ledgers = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+
+        Path directory = null;
+        LedgerServer server = null;
+        String url;
+        if (args.length > 3) {
+            url = args[3];
+        } else {
+            directory = Files.createTempDirectory("ledgers");
+            server = new LedgerServer(directory, ColumnStorage.HEAP, new InetSocketAddress("localhost", 0));
+            server.start();
+            url = "http://localhost:" + server.getAddress().getPort();
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        HttpClient client = HttpClient.newBuilder()
+                .executor(executor)
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+        try {
+            System.out.printf("%,d clients on %,d ledgers of %s for %d s%n", clients, ledgers, url, seconds);
+            run(client, url, clients, ledgers, 2, false);          // warm up
+            Client[] results = run(client, url, clients, ledgers, seconds, true);
+            report(results, seconds);
+        } finally {
+            executor.shutdownNow();
+            if (server != null) {
+                server.close();
+                try (var files = Files.walk(directory)) {
+                    for (Path file : (Iterable<Path>) files.sorted((a, b) -> b.compareTo(a))::iterator) {
+                        Files.delete(file);
+                    }
+                }
+            }
+        }
+    }
+
+    private static Client[] run(HttpClient http, String url, int clients, int ledgers, int seconds, boolean record)
+            throws InterruptedException {
+        final long end = System.nanoTime() + seconds * 1_000_000_000L;
+        final CountDownLatch done = new CountDownLatch(clients);
+        final Client[] all = new Client[clients];
+        for (int i = 0; i < clients; i++) {
+            all[i] = new Client(http, url + "/ledgers/ledger-" + (i % ledgers), i, end, record, done);
+            all[i].next();
+        }
+        done.await();
+        return all;
+    }
+
+    private static void report(Client[] clients, int seconds) {
+        long requests = 0;
+        long errors = 0;
+        for (Client client : clients) {
+            requests += client.count;
+            errors += client.errors.get();
+        }
+        long[] latencies = new long[(int) Math.min(Integer.MAX_VALUE - 8, requests)];
+        int size = 0;
+        for (Client client : clients) {
+            int count = (int) Math.min(client.count, latencies.length - size);
+            System.arraycopy(client.latencies, 0, latencies, size, count);
+            size += count;
+        }
+        Arrays.sort(latencies, 0, size);
+        System.out.printf("Requests: %,d (%,d failed), %,.0f requests/s%n", requests, errors, requests / (double) seconds);
+        if (size > 0) {
+            System.out.printf("Latency ms: p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, max %.2f%n",
+                    percentile(latencies, size, 0.50), percentile(latencies, size, 0.90),
+                    percentile(latencies, size, 0.99), percentile(latencies, size, 0.999), latencies[size - 1] / 1e6);
+        }
+    }
+
+    private static double percentile(long[] sorted, int size, double percentile) {
+        return sorted[(int) Math.min(size - 1, Math.ceil(percentile * size) - 1)] / 1e6;
+    }
+
+    /**
+     * One client: its requests are sequential, so its latencies need no synchronization
+     */
+    private static final class Client {
+        private final HttpClient http;
+        private final String ledgerUrl;
+        private final Random random;
+        private final long end;
+        private final boolean record;
+        private final CountDownLatch done;
+        private final AtomicLong errors = new AtomicLong();
+        private long[] latencies = new long[1024];
+        private long count;
+
+        Client(HttpClient http, String ledgerUrl, int seed, long end, boolean record, CountDownLatch done) {
+            this.http = http;
+            this.ledgerUrl = ledgerUrl;
+            this.random = new Random(seed);
+            this.end = end;
+            this.record = record;
+            this.done = done;
+        }
+
+        void next() {
+            if (System.nanoTime() >= end) {
+                done.countDown();
+                return;
+            }
+            final HttpRequest request = nextRequest();
+            final long start = System.nanoTime();
+            http.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, failure) -> {
+                long latency = System.nanoTime() - start;
+                if (failure != null || response.statusCode() >= 300) {
+                    errors.incrementAndGet();
+                }
+                if (record) {
+                    if (count == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, latencies.length * 2);
+                    }
+                    latencies[(int) count++] = latency;
+                }
+                next();
+            });
+        }
+
+        private HttpRequest nextRequest() {
+            final int kind = random.nextInt(10);
+            final String[] categories = CategoryRegistry.DEFAULT_CATEGORIES;
+            final String category = categories[random.nextInt(categories.length)];
+            if (kind < 7) {
+                String body = "{\"category\": \"" + category + "\", \"name\": \""
+                        + SyntheticLedger.purchaseName(random, random.nextInt(1000)) + "\", \"price\": "
+                        + Cents.toPlainString(SyntheticLedger.priceCents(random)) + "}";
+                return HttpRequest.newBuilder(URI.create(ledgerUrl + "/purchases"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(body))
+                        .build();
+            }
+            String path = kind < 9 ? "/balance" : "/purchases?category=" + category + "&limit=10";
+            return HttpRequest.newBuilder(URI.create(ledgerUrl + path)).GET().build();
+        }
+    }
+}
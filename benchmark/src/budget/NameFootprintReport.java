@@ -0,0 +1,109 @@
+package budget;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Compares the heap taken by purchase names kept as one String each (as loading did before
+ * the NameDictionary) with the dictionary, on a generated ledger of distinct names and on a
+ * stream of repetitive names like a real transaction history, then reports the heap of a
+ * whole loaded DataManager. Run it with a heap large enough for the String side, e.g.
+ * java -Xmx8g -cp ... budget.NameFootprintReport 10000000
+ * Usage: NameFootprintReport [entries]
+ */
+public class NameFootprintReport {
+
+    public static void main(String[] args) throws IOException {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+
+        Path file = Files.createTempFile("purchases", ".txt");
+        try {
+            SyntheticLedger.write(file, entries, 42);
+            System.out.printf("Ledger: %,d purchases, %.1f MB%n", entries, Files.size(file) / (1024.0 * 1024.0));
+            System.out.printf("%-28s %14s %14s %8s%n", "Names", "Strings MB", "Dictionary MB", "Ratio");
+
+            report("distinct (ledger)", entries, new NameSource() {
+                private BufferedReader reader;
+
+                @Override
+                public String next(int index) throws IOException {
+                    if (reader == null) {
+                        reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+                    }
+                    String lineText;
+                    do {
+                        lineText = reader.readLine();
+                    } while (lineText.startsWith("[") || lineText.indexOf('$') < 0);
+                    if (index == entries - 1) {
+                        reader.close();
+                        reader = null;
+                    }
+                    return lineText.substring(0, lineText.lastIndexOf('$')).trim();
+                }
+            });
+
+            Random random = new Random(7);
+            // a fresh String per purchase, like parsing a line does, from about 16,000 distinct names
+            report("repetitive (history)", entries, index -> SyntheticLedger.purchaseName(random, index % 50));
+
+            long before = usedHeap();
+            DataManager dataManager = new DataManager(file, BigDecimal.ZERO);
+            dataManager.loadData();
+            long after = usedHeap();
+            System.out.printf("Loaded DataManager: %,.1f MB for %,d purchases and %,d transactions%n",
+                    (after - before) / 1e6, dataManager.getPurchaseCount(), dataManager.getTransactions().size());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private interface NameSource {
+        String next(int index) throws IOException;
+    }
+
+    /**
+     * Reads the names twice, once into a String array and once into a dictionary (with an int
+     * id per name, what a store or the transaction log keeps), and prints the heap of both
+     */
+    private static void report(String title, int entries, NameSource source) throws IOException {
+        long before = usedHeap();
+        String[] strings = new String[entries];
+        for (int i = 0; i < entries; i++) {
+            strings[i] = source.next(i);
+        }
+        long stringBytes = usedHeap() - before;
+        Reference.reachabilityFence(strings);
+        strings = null;
+
+        before = usedHeap();
+        NameDictionary dictionary = new NameDictionary();
+        int[] ids = new int[entries];
+        for (int i = 0; i < entries; i++) {
+            ids[i] = dictionary.intern(source.next(i));
+        }
+        long dictionaryBytes = usedHeap() - before;
+        Reference.reachabilityFence(ids);
+        System.out.printf("%-28s %14.1f %14.1f %7.1fx   (%,d names, %,d distinct, %,d name bytes)%n", title,
+                stringBytes / 1e6, dictionaryBytes / 1e6, (double) stringBytes / dictionaryBytes,
+                entries, dictionary.size(), dictionary.nameBytes());
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
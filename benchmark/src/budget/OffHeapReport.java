@@ -0,0 +1,109 @@
+package budget;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Loads a generated ledger into a DataManager with the given ColumnStorage and reports the
+ * load time, the heap and the direct memory it keeps, the time of a full collection and the
+ * garbage collector pauses while purchases are added for a while. Run it once per storage
+ * with the same heap, e.g.
+ * java -Xmx4g -XX:MaxDirectMemorySize=8g -cp ... budget.OffHeapReport 10000000 offheap
+ * Usage: OffHeapReport [entries] [heap|offheap] [seconds]
+ */
+public class OffHeapReport {
+    private static long maxPauseMillis;
+    private static long pauses;
+
+    public static void main(String[] args) throws IOException {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        ColumnStorage storage = ColumnStorage.of(args.length > 1 ? args[1] : "offheap");
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+                if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                    GarbageCollectionNotificationInfo info =
+                            GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                    synchronized (OffHeapReport.class) {
+                        maxPauseMillis = Math.max(maxPauseMillis, info.getGcInfo().getDuration());
+                        pauses++;
+                    }
+                }
+            }, null, null);
+        }
+
+        Path file = Files.createTempFile("purchases", ".txt");
+        try {
+            SyntheticLedger.write(file, entries, 42);
+            System.out.printf("Ledger: %,d purchases, %.1f MB, storage %s%n",
+                    entries, Files.size(file) / (1024.0 * 1024.0), storage);
+
+            long start = System.nanoTime();
+            DataManager dataManager = new DataManager(file, BigDecimal.ZERO, storage);
+            dataManager.loadData();
+            System.out.printf("Load:                %,10d ms%n", (System.nanoTime() - start) / 1_000_000);
+
+            start = System.nanoTime();
+            System.gc();
+            System.out.printf("Full collection:     %,10d ms%n", (System.nanoTime() - start) / 1_000_000);
+            Runtime runtime = Runtime.getRuntime();
+            System.out.printf("Heap used:           %,10.1f MB%n", (runtime.totalMemory() - runtime.freeMemory()) / 1e6);
+            for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+                if (pool.getName().equals("direct")) {
+                    System.out.printf("Direct memory:       %,10.1f MB%n", pool.getMemoryUsed() / 1e6);
+                }
+            }
+
+            synchronized (OffHeapReport.class) {
+                maxPauseMillis = 0;
+                pauses = 0;
+            }
+            long collections = collectionCount();
+            long collectionMillis = collectionMillis();
+            Random random = new Random(7);
+            long adds = 0;
+            long end = System.nanoTime() + seconds * 1_000_000_000L;
+            while (System.nanoTime() < end) {
+                for (int i = 0; i < 1000; i++, adds++) {
+                    dataManager.addPurchaseToList(random.nextInt(4),
+                            SyntheticLedger.purchaseName(random, (int) (adds % 50)), SyntheticLedger.priceCents(random));
+                }
+                dataManager.getPurchasesTypesSumSorted();
+            }
+            synchronized (OffHeapReport.class) {
+                System.out.printf("Adds:                %,10d in %d s%n", adds, seconds);
+                System.out.printf("Collections:         %,10d taking %,d ms, longest pause %,d ms (%,d notified)%n",
+                        collectionCount() - collections, collectionMillis() - collectionMillis, maxPauseMillis, pauses);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static long collectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long collectionMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+}
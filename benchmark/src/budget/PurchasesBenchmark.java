@@ -0,0 +1,63 @@
+package budget;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Purchases.addNewPurchase of an existing name (merge, sum and price index update)
+ * and the O(1) Purchases.getPurchasesSum on a category of the given size
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PurchasesBenchmark {
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    int entries;
+
+    private Purchases purchases;
+    private String[] names;
+    private long[] prices;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        Random random = new Random(42);
+        purchases = new Purchases("Food");
+        names = new String[entries];
+        for (int i = 0; i < entries; i++) {
+            names[i] = SyntheticLedger.purchaseName(random, i);
+            purchases.addNewPurchase(names[i], SyntheticLedger.priceCents(random));
+        }
+        prices = new long[1024];
+        for (int i = 0; i < prices.length; i++) {
+            prices[i] = SyntheticLedger.priceCents(random);
+        }
+    }
+
+    @Benchmark
+    public void addNewPurchase() {
+        int i = next++;
+        purchases.addNewPurchase(names[(int) ((i * 0x9E3779B1L) & 0x7FFFFFFF) % entries], prices[i & 1023]);
+    }
+
+    @Benchmark
+    public long getPurchasesSum() {
+        return purchases.getPurchasesSumCents();
+    }
+}
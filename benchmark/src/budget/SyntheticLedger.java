@@ -0,0 +1,51 @@
+package budget;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Writes ledgers in the purchases.txt format filled with generated purchases.
+ * The same seed always gives the same ledger.
+ */
+final class SyntheticLedger {
+    private static final String[] WORDS = {
+            "Milk", "Eggs", "Bread", "Coffee", "Apple", "Cinema", "Socks", "Jacket", "Skate",
+            "Rental", "Gift", "Card", "Water", "Almond", "Cheese", "Ticket", "Book", "Lamp"
+    };
+
+    private SyntheticLedger() {
+    }
+
+    static String purchaseName(Random random, int index) {
+        return WORDS[random.nextInt(WORDS.length)] + ' ' + WORDS[random.nextInt(WORDS.length)] + " #" + index;
+    }
+
+    static long priceCents(Random random) {
+        return 1 + random.nextInt(50_000);
+    }
+
+    /**
+     * Writes a ledger with the given number of distinct purchases spread over all categories
+     */
+    static Path write(Path file, int entries, long seed) throws IOException {
+        Random random = new Random(seed);
+        String[] categories = CategoryRegistry.DEFAULT_CATEGORIES;
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("[Income]\n1000000.00\n");
+            for (int c = 0; c < categories.length; c++) {
+                writer.write("[" + categories[c] + "]\n");
+                for (int i = c; i < entries; i += categories.length) {
+                    writer.write(purchaseName(random, i));
+                    writer.write(" $");
+                    writer.write(Cents.toPlainString(priceCents(random)));
+                    writer.write('\n');
+                }
+            }
+        }
+        return file;
+    }
+}